@@ -9,7 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import svenz.remote.common.utilities.Utilities;
 import svenz.remote.device.DeviceGroupRegistry;
-import svenz.remote.net.nio.SocketChannelManager;
+import svenz.remote.net.nio.ISocketTransport;
 import svenz.remote.net.protocol.ssdp.SSDPManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -24,7 +24,7 @@ import android.net.wifi.WifiManager;
 public class ConnectionReceiver extends BroadcastReceiver
 {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionReceiver.class);
-	private SocketChannelManager m_socketChannelManager;
+	private ISocketTransport m_socketChannelManager;
 	private SSDPManager m_ssdpManager;
 	private DeviceGroupRegistry m_deviceGroupRegistry;
 
@@ -33,7 +33,7 @@ public class ConnectionReceiver extends BroadcastReceiver
 		m_deviceGroupRegistry = deviceGroupRegistry;
 	}
 
-	public void setSocketChannelManager(SocketChannelManager socketChannelManager)
+	public void setSocketChannelManager(ISocketTransport socketChannelManager)
 	{
 		m_socketChannelManager = socketChannelManager;
 	}
@@ -5,11 +5,14 @@ package svenz.remote.action;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import svenz.remote.device.IPowered;
+import svenz.remote.device.IPowered.IAcknowledgedPowered;
 import svenz.remote.device.IPowered.IPoweredAware;
+import svenz.remote.device.ipremote.CommandFuture;
 
 /**
  * When run, sets {@link IPowered#isPowered()} to a consistent state across all {@link IPowered} registered with
@@ -40,6 +43,17 @@ public class PowerToggleAction implements Runnable, IPoweredAware
 
 	@Override
 	public void run()
+	{
+		toggle();
+	}
+
+	/**
+	 * Same as {@link #run()}
+	 * 
+	 * @return future completed once every device has acknowledged its power command. Devices that don't report
+	 *         acknowledgement are not waited for.
+	 */
+	public CommandFuture toggle()
 	{
 		int on = 0, off = 0;
 		Collection<IPowered> powereds = new ArrayList<IPowered>(m_powereds);
@@ -54,16 +68,36 @@ public class PowerToggleAction implements Runnable, IPoweredAware
 		
 		// TODO - change to match Android impl
 		// sends the powerOn/powerOff even if already in that state, just in case actual state is incorrect
-		if ((on > 0 && on < size) || (off == powereds.size()))
-		{ // some but not all on, or all off
-			for (IPowered powered : powereds)
-				powered.powerOn();
+		// some but not all on, or all off, turn on. Otherwise some but not all off, or all on, turn off.
+		boolean powerOn = (on > 0 && on < size) || (off == powereds.size());
+		List<CommandFuture> futures = new ArrayList<CommandFuture>(size);
+		for (IPowered powered : powereds)
+			futures.add(setPower(powered, powerOn));
+
+		final CommandFuture all = CommandFuture.all(futures);
+		all.addListener(new Runnable() {
+			@Override
+			public void run()
+			{
+				if (!all.isSucceeded())
+					LOGGER.warn("Power toggle not acknowledged", all.getFailure());
+			}
+		});
+		return all;
+	}
+
+	private static CommandFuture setPower(IPowered powered, boolean powerOn)
+	{
+		if (powered instanceof IAcknowledgedPowered)
+		{
+			IAcknowledgedPowered acknowledged = (IAcknowledgedPowered) powered;
+			return powerOn ? acknowledged.submitPowerOn() : acknowledged.submitPowerOff();
 		}
+		if (powerOn)
+			powered.powerOn();
 		else
-		{// some but not all off, or all on
-			for (IPowered powered : powereds)
-				powered.powerOff();
-		}
+			powered.powerOff();
+		return CommandFuture.completed(null);
 	}
 
 }
@@ -4,6 +4,8 @@
 package svenz.remote.action;
 
 import svenz.remote.device.ISelectable;
+import svenz.remote.device.ISelectable.IAcknowledgedSelectable;
+import svenz.remote.device.ipremote.CommandFuture;
 
 /**
  * Calls {@link ISelectable#setSelection(String)} to a specific value when run.
@@ -29,7 +31,21 @@ public class SetSelectionAction implements Runnable
 	@Override
 	public void run()
 	{
+		select();
+	}
+
+	/**
+	 * Same as {@link #run()}
+	 * 
+	 * @return future completed once the device acknowledges the selection, or immediately if the selectable doesn't
+	 *         report acknowledgement
+	 */
+	public CommandFuture select()
+	{
+		if (m_selectable instanceof IAcknowledgedSelectable)
+			return ((IAcknowledgedSelectable) m_selectable).submitSelection(m_option);
 		m_selectable.setSelection(m_option);
+		return CommandFuture.completed(null);
 	}
 
 }
@@ -0,0 +1,315 @@
+/**
+ *
+ * HashedTimingWheel.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.common.thread;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HashedTimingWheel schedules many short lived timeouts cheaply. Timeouts hash into a ring of slots by deadline and
+ * a single thread advances one slot per tick, running what has expired. Scheduling and cancelling are O(1) and
+ * never touch a shared heap, at the cost of firing up to one tick late.
+ * <p>
+ * Tasks run on the wheel thread, so must be quick. Hand anything longer to an executor.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class HashedTimingWheel implements Closeable
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(HashedTimingWheel.class);
+	private static final int STATE_INIT = 0;
+	private static final int STATE_STARTED = 1;
+	private static final int STATE_CLOSED = 2;
+	private static final int TRANSFER_LIMIT = 100000;
+	private static HashedTimingWheel s_default;
+
+	private final ThreadFactory m_threadFactory;
+	private final long m_tickNanos;
+	private final Timeout[] m_wheel;
+	private final int m_mask;
+	private final long m_startTime = System.nanoTime();
+	private final Queue<Timeout> m_pending = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger m_state = new AtomicInteger(STATE_INIT);
+	private Thread m_thread;
+	private long m_tick;
+
+	/**
+	 * Wheel with 100ms ticks and 512 slots, on a daemon thread
+	 */
+	public HashedTimingWheel()
+	{
+		this(new NameThreadFactory(new DaemonThreadFactory(new BasicThreadFactory()), "TimingWheel-"), 100,
+				TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * @param threadFactory
+	 * @param tickDuration
+	 *            resolution of the timeouts
+	 * @param unit
+	 * @param ticksPerWheel
+	 *            number of slots, rounded up to a power of 2
+	 */
+	public HashedTimingWheel(ThreadFactory threadFactory, long tickDuration, TimeUnit unit, int ticksPerWheel)
+	{
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+		if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30)
+			throw new IllegalArgumentException("ticksPerWheel out of range: " + ticksPerWheel);
+		int size = 1;
+		while (size < ticksPerWheel)
+			size <<= 1;
+		m_threadFactory = threadFactory;
+		m_tickNanos = unit.toNanos(tickDuration);
+		m_wheel = new Timeout[size];
+		m_mask = size - 1;
+	}
+
+	/**
+	 * @return wheel shared by everything not given one of its own. Never closed.
+	 */
+	public static synchronized HashedTimingWheel getDefault()
+	{
+		if (s_default == null)
+			s_default = new HashedTimingWheel();
+		return s_default;
+	}
+
+	/**
+	 * Run task once delay has passed.
+	 * 
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return handle to cancel the task
+	 * @throws IllegalStateException
+	 *             if the wheel is closed
+	 */
+	public ITimeout schedule(Runnable task, long delay, TimeUnit unit)
+	{
+		start();
+		Timeout timeout = new Timeout(task, System.nanoTime() - m_startTime + unit.toNanos(Math.max(delay, 0)));
+		m_pending.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Run task on executor once delay has passed, keeping the wheel thread free for tasks that block or take a while,
+	 * e.g. writing to a channel or notifying listeners.
+	 * 
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @param executor
+	 *            executor to run task on, if null task runs on the wheel thread
+	 * @return handle to cancel the task
+	 * @throws IllegalStateException
+	 *             if the wheel is closed
+	 */
+	public ITimeout schedule(final Runnable task, long delay, TimeUnit unit, final Executor executor)
+	{
+		if (executor == null)
+			return schedule(task, delay, unit);
+		return schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				executor.execute(task);
+			}
+		}, delay, unit);
+	}
+
+	private void start()
+	{
+		switch (m_state.get())
+		{
+		case STATE_INIT:
+			if (m_state.compareAndSet(STATE_INIT, STATE_STARTED))
+			{
+				synchronized (this)
+				{
+					m_thread = m_threadFactory.newThread(new Worker());
+					m_thread.start();
+				}
+			}
+			break;
+		case STATE_STARTED:
+			break;
+		default:
+			throw new IllegalStateException("HashedTimingWheel closed");
+		}
+	}
+
+	/**
+	 * Stop the wheel thread. Timeouts not yet run are dropped.
+	 */
+	@Override
+	public void close()
+	{
+		if (m_state.getAndSet(STATE_CLOSED) != STATE_STARTED)
+			return;
+		synchronized (this)
+		{
+			m_thread.interrupt();
+		}
+	}
+
+	private final class Worker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			LOGGER.trace("Timing wheel started");
+			while (m_state.get() == STATE_STARTED)
+			{
+				long deadline = waitForNextTick();
+				if (deadline < 0)
+					break;
+				transferPending();
+				expire(m_wheel[(int) (m_tick & m_mask)], deadline);
+				m_tick++;
+			}
+			LOGGER.trace("Timing wheel stopped");
+		}
+
+		/**
+		 * @return time of the tick relative to the start, or -1 if closed while waiting
+		 */
+		private long waitForNextTick()
+		{
+			long deadline = m_tickNanos * (m_tick + 1);
+			while (true)
+			{
+				long sleep = deadline - (System.nanoTime() - m_startTime);
+				if (sleep <= 0)
+					return deadline;
+				LockSupport.parkNanos(this, sleep);
+				if (Thread.interrupted() || m_state.get() != STATE_STARTED)
+					return -1;
+			}
+		}
+
+		private void transferPending()
+		{
+			Timeout timeout;
+			for (int i = 0; i < TRANSFER_LIMIT && null != (timeout = m_pending.poll()); i++)
+			{
+				if (timeout.isCancelled())
+					continue;
+				long ticks = timeout.m_deadline / m_tickNanos;
+				timeout.m_rounds = (ticks - m_tick) / m_wheel.length;
+				int slot = (int) (Math.max(ticks, m_tick) & m_mask); // already late, run this tick
+				timeout.m_next = m_wheel[slot];
+				m_wheel[slot] = timeout;
+			}
+		}
+
+		private void expire(Timeout head, long deadline)
+		{
+			int slot = (int) (m_tick & m_mask);
+			Timeout prev = null;
+			for (Timeout timeout = head; timeout != null;)
+			{
+				Timeout next = timeout.m_next;
+				boolean remove;
+				if (timeout.isCancelled())
+				{
+					remove = true;
+				}
+				else if (timeout.m_rounds <= 0 && timeout.m_deadline <= deadline)
+				{
+					remove = true;
+					timeout.expire();
+				}
+				else
+				{
+					remove = false;
+					timeout.m_rounds--;
+				}
+
+				if (remove)
+				{
+					if (prev == null)
+						m_wheel[slot] = next;
+					else
+						prev.m_next = next;
+					timeout.m_next = null;
+				}
+				else
+				{
+					prev = timeout;
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	private static final class Timeout implements ITimeout
+	{
+		private static final int INIT = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		private final Runnable m_task;
+		private final long m_deadline;
+		private final AtomicInteger m_state = new AtomicInteger(INIT);
+		private long m_rounds;
+		private Timeout m_next;
+
+		Timeout(Runnable task, long deadline)
+		{
+			m_task = task;
+			m_deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel()
+		{
+			return m_state.compareAndSet(INIT, CANCELLED);
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return m_state.get() == CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired()
+		{
+			return m_state.get() == EXPIRED;
+		}
+
+		void expire()
+		{
+			if (!m_state.compareAndSet(INIT, EXPIRED))
+				return;
+			try
+			{
+				m_task.run();
+			}
+			catch (Throwable t)
+			{
+				LOGGER.error("Timeout task {} threw", m_task, t);
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Timeout[" + m_task + "]";
+		}
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ * ITimeout.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.common.thread;
+
+/**
+ * Handle to a task scheduled with {@link HashedTimingWheel}
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface ITimeout
+{
+	/**
+	 * Cancel the task if it hasn't run yet. Cheap, the task is dropped from the wheel when its slot next comes up.
+	 * 
+	 * @return true if cancelled, false if it already ran or was cancelled
+	 */
+	boolean cancel();
+
+	boolean isCancelled();
+
+	boolean isExpired();
+}
@@ -0,0 +1,65 @@
+/**
+ *
+ * VirtualThreadFactory.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.common.thread;
+
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * VirtualThreadFactory creates virtual threads when running on JDK 21 or later, otherwise delegates to a fallback
+ * factory. Looked up reflectively so the code still loads on older runtimes.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class VirtualThreadFactory implements ThreadFactory
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadFactory.class);
+	private final ThreadFactory m_factory;
+	private final boolean m_virtual;
+
+	public VirtualThreadFactory(ThreadFactory fallback)
+	{
+		ThreadFactory factory = createVirtualFactory();
+		m_virtual = factory != null;
+		m_factory = m_virtual ? factory : fallback;
+	}
+
+	/**
+	 * @return true if virtual threads are being created, false if using the fallback
+	 */
+	public boolean isVirtual()
+	{
+		return m_virtual;
+	}
+
+	@Override
+	public Thread newThread(Runnable r)
+	{
+		return m_factory.newThread(r);
+	}
+
+	private static ThreadFactory createVirtualFactory()
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		}
+		catch (NoSuchMethodException e)
+		{
+			LOGGER.debug("Virtual threads not available");
+			return null;
+		}
+		catch (Exception e)
+		{
+			LOGGER.warn("Unable to create virtual thread factory", e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ * PrefixTrie.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.common.utilities;
+
+import java.util.Arrays;
+
+/**
+ * PrefixTrie finds the value for the longest registered prefix of a string in a single pass over its characters,
+ * without allocating. Suited to dispatching device responses that start with a fixed code, e.g. "VOL" or "Z2MUT".
+ * <p>
+ * Not thread safe while being built. Once built and safely published, e.g. through a final field, it may be read from
+ * any thread.
+ *
+ * @author Sven Zethelius
+ *
+ * @param <V>
+ */
+public class PrefixTrie<V>
+{
+	private final Node<V> m_root = new Node<V>();
+	private int m_size;
+
+	/**
+	 * @param prefix
+	 * @param value
+	 * @return the value previously registered for prefix, or null
+	 */
+	public V put(String prefix, V value)
+	{
+		if (value == null)
+			throw new IllegalArgumentException("null value for prefix '" + prefix + "'");
+		Node<V> node = m_root;
+		for (int i = 0; i < prefix.length(); i++)
+			node = node.getOrAddChild(prefix.charAt(i));
+		V old = node.m_value;
+		node.m_value = value;
+		if (old == null)
+			m_size++;
+		return old;
+	}
+
+	/**
+	 * @param s
+	 * @return value of the longest registered prefix of s, null if no prefix matches
+	 */
+	public V get(CharSequence s)
+	{
+		Node<V> node = m_root;
+		V value = node.m_value;
+		for (int i = 0, length = s.length(); i < length && null != (node = node.getChild(s.charAt(i))); i++)
+		{
+			if (node.m_value != null)
+				value = node.m_value;
+		}
+		return value;
+	}
+
+	/**
+	 * @return number of prefixes registered
+	 */
+	public int size()
+	{
+		return m_size;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PrefixTrie[" + m_size + "]";
+	}
+
+	private static class Node<V>
+	{
+		private static final char[] NO_KEYS = new char[0];
+
+		// children are few, a sorted array is smaller and faster than a map of boxed chars
+		private char[] m_keys = NO_KEYS;
+		private Node<V>[] m_children;
+		private V m_value;
+
+		public Node<V> getChild(char c)
+		{
+			int i = Arrays.binarySearch(m_keys, c);
+			return i >= 0 ? m_children[i] : null;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public Node<V> getOrAddChild(char c)
+		{
+			int i = Arrays.binarySearch(m_keys, c);
+			if (i >= 0)
+				return m_children[i];
+
+			i = -i - 1;
+			char[] keys = new char[m_keys.length + 1];
+			Node<V>[] children = new Node[keys.length];
+			System.arraycopy(m_keys, 0, keys, 0, i);
+			System.arraycopy(m_keys, i, keys, i + 1, m_keys.length - i);
+			if (m_children != null)
+			{
+				System.arraycopy(m_children, 0, children, 0, i);
+				System.arraycopy(m_children, i, children, i + 1, m_keys.length - i);
+			}
+			keys[i] = c;
+			children[i] = new Node<V>();
+			m_keys = keys;
+			m_children = children;
+			return children[i];
+		}
+	}
+}
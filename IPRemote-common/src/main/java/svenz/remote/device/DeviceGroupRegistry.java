@@ -23,15 +23,17 @@ import svenz.remote.common.utilities.Utilities;
 import svenz.remote.device.IMenu.IMenusAware;
 import svenz.remote.device.IPlayable.IPlayableAware;
 import svenz.remote.device.IPowered.IPoweredAware;
+import svenz.remote.device.ISelectable.IAcknowledgedSelectable;
 import svenz.remote.device.ISound.ISoundAware;
 import svenz.remote.device.impl.ChangableImpl;
 import svenz.remote.device.ipremote.AbstractDevice;
+import svenz.remote.device.ipremote.CommandFuture;
 import svenz.remote.device.jaxb.DeviceGroups;
 import svenz.remote.device.jaxb.DeviceReference;
 import svenz.remote.device.jaxb.Group;
 import svenz.remote.device.jaxb.MenuReference;
 import svenz.remote.device.jaxb.SelectableReference;
-import svenz.remote.net.nio.SocketChannelManager;
+import svenz.remote.net.nio.ISocketTransport;
 import svenz.remote.net.protocol.ssdp.SSDPManager;
 
 /**
@@ -52,7 +54,7 @@ public class DeviceGroupRegistry implements Closeable, IChangable
 
 
 	private ScheduledExecutorService m_executor;
-	private SocketChannelManager m_channelManager;
+	private ISocketTransport m_channelManager;
 	private SSDPManager m_ssdpManager;
 	private final ChangableImpl<DeviceGroup> m_change = new ChangableImpl<DeviceGroup>(this, "activeDeviceGroup");
 
@@ -72,7 +74,7 @@ public class DeviceGroupRegistry implements Closeable, IChangable
 		m_executor = executor;
 	}
 
-	public void setChannelManager(SocketChannelManager channelManager)
+	public void setChannelManager(ISocketTransport channelManager)
 	{
 		synchronized (m_devices)
 		{
@@ -143,7 +145,7 @@ public class DeviceGroupRegistry implements Closeable, IChangable
 		{
 			BeanAdapter bean = new BeanAdapter();
 			for (svenz.remote.device.jaxb.Device device : deviceGroups.getDevices())
-				bean.addRoot(device.getName(), initDevice(device.getImplInstance()));
+				bean.addRoot(device.getName(), initDevice(device));
 
 			for (Group group : deviceGroups.getGroups())
 			{
@@ -164,9 +166,12 @@ public class DeviceGroupRegistry implements Closeable, IChangable
 		}
 	}
 
-	private AbstractDevice initDevice(Object o)
+	private AbstractDevice initDevice(svenz.remote.device.jaxb.Device config) throws InstantiationException,
+			IllegalAccessException
 	{
-		AbstractDevice device = (AbstractDevice) o;
+		AbstractDevice device = (AbstractDevice) config.getImplInstance();
+		if (config.getCommandsPerSecond() > 0)
+			device.setRateLimit(config.getCommandsPerSecond(), config.getBurst());
 		device.setChannelManager(m_channelManager);
 		device.setExecutor(m_executor);
 		device.setSSDPManager(m_ssdpManager);
@@ -454,8 +459,22 @@ public class DeviceGroupRegistry implements Closeable, IChangable
 		@Override
 		public void stateChanged(Object target, String property)
 		{
-			if (m_powered.isPowered())
+			if (!m_powered.isPowered())
+				return;
+			if (!(m_selectable instanceof IAcknowledgedSelectable))
+			{
 				m_selectable.setSelection(m_selection);
+				return;
+			}
+			final CommandFuture future = ((IAcknowledgedSelectable) m_selectable).submitSelection(m_selection);
+			future.addListener(new Runnable() {
+				@Override
+				public void run()
+				{
+					if (!future.isSucceeded())
+						LOGGER.warn("Unable to select " + m_selection + " on " + m_selectable, future.getFailure());
+				}
+			});
 		}
 
 		public void register()
@@ -17,6 +17,7 @@
 package svenz.remote.device;
 
 import java.util.Collection;
+import svenz.remote.device.ipremote.CommandFuture;
 
 /**
  * @author Sven Zethelius
@@ -29,6 +30,29 @@ public interface IPowered extends IChangable
 	void powerOn();
 
 	void powerOff();
+
+	/**
+	 * {@link IPowered} that reports when the device acknowledges a power change
+	 * 
+	 * @author Sven Zethelius
+	 * 
+	 */
+	public static interface IAcknowledgedPowered extends IPowered
+	{
+		/**
+		 * Same as {@link #powerOn()}
+		 * 
+		 * @return future completed once the device acknowledges the command
+		 */
+		public CommandFuture submitPowerOn();
+
+		/**
+		 * Same as {@link #powerOff()}
+		 * 
+		 * @return future completed once the device acknowledges the command
+		 */
+		public CommandFuture submitPowerOff();
+	}
 	
 	public static interface IPoweredAware
 	{
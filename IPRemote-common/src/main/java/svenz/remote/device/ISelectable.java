@@ -17,6 +17,7 @@
 package svenz.remote.device;
 
 import java.util.Collection;
+import svenz.remote.device.ipremote.CommandFuture;
 
 /**
  * @author Sven Zethelius
@@ -29,4 +30,21 @@ public interface ISelectable extends IChangable
 	void setSelection(String input);
 
 	String getSelection();
+
+	/**
+	 * {@link ISelectable} that reports when the device acknowledges a selection
+	 * 
+	 * @author Sven Zethelius
+	 * 
+	 */
+	public static interface IAcknowledgedSelectable extends ISelectable
+	{
+		/**
+		 * Same as {@link #setSelection(String)}
+		 * 
+		 * @param input
+		 * @return future completed once the device acknowledges the selection
+		 */
+		public CommandFuture submitSelection(String input);
+	}
 }
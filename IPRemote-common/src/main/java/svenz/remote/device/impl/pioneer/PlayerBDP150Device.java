@@ -22,12 +22,15 @@ import svenz.remote.device.IPlayable;
 import svenz.remote.device.IPlayable.Action;
 import svenz.remote.device.ipremote.AbstractCoded;
 import svenz.remote.device.ipremote.AbstractQueuingDevice;
+import svenz.remote.device.ipremote.BackoffRetryPolicy;
 import svenz.remote.device.ipremote.ChannelDeviceListener;
+import svenz.remote.device.ipremote.CodeIndex;
+import svenz.remote.device.ipremote.CommandFuture;
+import svenz.remote.device.ipremote.IRetryPolicy;
 import svenz.remote.device.ipremote.MenuImpl;
 import svenz.remote.device.ipremote.PlayableImpl;
 import svenz.remote.device.ipremote.PoweredImpl;
 import svenz.remote.device.ipremote.QueryChangeListener;
-import svenz.remote.device.ipremote.QueuingWritableByteChannel;
 import svenz.remote.device.ipremote.SelectableImpl;
 import svenz.remote.net.protocol.ssdp.MatchingDeviceListener;
 import svenz.remote.net.protocol.ssdp.SSDPManager.IDeviceListener;
@@ -38,6 +41,9 @@ import svenz.remote.net.protocol.ssdp.SSDPManager.IDeviceListener;
  */
 public class PlayerBDP150Device extends AbstractQueuingDevice
 {
+	// corrupt responses clear up quickly after power on, slow down if they persist
+	private static final IRetryPolicy QUERY_RETRY = new BackoffRetryPolicy(500, TimeUnit.SECONDS.toMillis(5), -1);
+	private static final IRetryPolicy EXIT_NETFLIX_RETRY = new BackoffRetryPolicy(TimeUnit.SECONDS.toMillis(30));
 	private transient ScheduledExecutorService m_executor;
 	private final PoweredImpl m_powered = new GracefulPoweredImpl();
 	private final MenuImpl m_menuDisk = new MenuImpl();
@@ -177,22 +183,25 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 	protected boolean handleResponse(String response, String lastCode)
 	{
 		IPlayable.Action action;
-		String diskState, inputState;
+		String diskState;
+		CodeIndex.Entry entry = resolve(lastCode);
+		AbstractCoded<?> coded = entry != null ? entry.getCoded() : null;
+		String command = entry != null ? entry.getCommand() : null;
 		if ("R".equals(response))
 		{
-			return processSuccess(lastCode);
+			return processSuccess(lastCode, coded, command);
 		}
 		else if ("BDP-150".equals(response))
 		{
 			clearPending(lastCode);
-			return processSuccess(lastCode);
+			return processSuccess(lastCode, coded, command);
 		}
 		else if (response.startsWith("E"))
 		{
-			processFailure(lastCode, response);
+			processFailure(lastCode, coded, command, response);
 			return false;
 		}
-		else if ("Query".equals(m_playable.getCommand(lastCode)))
+		else if (coded == m_playable && "Query".equals(command))
 		{
 			if (null != (action = m_playActions.get(response)))
 			{
@@ -206,7 +215,7 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 				return false;
 			}
 		}
-		else if ("Query".equals(m_disk.getCommand(lastCode)))
+		else if (coded == m_disk && "Query".equals(command))
 		{ // we have a disk state
 			if (null != (diskState = m_diskStates.get(response)))
 			{
@@ -221,19 +230,15 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 				return false;
 			}
 		}
-		else if (null != (inputState = m_input.getCommand(lastCode)))
+		else if (coded == m_input)
 		{
-			if ("Query".equals(inputState))
+			if ("Query".equals(command))
 			{
 				clearPending(lastCode);
 				m_input.setStatus("dvd"); // Query success is DVD/BD mode
 			}
 			else
-				m_input.setStatus(inputState); // note that gives NO useful state info when in netflix mode
-		}
-		else if ("Query".equals(m_playable.getCommand(lastCode)))
-		{
-
+				m_input.setStatus(command); // note that gives NO useful state info when in netflix mode
 		}
 		// TODO more states
 		else
@@ -243,10 +248,7 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 
 	private void retryQuery(AbstractCoded<?> coded)
 	{
-		QueuingWritableByteChannel channel = getQueuingWritableByteChannel();
-		channel.setRetryDelayMS(TimeUnit.SECONDS.toMillis(5));
-		coded.query();
-		channel.setRetryDelayMS(-1);
+		coded.query(QUERY_RETRY);
 	}
 
 	private boolean processPlayState(Action action)
@@ -276,17 +278,16 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 		return true;
 	}
 
-	private void processFailure(String lastCode, String response)
+	private void processFailure(String lastCode, AbstractCoded<?> coded, String command, String response)
 	{
-		String power, play, disk, input;
 		if ("E04".equals(response))
 		{
-			if("On".equals(power = m_powered.getCommand(lastCode)))
+			if (coded == m_powered && "On".equals(command))
 			{ // failed on powerOn - we are already on.
 				m_powered.setStatus(true);
 				return;
 			}
-			else if ("Off".equals(power))
+			else if (coded == m_powered && "Off".equals(command))
 			{
 				m_powered.setStatus(false);
 				return;
@@ -295,7 +296,7 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 			{ // we are already polling for power state
 				return; // do nothing,
 			}
-			else if ("Query".equals(input = m_input.getCommand(lastCode)))
+			else if (coded == m_input && "Query".equals(command))
 			{
 				clearPending(lastCode);
 				// input Query failed, means we don't know input, implies one of web contents, e.g. netflix
@@ -304,9 +305,7 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 					m_input.setStatus("netflix");
 				return;
 			}
-			else if ("Query".equals(power)
-					|| "Query".equals(play = m_playable.getCommand(lastCode))
-					|| "Query".equals(disk = m_disk.getCommand(lastCode)))
+			else if ("Query".equals(command) && (coded == m_powered || coded == m_playable || coded == m_disk))
 			{ // query failed and we aren't busy
 				m_powered.setStatus(false);
 				clearPending();
@@ -317,37 +316,34 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 		getLogger().error("Unhandled failure: {} {}", response, lastCode);
 	}
 
-	private boolean processSuccess(String lastCode)
+	private boolean processSuccess(String lastCode, AbstractCoded<?> coded, String command)
 	{
-		String command = m_powered.getCommand(lastCode), input;
-		if ("Query".equals(command))
+		if (coded == m_powered && "Query".equals(command))
 		{
 			endBusy(m_busyPolling);
 			m_powered.setStatus(true);
 			return true;
 		}
-		else if ("On".equals(command))
+		else if (coded == m_powered && "On".equals(command))
 		{ // successful power on means we now need to wait for the player to initialize.
 			// there is a period when it won't respond to commands while loading.
 			startBusy();
 			return true;
 		}
-		else if ("Off".equals(command))
+		else if (coded == m_powered && "Off".equals(command))
 		{
 			endBusy(m_busyPolling);
 			m_powered.setStatus(false);
 			return true;
 		}
-		else if (null != (command = m_playable.getCommand(lastCode)))
+		else if (coded == m_playable)
 			return processPlayState(Action.valueOf(command));
-		else if (null != (command = m_disk.getCommand(lastCode)))
+		else if (coded == m_disk)
 			m_disk.setStatus(command);
-		else if (null != m_menuDisk.getCommand(lastCode))
+		else if (coded == m_menuDisk || coded == m_menuMain)
 			; // TODO menu tracking?
-		else if (null != m_menuMain.getCommand(lastCode))
-			; // TODO menu tracking?
-		else if (null != (input = m_input.getCommand(lastCode)))
-			m_input.setStatus(input);
+		else if (coded == m_input)
+			m_input.setStatus(command);
 		else
 		{
 			getLogger().warn("Unhandled success: {}", lastCode);
@@ -438,21 +434,21 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 	private class PlayerInput extends SelectableImpl
 	{
 		@Override
-		public void setSelection(String input)
+		public CommandFuture submitSelection(String input)
 		{
 			if (!"netflix".equals(input) && "netflix".equals(getStatus()))
 			{ // netflix needs to be "gracefully" exited or all hell breaks loose.
-				QueuingWritableByteChannel channel = getQueuingWritableByteChannel();
-				channel.setRetryDelayMS(TimeUnit.SECONDS.toMillis(30));
-				m_playable.setAction(IPlayable.Action.Stop);
-				m_menuMain.action(IMenu.Action.Exit);
-				channel.setRetryDelayMS(-1);
+				m_playable.setAction(IPlayable.Action.Stop, EXIT_NETFLIX_RETRY);
+				m_menuMain.action(IMenu.Action.Exit, EXIT_NETFLIX_RETRY);
 			}
 			if ("dvd".equals(input))
+			{
 				setStatus("dvd"); // no codes to send
+				return CommandFuture.completed(null);
+			}
 			// TODO any way to exit netflix safely?
 			else
-				super.setSelection(input);
+				return super.submitSelection(input);
 		}
 	}
 
@@ -465,10 +461,10 @@ public class PlayerBDP150Device extends AbstractQueuingDevice
 	private class GracefulPoweredImpl extends PoweredImpl
 	{
 		@Override
-		public void powerOff()
+		public CommandFuture submitPowerOff()
 		{
 			m_input.setStatus(null);
-			super.powerOff();
+			return super.submitPowerOff();
 		}
 	}
 
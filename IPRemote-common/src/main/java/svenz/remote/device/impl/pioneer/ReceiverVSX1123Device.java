@@ -3,8 +3,16 @@
  */
 package svenz.remote.device.impl.pioneer;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.xml.namespace.QName;
 import org.apache.commons.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.utilities.PrefixTrie;
 import svenz.remote.device.ipremote.AbstractCoded;
 import svenz.remote.device.ipremote.AbstractDevice;
 import svenz.remote.device.ipremote.ChannelDeviceListener;
@@ -26,6 +34,24 @@ public class ReceiverVSX1123Device extends AbstractDevice
 	private final Zone2 m_zone2;
 	private final ZoneHDMI m_zoneHDMI;
 	private final AbstractCoded<String> m_display = new AbstractCoded<String>("display", this);
+	// response targets by name, e.g. zone1.power
+	private final Map<String, AbstractCoded<?>> m_targets = new HashMap<String, AbstractCoded<?>>();
+	private final PrefixTrie<ResponseHandler> m_responses = new PrefixTrie<ResponseHandler>();
+	// FL display text decoded from hex, reused for every frame
+	private char[] m_displayChars = new char[32];
+	private final Object m_displayLock = new Object();
+	private final Runnable m_displayFlush = new Runnable() {
+		@Override
+		public void run()
+		{
+			flushDisplay();
+		}
+	};
+	private transient HashedTimingWheel m_timer = HashedTimingWheel.getDefault();
+	private long m_displayWindowNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	// guarded by m_displayLock: latest frame waiting for the window to end, and System.nanoTime() it was last set
+	private String m_displayPending;
+	private long m_displayPublishedNanos;
 
 	public ReceiverVSX1123Device()
 	{
@@ -41,6 +67,28 @@ public class ReceiverVSX1123Device extends AbstractDevice
 		m_display.setName("AVR.display");
 		m_display.setCodes(codes.subset("display"));
 		register(m_display);
+
+		initResponses(codes.subset("response"));
+	}
+
+	private void initResponses(Configuration responses)
+	{
+		for (Iterator<String> iter = responses.getKeys(); iter.hasNext();)
+		{
+			String prefix = iter.next();
+			String[] value = responses.getString(prefix).split(",", 2);
+			ResponseDecoder decoder = ResponseDecoder.valueOf(value[0]);
+			String arg = value.length > 1 ? value[1] : null;
+			AbstractCoded<?> target = null;
+			if (decoder.getTargetType() != null)
+			{
+				target = m_targets.get(arg);
+				if (!decoder.getTargetType().isInstance(target))
+					throw new IllegalStateException("Response " + prefix + " needs a " + decoder.getTargetType()
+							+ " target: " + arg);
+			}
+			m_responses.put(prefix, new ResponseHandler(prefix.length(), decoder, target, arg));
+		}
 	}
 
 	public Zone1 getZone1()
@@ -84,91 +132,125 @@ public class ReceiverVSX1123Device extends AbstractDevice
 		return zone;
 	}
 
-	private void setStatus(PoweredImpl powered, String status)
+	/**
+	 * Set the timing wheel the display update window is timed on. Defaults to {@link HashedTimingWheel#getDefault()}.
+	 *
+	 * @param timer
+	 */
+	public void setTimer(HashedTimingWheel timer)
 	{
-		powered.setStatus("0".equals(status));
+		m_timer = timer;
 	}
 
-	private void setVolumeStatus(SoundImpl sound, String vol)
+	/**
+	 * Bound how often display listeners are notified while the front panel scrolls. The first frame after a quiet
+	 * period is set immediately, frames arriving within the window after it are coalesced and only the latest is set
+	 * when the window ends. 0 sets every frame.
+	 *
+	 * @param window
+	 * @param unit
+	 */
+	public void setDisplayUpdateWindow(long window, TimeUnit unit)
 	{
-		sound.setVolumeStatus(Integer.parseInt(vol, 10));
+		m_displayWindowNanos = unit.toNanos(window);
 	}
 
-	private void setMuteStatus(SoundImpl sound, String mute)
+	/**
+	 * Decode the hex encoded display text of an FL response, e.g. FL022020564F4C20, without allocating unless the text
+	 * changed.
+	 *
+	 * @param response
+	 * @param offset
+	 *            where the hex starts
+	 */
+	private void setDisplay(String response, int offset)
 	{
-		sound.setMuteStatus("0".equals(mute));
+		int length = (response.length() - offset) / 2;
+		if (m_displayChars.length < length)
+			m_displayChars = new char[length];
+		char[] chars = m_displayChars;
+		for (int i = 0, j = offset; i < length; i++, j += 2)
+			chars[i] = (char) (getHexDigit(response, j) << 4 | getHexDigit(response, j + 1));
+
+		// trim, the first char is flags
+		int start = 0, end = length;
+		while (start < end && chars[start] <= ' ')
+			start++;
+		while (end > start && chars[end - 1] <= ' ')
+			end--;
+		setDisplay(chars, start, end);
 	}
 
-	private void setInputStatus(SelectableImpl select, String input)
+	private static int getHexDigit(String s, int i)
 	{
-		select.setStatus(input);
+		int digit = Character.digit(s.charAt(i), 16);
+		if (digit < 0)
+			throw new NumberFormatException("Invalid hex in '" + s + "'");
+		return digit;
 	}
 
-	private void setDisplay(String display)
+	private void setDisplay(char[] chars, int start, int end)
 	{
-		display = display.trim();
-
-		String displayOld = m_display.getStatus();
-
-		// find index of displayOld suffix in display
-		if (displayOld != null && displayOld.isEmpty() && display.length() > 2
-				&& display.length() < displayOld.length())
+		String display;
+		synchronized (m_displayLock)
 		{
-			if (displayOld.contains(display))
-				return; // do nothing.
-
-			int idx = displayOld.indexOf(display.substring(0, display.length() - 2));
-			display = displayOld.substring(0, idx) + display;
+			String last = m_displayPending != null ? m_displayPending : m_display.getStatus();
+			if (last != null && isEqual(last, chars, start, end))
+				return; // same frame repeated
+
+			display = new String(chars, start, end - start);
+			long now = System.nanoTime();
+			// nothing shown yet, or the connection was reset, so the frame isn't inside a window
+			long wait = last == null ? 0 : m_displayPublishedNanos + m_displayWindowNanos - now;
+			if (m_displayPending != null || wait > 0)
+			{
+				if (m_displayPending == null)
+					m_timer.schedule(m_displayFlush, wait, TimeUnit.NANOSECONDS, getExecutor());
+				m_displayPending = display;
+				return;
+			}
+			m_displayPublishedNanos = now;
 		}
+		publishDisplay(display);
+	}
 
-		m_display.setStatus(display);
-		getLogger().debug("Display:" + display);
+	private static boolean isEqual(String s, char[] chars, int start, int end)
+	{
+		if (s.length() != end - start)
+			return false;
+		for (int i = start; i < end; i++)
+		{
+			if (s.charAt(i - start) != chars[i])
+				return false;
+		}
+		return true;
 	}
 
-	private String getFromHex(String s)
+	private void flushDisplay()
 	{
-		StringBuilder sb = new StringBuilder(s.length());
-		for (int i = 0; i < s.length(); i += 2)
+		String display;
+		synchronized (m_displayLock)
 		{
-			sb.append((char) Integer.parseInt(s.substring(i, i + 2), 16));
+			display = m_displayPending;
+			m_displayPending = null;
+			m_displayPublishedNanos = System.nanoTime();
 		}
-		return sb.toString();
+		if (display != null)
+			publishDisplay(display);
+	}
+
+	private void publishDisplay(String display)
+	{
+		m_display.setStatus(display);
+		getLogger().debug("Display:{}", display);
 	}
 
 	@Override
 	protected void handleResponse(String response)
 	{
-		if(response.startsWith("PWR"))
-			setStatus(m_zone1.getPowered(), response.substring(3));
-		else if (response.startsWith("APR"))
-			setStatus(m_zone2.getPowered(), response.substring(3));
-		else if (response.startsWith("ZEP"))
-			setStatus(m_zoneHDMI.getPowered(), response.substring(3));
-		else if (response.startsWith("VOL"))
-			setVolumeStatus(m_zone1.m_sound, response.substring(3));
-		else if (response.startsWith("ZV"))
-			setVolumeStatus(m_zone2.m_sound, response.substring(2));
-		else if (response.startsWith("MUT"))
-			setMuteStatus(m_zone1.m_sound, response.substring(3));
-		else if (response.startsWith("Z2MUT"))
-			setMuteStatus(m_zone2.m_sound, response.substring(5));
-		else if (response.startsWith("FN"))
-			setInputStatus(m_zone1.getInput(), response.substring(2));
-		else if (response.startsWith("Z2F"))
-			setInputStatus(m_zone2.getInput(), response.substring(3));
-		else if (response.startsWith("ZEA"))
-			setInputStatus(m_zoneHDMI.getInput(), response.substring(3));
-		else if (response.startsWith("FL"))
-			setDisplay(getFromHex(response.substring(2)).trim());
-		else if (response.startsWith("SR"))
-			m_zone1.getListeningMode().setStatus(response.substring(2));
-		else if (response.startsWith("LM"))
-			// Listening Mode has one set of keys for ?S and SR, but another for ?L and LM.
-			getLogger().debug("Listening mode:{}", response);
-		else if (response.startsWith("AU"))
-			getLogger().debug("Audio Parameter Prohibition:{}", response); // TODO
-		else if (response.startsWith("VTA"))
-			getLogger().debug("Video Parameter Prohibition:{}", response); // TODO
+		ResponseHandler handler = m_responses.get(response);
+		if (handler != null)
+			handler.handle(this, response);
 		else if ("E02".equals(response) && !m_zone1.getPowered().isPowered())
 			getLogger().debug("Error {} because receiver is not powered"); // expected
 		else
@@ -193,7 +275,7 @@ public class ReceiverVSX1123Device extends AbstractDevice
 
 		protected void init(Configuration config, Configuration inputs)
 		{
-			String type = getClass().getSimpleName().toLowerCase();
+			String type = getType();
 			String prefix = "AVR." + type;
 			m_powered.setName(prefix + ".powered");
 			m_powered.setCodes(config.subset("power"));
@@ -203,6 +285,13 @@ public class ReceiverVSX1123Device extends AbstractDevice
 
 			m_powered.addChangeListener(new QueryChangeListener(m_input));
 			register(m_powered, m_input);
+			m_targets.put(type + ".power", m_powered);
+			m_targets.put(type + ".input", m_input);
+		}
+
+		protected String getType()
+		{
+			return getClass().getSimpleName().toLowerCase();
 		}
 	}
 
@@ -236,6 +325,8 @@ public class ReceiverVSX1123Device extends AbstractDevice
 			super.init(config, inputs);
 			getPowered().addChangeListener(new QueryChangeListener(m_sound, m_listeningMode));
 			register(m_sound, m_listeningMode);
+			m_targets.put(getType() + ".sound", m_sound);
+			m_targets.put(getType() + ".listening", m_listeningMode);
 		}
 	}
 
@@ -256,6 +347,7 @@ public class ReceiverVSX1123Device extends AbstractDevice
 			super.init(config, inputs);
 			getPowered().addChangeListener(new QueryChangeListener(m_sound));
 			register(m_sound);
+			m_targets.put(getType() + ".sound", m_sound);
 		}
 	}
 
@@ -263,4 +355,121 @@ public class ReceiverVSX1123Device extends AbstractDevice
 	{
 
 	}
+
+	/**
+	 * Decodes the value following a response prefix into the state of its target
+	 */
+	private static enum ResponseDecoder
+	{
+		Power(PoweredImpl.class) {
+			@Override
+			void decode(ReceiverVSX1123Device device, ResponseHandler handler, String response)
+			{
+				((PoweredImpl) handler.m_target).setStatus(isZero(response, handler.m_offset));
+			}
+		},
+		Volume(SoundImpl.class) {
+			@Override
+			void decode(ReceiverVSX1123Device device, ResponseHandler handler, String response)
+			{
+				((SoundImpl) handler.m_target).setVolumeStatus(parseInt(response, handler.m_offset));
+			}
+		},
+		Mute(SoundImpl.class) {
+			@Override
+			void decode(ReceiverVSX1123Device device, ResponseHandler handler, String response)
+			{
+				((SoundImpl) handler.m_target).setMuteStatus(isZero(response, handler.m_offset));
+			}
+		},
+		Selection(SelectableImpl.class) {
+			@Override
+			void decode(ReceiverVSX1123Device device, ResponseHandler handler, String response)
+			{
+				((SelectableImpl) handler.m_target).setStatus(response.substring(handler.m_offset));
+			}
+		},
+		Display(null) {
+			@Override
+			void decode(ReceiverVSX1123Device device, ResponseHandler handler, String response)
+			{
+				device.setDisplay(response, handler.m_offset);
+			}
+		},
+		Log(null) {
+			@Override
+			void decode(ReceiverVSX1123Device device, ResponseHandler handler, String response)
+			{
+				LOGGER.debug("{}:{}", handler.m_description, response);
+			}
+		};
+
+		private static final Logger LOGGER = LoggerFactory.getLogger(ReceiverVSX1123Device.class);
+		private final Class<?> m_targetType;
+
+		private ResponseDecoder(Class<?> targetType)
+		{
+			m_targetType = targetType;
+		}
+
+		/**
+		 * @return type of coded the decoder sets, null if it takes none
+		 */
+		public Class<?> getTargetType()
+		{
+			return m_targetType;
+		}
+
+		abstract void decode(ReceiverVSX1123Device device, ResponseHandler handler, String response);
+
+		private static boolean isZero(String response, int offset)
+		{
+			return response.length() == offset + 1 && response.charAt(offset) == '0';
+		}
+
+		private static int parseInt(String response, int offset)
+		{
+			if (offset >= response.length())
+				throw new NumberFormatException("No number in '" + response + "'");
+			int value = 0;
+			for (int i = offset; i < response.length(); i++)
+			{
+				int digit = Character.digit(response.charAt(i), 10);
+				if (digit < 0)
+					throw new NumberFormatException("Invalid number in '" + response + "'");
+				value = value * 10 + digit;
+			}
+			return value;
+		}
+	}
+
+	private static class ResponseHandler
+	{
+		private final int m_offset;
+		private final ResponseDecoder m_decoder;
+		private final AbstractCoded<?> m_target;
+		private final String m_description;
+
+		/**
+		 * @param offset
+		 *            length of the prefix, where the value starts
+		 * @param decoder
+		 * @param target
+		 *            coded the decoder sets, may be null
+		 * @param description
+		 *            target name or description from the grammar
+		 */
+		public ResponseHandler(int offset, ResponseDecoder decoder, AbstractCoded<?> target, String description)
+		{
+			m_offset = offset;
+			m_decoder = decoder;
+			m_target = target;
+			m_description = description;
+		}
+
+		public void handle(ReceiverVSX1123Device device, String response)
+		{
+			m_decoder.decode(device, this, response);
+		}
+	}
 }
@@ -10,8 +10,10 @@ import svenz.remote.device.IMenu;
 import svenz.remote.device.IPowered;
 import svenz.remote.device.ISelectable;
 import svenz.remote.device.ISound;
+import svenz.remote.device.ipremote.AbstractCoded;
 import svenz.remote.device.ipremote.AbstractQueuingDevice;
 import svenz.remote.device.ipremote.ChannelDeviceListener;
+import svenz.remote.device.ipremote.CodeIndex;
 import svenz.remote.device.ipremote.MenuImpl;
 import svenz.remote.device.ipremote.PlayableImpl;
 import svenz.remote.device.ipremote.PoweredImpl;
@@ -128,18 +130,20 @@ public class TVAquas60LE650Device extends AbstractQueuingDevice
 
 	private void processSuccess(String lastCode)
 	{
-		String command, input, menu, play;
-		if ("On".equals(command = m_powered.getCommand(lastCode)))
+		CodeIndex.Entry entry = resolve(lastCode);
+		AbstractCoded<?> coded = entry != null ? entry.getCoded() : null;
+		String command = entry != null ? entry.getCommand() : null;
+		if (coded == m_powered && "On".equals(command))
 			m_powered.setStatus(true); // TODO set volume to "good" value
-		else if ("Query".equals(command))
+		else if (coded == m_powered && "Query".equals(command))
 			m_powered.setStatus(true);
-		else if ("Off".equals(command))
+		else if (coded == m_powered && "Off".equals(command))
 			m_powered.setStatus(false);
-		else if (null != (input = m_input.getCommand(lastCode)))
-			m_input.setStatus(input);
-		else if (null != (menu = m_menu.getCommand(lastCode)))
+		else if (coded == m_input)
+			m_input.setStatus(command);
+		else if (coded == m_menu)
 			;// menus don't track status.
-		else if (null != (play = m_play.getCommand(lastCode)))
+		else if (coded == m_play)
 		{
 			// TODO handle play state
 		}
@@ -149,18 +153,20 @@ public class TVAquas60LE650Device extends AbstractQueuingDevice
 
 	private void processError(String lastCode)
 	{
-		String command, input;
-		if ("Query".equals(command = m_powered.getCommand(lastCode)))
+		CodeIndex.Entry entry = resolve(lastCode);
+		AbstractCoded<?> coded = entry != null ? entry.getCoded() : null;
+		String command = entry != null ? entry.getCommand() : null;
+		if (coded == m_powered && "Query".equals(command))
 			m_powered.setStatus(false);
-		else if ("On".equals(command) || "Off".equals(command))
+		else if (coded == m_powered && ("On".equals(command) || "Off".equals(command)))
 		{
 			m_powered.setStatus(null);
 			m_powered.query();
 		}
-		else if (m_powered.isPowered() && m_input.getStatus() == null && null != (input = m_input.getCommand(lastCode)))
+		else if (m_powered.isPowered() && m_input.getStatus() == null && coded == m_input)
 		{
 			// error when powered and no input status means we most likely are already on that input.
-			m_input.setStatus(input);
+			m_input.setStatus(command);
 		}
 		// TODO more errors
 		else
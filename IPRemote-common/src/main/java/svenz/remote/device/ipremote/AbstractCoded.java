@@ -4,10 +4,13 @@
 package svenz.remote.device.ipremote;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -17,7 +20,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import svenz.remote.common.utilities.SimplePropertiesConfiguration;
 import svenz.remote.device.IChangable.IChangeListener;
+import svenz.remote.device.ipremote.QueuingWritableByteChannel.Priority;
 import svenz.remote.device.impl.ChangableImpl;
+import svenz.remote.net.nio.ByteBuffers;
+import svenz.remote.net.nio.ITransferWritableByteChannel;
 
 /**
  * @author Sven Zethelius
@@ -25,12 +31,22 @@ import svenz.remote.device.impl.ChangableImpl;
  */
 public class AbstractCoded<T>
 {
+	// formatted codes are rendered here, then copied by the writer
+	private static final ThreadLocal<ByteBuffer> RENDER_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate(64);
+		}
+	};
 	private final Logger m_logger = LoggerFactory.getLogger(getClass());
 	private transient WritableByteChannel m_writer;
 	private String m_name;
 	private final Map<String, List<String>> m_codes = new HashMap<String, List<String>>();
+	private final Map<String, List<CodeTemplate>> m_templates = new HashMap<String, List<CodeTemplate>>();
 	private final ChangableImpl<T> m_change;
-	private final Map<String, String> m_codeToCommand = new HashMap<String, String>();
+	// built on first use once the codes are set, immutable so it can be read from any thread
+	private volatile Map<String, String> m_codeToCommand;
 
 	public AbstractCoded(String property, Object target)
 	{
@@ -94,14 +110,27 @@ public class AbstractCoded<T>
 		fire("Query");
 	}
 
+	/**
+	 * Query, retrying as retryPolicy allows if the query fails
+	 * 
+	 * @param retryPolicy
+	 */
+	public void query(IRetryPolicy retryPolicy)
+	{
+		fire("Query", retryPolicy);
+	}
+
 	public void setCodes(Configuration config)
 	{
 		for (Iterator<String> iter = config.getKeys(); iter.hasNext();)
 		{
 			String key = iter.next();
 			String value = config.getString(key);
-			m_codes.put(key, Arrays.asList(value.split(",")));
+			List<String> codes = Arrays.asList(value.split(","));
+			m_codes.put(key, codes);
+			m_templates.put(key, compile(codes));
 		}
+		m_codeToCommand = null;
 		if (m_codes.isEmpty())
 			throw new IllegalStateException("No codes loaded");
 	}
@@ -109,22 +138,47 @@ public class AbstractCoded<T>
 	public void filterCodes(Collection<String> keys)
 	{
 		m_codes.keySet().retainAll(keys);
+		m_templates.keySet().retainAll(keys);
+		m_codeToCommand = null;
+	}
+
+	private static List<CodeTemplate> compile(List<String> codes)
+	{
+		List<CodeTemplate> templates = new ArrayList<CodeTemplate>(codes.size());
+		for (String code : codes)
+			templates.add(CodeTemplate.compile(code));
+		return templates;
 	}
 
 	public String getCommand(String code)
 	{
-		if (!m_codeToCommand.isEmpty())
-			return m_codeToCommand.get(code);
+		return getCodeToCommand().get(code);
+	}
+
+	/**
+	 * @return map of each code to the command that sends it
+	 * @throws IllegalStateException
+	 *             if a command sends several codes, or several commands send the same code
+	 */
+	Map<String, String> getCodeToCommand()
+	{
+		Map<String, String> codeToCommand = m_codeToCommand;
+		if (codeToCommand != null)
+			return codeToCommand;
 
+		// racing callers build the same map, last one wins
+		codeToCommand = new HashMap<String, String>();
 		for (Map.Entry<String, List<String>> entry : m_codes.entrySet())
 		{
 			List<String> codes = entry.getValue();
 			if (codes.size() != 1)
 				throw new IllegalStateException("codes are not single entries");
-			if (!"".equals(codes.get(0)) && null != m_codeToCommand.put(codes.get(0), entry.getKey()))
+			if (!"".equals(codes.get(0)) && null != codeToCommand.put(codes.get(0), entry.getKey()))
 				throw new IllegalStateException("codes are not unique");
 		}
-		return m_codeToCommand.get(code);
+		codeToCommand = Collections.unmodifiableMap(codeToCommand);
+		m_codeToCommand = codeToCommand;
+		return codeToCommand;
 	}
 
 	protected Map<String, List<String>> getCodes()
@@ -164,48 +218,128 @@ public class AbstractCoded<T>
 		return configFiltered;
 	}
 
-	protected void fire(String command)
+	/**
+	 * @param command
+	 * @return future completed once the device acknowledges all the codes for command
+	 */
+	protected CommandFuture fire(String command)
+	{
+		return fire(command, (IRetryPolicy) null);
+	}
+
+	/**
+	 * @param command
+	 * @param retryPolicy
+	 *            retry policy for the codes sent, null for the device default
+	 * @return future completed once the device acknowledges all the codes for command
+	 */
+	protected CommandFuture fire(String command, IRetryPolicy retryPolicy)
 	{
-		List<String> codes = m_codes.get(command);
+		List<CodeTemplate> codes = m_templates.get(command);
 		if (codes == null)
 			throw new IllegalArgumentException("Unable to handle '" + command + "'");
 
-		fire(command, codes);
+		return fire(command, codes, null, retryPolicy, null);
 	}
 
-	protected void fireFormatted(String command, Object... values)
+	/**
+	 * Fire a command that carries its full target value, e.g. a volume level. As only the latest value matters, a
+	 * newer one replaces any that is still queued for this command.
+	 * 
+	 * @param command
+	 * @param values
+	 * @return future completed once the device acknowledges the command, or the newer one that replaced it
+	 */
+	protected CommandFuture fireFormatted(String command, Object... values)
 	{
-		List<String> list = getCodes().get(command);
+		List<CodeTemplate> list = m_templates.get(command);
 		if (list == null || list.size() != 1)
 			throw new IllegalArgumentException("Unable to handle '" + command + "'");
 
-		fire(command, Arrays.asList(String.format(list.get(0), values)));
+		return fire(command, list, values, null, m_name + "." + command);
 	}
 
-	protected void fire(String command, List<String> codes)
+	protected CommandFuture fire(String command, List<String> codes)
+	{
+		return fire(command, compile(codes), null, null, null);
+	}
+
+	/**
+	 * @param values
+	 *            values for the slots of formatted codes, null to send the codes as is
+	 * @return future for all the codes. If the writer doesn't queue requests it completes once the codes are written,
+	 *         as there is no acknowledgement to wait on.
+	 */
+	private CommandFuture fire(String command, List<CodeTemplate> codes, Object[] values, IRetryPolicy retryPolicy,
+			String coalesceKey)
 	{
 		WritableByteChannel writer = m_writer;
 		if (writer == null)
 		{
 			m_logger.error("fire called with no writer present.  {} {} {}", m_name, command, codes);
-			return;
+			return CommandFuture.failed(new IOException("No writer for " + m_name));
 		}
-		for (String code : codes)
+		List<CommandFuture> futures = new ArrayList<CommandFuture>(codes.size());
+		// queries only refresh status, let user commands go first
+		Priority priority = "Query".equals(command) ? Priority.Background : Priority.Interactive;
+		for (CodeTemplate code : codes)
 		{
 			getLogger().trace("Writing command '{}' code '{}' to {}@{}", command, code, m_name, writer);
+			// codes sent as is go out as views of the template's bytes, only rendered codes are copied
+			boolean rendered = values != null && code.isFormatted();
+			ByteBuffer b = rendered ? render(code, values) : code.asReadOnlyBuffer();
 			try
 			{
-				writer.write(ByteBuffer.wrap(code.getBytes()));
+				if (writer instanceof QueuingWritableByteChannel)
+				{
+					QueuingWritableByteChannel queue = (QueuingWritableByteChannel) writer;
+					futures.add(rendered ? queue.submit(b, priority, retryPolicy, coalesceKey)
+							: queue.submit(b, null, priority, retryPolicy, coalesceKey));
+				}
+				else
+				{
+					if (rendered) // the render buffer is reused, the writer may hold on to what it is given
+						b = ByteBuffers.retain(b);
+					if (writer instanceof ITransferWritableByteChannel)
+						((ITransferWritableByteChannel) writer).write(b, null);
+					else
+						writer.write(b);
+					futures.add(CommandFuture.completed(null));
+				}
 			}
 			catch (IOException e)
 			{
 				m_logger.error("Unable to write code '{}' for command '{}' to {}@{}", code, command, m_name, writer, e);
-				return;
+				return CommandFuture.failed(e);
 			}
 			catch (RuntimeException e)
 			{
 				m_logger.error("Unable to write code '{}' for command '{}' to {}@{}", code, command, m_name, writer, e);
-				return;
+				return CommandFuture.failed(e);
+			}
+		}
+		return CommandFuture.all(futures);
+	}
+
+	/**
+	 * @return code rendered into this thread's render buffer, valid until the next render on this thread
+	 */
+	private static ByteBuffer render(CodeTemplate code, Object[] values)
+	{
+		ByteBuffer b = RENDER_BUFFER.get();
+		while (true)
+		{
+			b.clear();
+			try
+			{
+				code.render(b, values);
+				b.flip();
+				return b;
+			}
+			catch (BufferOverflowException e)
+			{
+				b = ByteBuffer.allocate(b.capacity() * 2);
+				RENDER_BUFFER.set(b);
 			}
 		}
 	}
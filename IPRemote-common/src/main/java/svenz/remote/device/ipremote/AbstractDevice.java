@@ -8,7 +8,6 @@ import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -23,9 +22,14 @@ import org.slf4j.LoggerFactory;
 import svenz.remote.common.utilities.SimplePropertiesConfiguration;
 import svenz.remote.common.utilities.Utilities;
 import svenz.remote.device.IChangable.IChangeListener;
+import svenz.remote.device.ipremote.ChannelDeviceListener.IChannelCallbackFactory;
+import svenz.remote.net.nio.AsciiCodecHandler;
+import svenz.remote.net.nio.ChannelHandlerAdapter;
+import svenz.remote.net.nio.ChannelPipeline;
+import svenz.remote.net.nio.IChannelHandlerContext;
+import svenz.remote.net.nio.ISocketTransport;
 import svenz.remote.net.nio.ITCPSocketChannelCallback;
-import svenz.remote.net.nio.SocketChannelManager;
-import svenz.remote.net.nio.TCPSocketChannelInstance;
+import svenz.remote.net.nio.LineFrameHandler;
 import svenz.remote.net.protocol.ssdp.SSDPManager;
 import svenz.remote.net.protocol.ssdp.SSDPManager.IDeviceListener;
 
@@ -37,13 +41,17 @@ public abstract class AbstractDevice implements Closeable
 {
 	private transient Logger m_logger = LoggerFactory.getLogger(getClass());
 	private transient ChannelDeviceListener m_deviceListener = new ChannelDeviceListener();
+	private transient volatile ChannelPipeline m_pipeline;
 	private transient SSDPManager m_ssdpManager;
 	private transient IDeviceListener<?> m_registeredDeviceListener;
 	private final List<AbstractCoded<?>> m_codeds = new ArrayList<AbstractCoded<?>>(6);
+	private transient ScheduledExecutorService m_executor;
+	private transient PacedWritableByteChannel m_pacedChannel;
+	private transient volatile WritableByteChannel m_writeChannel;
 
 	public AbstractDevice()
 	{
-		m_deviceListener.setChannelCallback(new TCPSocketChannelCallback());
+		m_deviceListener.setChannelCallbackFactory(new PipelineFactory());
 		m_deviceListener.addChangeListener(new InstanceChangeListener());
 	}
 
@@ -59,9 +67,51 @@ public abstract class AbstractDevice implements Closeable
 		return m_logger;
 	}
 
+	/**
+	 * Add the stages that turn the connection's bytes into the response lines passed to
+	 * {@link #handleResponse(String)}, and encode writes. Called for each new connection, so stages may keep state for
+	 * the connection. The default frames on CR/LF and decodes ASCII.
+	 * 
+	 * @param pipeline
+	 */
+	protected void initPipeline(ChannelPipeline pipeline)
+	{
+		pipeline.addLast("frame", new LineFrameHandler());
+		pipeline.addLast("ascii", new AsciiCodecHandler());
+	}
+
+	/**
+	 * @return pipeline of the current connection, null before the first
+	 */
+	protected ChannelPipeline getPipeline()
+	{
+		return m_pipeline;
+	}
+
+	/**
+	 * @return channel writing to the device through the pipeline, or null if not connected
+	 */
 	protected WritableByteChannel getWriteChannel()
 	{
-		return m_deviceListener.getInstance();
+		return m_writeChannel;
+	}
+
+	/**
+	 * Point the pipeline at a new connection to the device. Called when the connection changes, before the
+	 * {@link AbstractCoded} are given the returned channel.
+	 * 
+	 * @param instance
+	 *            connection to the device, may be null
+	 * @return channel writing to the device through the pipeline, or null if not connected
+	 */
+	protected WritableByteChannel initWriteChannel(WritableByteChannel instance)
+	{
+		ChannelPipeline pipeline = m_pipeline;
+		WritableByteChannel channel = pipeline != null ? pipeline.getWriter(instance) : null;
+		if (m_pacedChannel == null)
+			return channel;
+		m_pacedChannel.setChannel(channel);
+		return channel != null ? m_pacedChannel : null;
 	}
 
 	/**
@@ -129,7 +179,7 @@ public abstract class AbstractDevice implements Closeable
 		return config;
 	}
 
-	public void setChannelManager(SocketChannelManager manager)
+	public void setChannelManager(ISocketTransport manager)
 	{
 		m_deviceListener.setChannelManager(manager);
 	}
@@ -142,10 +192,52 @@ public abstract class AbstractDevice implements Closeable
 
 	public void setExecutor(ScheduledExecutorService executor)
 	{
-		// do nothing
+		m_executor = executor;
+		m_deviceListener.setExecutor(executor);
+		if (m_pacedChannel != null)
+			m_pacedChannel.setExecutor(executor);
+	}
+
+	/**
+	 * @return executor set by {@link #setExecutor(ScheduledExecutorService)}, may be null
+	 */
+	protected ScheduledExecutorService getExecutor()
+	{
+		return m_executor;
+	}
+
+	/**
+	 * Limit how fast commands are sent to the device. Writes over the limit are held and sent in order as it allows.
+	 * Set before the device is opened.
+	 * 
+	 * @param commandsPerSecond
+	 *            0 or less for no limit
+	 * @param burst
+	 * @see PacedWritableByteChannel#setRateLimit(double, int)
+	 */
+	public void setRateLimit(double commandsPerSecond, int burst)
+	{
+		if (m_pacedChannel == null)
+		{
+			if (commandsPerSecond <= 0)
+				return;
+			m_pacedChannel = new PacedWritableByteChannel();
+			m_pacedChannel.setExecutor(m_executor);
+		}
+		m_pacedChannel.setRateLimit(commandsPerSecond, burst);
 	}
 
 	protected abstract void handleResponse(String response);
+
+	/**
+	 * Called when the connection backs up past its high water mark, or drains again. Subclasses that queue their own
+	 * writes should hold them while not writable.
+	 * 
+	 * @param writable
+	 */
+	protected void writabilityChanged(boolean writable)
+	{
+	}
 	
 	@SuppressWarnings("unchecked")
 	protected static void initSelectable(SelectableImpl selectable, Configuration config, Configuration inputs)
@@ -179,7 +271,8 @@ public abstract class AbstractDevice implements Closeable
 		{
 			if (ChannelDeviceListener.NOTIFY_INSTANCE.equals(property))
 			{
-				WritableByteChannel writeChannel = getWriteChannel();
+				WritableByteChannel writeChannel = initWriteChannel(m_deviceListener.getInstance());
+				m_writeChannel = writeChannel;
 				for (final AbstractCoded<?> coded : m_codeds)
 				{
 					coded.setWriter(writeChannel);
@@ -188,60 +281,90 @@ public abstract class AbstractDevice implements Closeable
 		}
 
 	}
-	private class TCPSocketChannelCallback implements ITCPSocketChannelCallback
+	/**
+	 * Build a new pipeline for each connection, so reads arriving late from a previous connection never reach the
+	 * stages, such as a partial frame, of the current one.
+	 * 
+	 * @author Sven Zethelius
+	 * 
+	 */
+	private class PipelineFactory implements IChannelCallbackFactory
 	{
-
-		/**
-		 * normalize the response for calling handeResponse
-		 */
 		@Override
-		public void handleRead(byte[] b, InetSocketAddress address) throws IOException
+		public ITCPSocketChannelCallback newChannelCallback()
 		{
-			// TODO Do we need to deal with message fragmentation? In theory this is all local link, so no.
-			String response = new String(b);
-			if (getLogger().isDebugEnabled())
-				getLogger().debug("Received response from {}: \n{}", getWriteChannel(), response);
-			for (String responseLine : response.replaceAll("\r\n", "\n").split("[\n|\r]"))
-			{
-				if (!"".equals(responseLine))
-				{
-					try
-					{
-						handleResponse(responseLine);
-					}
-					catch (RuntimeException e)
-					{
-						getLogger().error("Unable to handle response {}", responseLine, e);
-					}
-				}
-			}
+			ChannelPipeline pipeline = new ChannelPipeline();
+			initPipeline(pipeline);
+			pipeline.addLast("dispatch", new ResponseDispatcher());
+			m_pipeline = pipeline;
+			return pipeline;
 		}
+	}
 
-		@Override
-		public void close() throws IOException
+	/**
+	 * Last stage of the pipeline, dispatching decoded responses and connection state to the device. Events from the
+	 * pipeline of a previous connection are dropped.
+	 * 
+	 * @author Sven Zethelius
+	 * 
+	 */
+	private class ResponseDispatcher extends ChannelHandlerAdapter
+	{
+		private boolean isCurrent(IChannelHandlerContext ctx)
 		{
-			// lost connection means we need to reset current state
-			for (AbstractCoded<?> coded : m_codeds)
-				coded.setStatus(null);
+			return ctx.getPipeline() == m_pipeline;
 		}
 
 		@Override
-		public void connectionOpen(TCPSocketChannelInstance instance)
+		public void channelOpen(IChannelHandlerContext ctx) throws IOException
 		{
-			getLogger().info("Connection opened to {} {}", AbstractDevice.this.getClass().getSimpleName(), instance);
+			getLogger().info("Connection opened to {} {}", AbstractDevice.this.getClass().getSimpleName(),
+					m_deviceListener.getInstance());
+			super.channelOpen(ctx);
 		}
 
 		@Override
-		public void connectionClose(TCPSocketChannelInstance instance)
+		public void channelClosed(IChannelHandlerContext ctx) throws IOException
 		{
-			getLogger().info("Connection closed to {} {}", AbstractDevice.this.getClass().getSimpleName(), instance);
+			getLogger().info("Connection closed to {} {}", AbstractDevice.this.getClass().getSimpleName(),
+					m_deviceListener.getInstance());
+			// lost connection means we need to reset current state, unless already replaced by a new one
+			if (isCurrent(ctx))
+			{
+				for (AbstractCoded<?> coded : m_codeds)
+					coded.setStatus(null);
+			}
+			super.channelClosed(ctx);
 		}
 
 		@Override
-		public void connectionFailed(TCPSocketChannelInstance instance)
+		public void channelRead(IChannelHandlerContext ctx, Object msg) throws IOException
 		{
-			getLogger().info("Connection failed to {} {}", AbstractDevice.this.getClass().getSimpleName(), instance);
+			String responseLine = msg.toString();
+			if (!isCurrent(ctx))
+			{
+				getLogger().debug("Discarding response from a previous connection: {}", responseLine);
+				return;
+			}
+			getLogger().debug("Received response from {}: {}", m_deviceListener.getInstance(), responseLine);
+			try
+			{
+				handleResponse(responseLine);
+			}
+			catch (RuntimeException e)
+			{
+				getLogger().error("Unable to handle response {}", responseLine, e);
+			}
+		}
 
+		@Override
+		public void writabilityChanged(IChannelHandlerContext ctx, boolean writable)
+		{
+			getLogger().info("Connection to {} {} writable:{}", AbstractDevice.this.getClass().getSimpleName(),
+					m_deviceListener.getInstance(), writable);
+			if (isCurrent(ctx))
+				AbstractDevice.this.writabilityChanged(writable);
+			super.writabilityChanged(ctx, writable);
 		}
 	}
 }
@@ -14,11 +14,35 @@ import java.util.concurrent.ScheduledExecutorService;
 public abstract class AbstractQueuingDevice extends AbstractDevice
 {
 	private transient final QueuingWritableByteChannel m_queueChannel = new QueuingWritableByteChannel();
+	private volatile CodeIndex m_codeIndex = CodeIndex.EMPTY;
 
+	/**
+	 * Also indexes the codes of codeds for {@link #resolve(String)}, so set their codes first.
+	 */
 	@Override
-	protected WritableByteChannel getWriteChannel()
+	protected void register(AbstractCoded<?>... codeds)
 	{
-		WritableByteChannel channel = super.getWriteChannel();
+		super.register(codeds);
+		m_codeIndex = m_codeIndex.with(codeds);
+	}
+
+	/**
+	 * Resolve a request from the index of all registered coded, for use from any thread.
+	 * 
+	 * @param code
+	 *            the request, e.g. lastCode from {@link #handleResponse(String, String)}
+	 * @return the coded and command that send code, null if no registered coded does
+	 * @see CodeIndex#resolve(String)
+	 */
+	protected CodeIndex.Entry resolve(String code)
+	{
+		return m_codeIndex.resolve(code);
+	}
+
+	@Override
+	protected WritableByteChannel initWriteChannel(WritableByteChannel instance)
+	{
+		WritableByteChannel channel = super.initWriteChannel(instance);
 		m_queueChannel.setChannel(channel);
 		return channel != null ? m_queueChannel : null;
 	}
@@ -31,7 +55,7 @@ public abstract class AbstractQueuingDevice extends AbstractDevice
 	@Override
 	protected void handleResponse(String response)
 	{
-		byte[] lastCodeBytes = m_queueChannel.getOutstandingRequest();
+		byte[] lastCodeBytes = m_queueChannel.getOutstandingRequest(response);
 		if (lastCodeBytes == null)
 			throw new IllegalStateException("Unexpected response without request " + response);
 
@@ -44,7 +68,7 @@ public abstract class AbstractQueuingDevice extends AbstractDevice
 		{
 			try
 			{
-				m_queueChannel.acknowledgeResponse(success);
+				m_queueChannel.acknowledgeResponse(lastCodeBytes, success, response);
 			}
 			catch (IOException e)
 			{
@@ -53,6 +77,12 @@ public abstract class AbstractQueuingDevice extends AbstractDevice
 		}
 	}
 
+	@Override
+	protected void writabilityChanged(boolean writable)
+	{
+		m_queueChannel.setWritable(writable);
+	}
+
 	protected void clearPending()
 	{
 		m_queueChannel.clearPending();
@@ -63,10 +93,44 @@ public abstract class AbstractQueuingDevice extends AbstractDevice
 		m_queueChannel.clearPending(code);
 	}
 
+	/**
+	 * Set how long to wait for the device to respond to a request before giving up on it.
+	 * 
+	 * @param responseTimeoutMS
+	 * @see QueuingWritableByteChannel#setResponseTimeoutMS(long)
+	 */
+	public void setResponseTimeoutMS(long responseTimeoutMS)
+	{
+		m_queueChannel.setResponseTimeoutMS(responseTimeoutMS);
+	}
+
+	/**
+	 * Limit how fast commands are sent to the device.
+	 * 
+	 * @param commandsPerSecond
+	 *            0 or less for no limit
+	 * @param burst
+	 * @see QueuingWritableByteChannel#setRateLimit(double, int)
+	 */
+	@Override
+	public void setRateLimit(double commandsPerSecond, int burst)
+	{
+		m_queueChannel.setRateLimit(commandsPerSecond, burst);
+	}
+
+	/**
+	 * @return number of requests the device has not responded to in time
+	 */
+	public int getDeadlineMisses()
+	{
+		return m_queueChannel.getDeadlineMisses();
+	}
+
 	@Override
 	public void setExecutor(ScheduledExecutorService executor)
 	{
 		super.setExecutor(executor);
+		m_queueChannel.setExecutor(executor);
 	}
 
 	protected abstract boolean handleResponse(String response, String lastCode);
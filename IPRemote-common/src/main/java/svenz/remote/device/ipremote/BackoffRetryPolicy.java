@@ -0,0 +1,126 @@
+/**
+ *
+ * BackoffRetryPolicy.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.device.ipremote;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * BackoffRetryPolicy retries with an exponentially growing delay, capped at a maximum, optionally spread by jitter and
+ * limited to a number of retries and to specific error responses. Holds no per request state, so one instance can be
+ * shared by all the requests of a driver.
+ *
+ * @author Sven Zethelius
+ *
+ */
+public class BackoffRetryPolicy implements IRetryPolicy
+{
+	private final Random m_random = new Random();
+	private final long m_initialDelayMS;
+	private final long m_maxDelayMS;
+	private final int m_maxRetries;
+	private double m_multiplier = 2;
+	private double m_jitter;
+	private Set<String> m_retryErrors;
+
+	/**
+	 * Retry forever with a fixed delay
+	 *
+	 * @param delayMS
+	 */
+	public BackoffRetryPolicy(long delayMS)
+	{
+		this(delayMS, delayMS, -1);
+	}
+
+	/**
+	 * @param initialDelayMS
+	 *            delay before the first retry
+	 * @param maxDelayMS
+	 *            cap on the delay as it grows
+	 * @param maxRetries
+	 *            number of retries before giving up, -1 for no limit
+	 */
+	public BackoffRetryPolicy(long initialDelayMS, long maxDelayMS, int maxRetries)
+	{
+		m_initialDelayMS = initialDelayMS;
+		m_maxDelayMS = maxDelayMS;
+		m_maxRetries = maxRetries;
+	}
+
+	/**
+	 * Set the factor the delay grows by with each retry. Defaults to 2.
+	 *
+	 * @param multiplier
+	 */
+	public void setMultiplier(double multiplier)
+	{
+		if (multiplier < 1)
+			throw new IllegalArgumentException("multiplier must be at least 1: " + multiplier);
+		m_multiplier = multiplier;
+	}
+
+	/**
+	 * Set the fraction each delay is randomly spread by, so retries from several requests or devices don't line up.
+	 * Defaults to 0.
+	 *
+	 * @param jitter
+	 *            0 to 1
+	 */
+	public void setJitter(double jitter)
+	{
+		if (jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException("jitter must be between 0 and 1: " + jitter);
+		m_jitter = jitter;
+	}
+
+	/**
+	 * Only retry requests that failed with one of these responses, e.g. a busy code. Requests that got no response at
+	 * all are always retried. By default every error is retried.
+	 *
+	 * @param errors
+	 */
+	public void setRetryErrors(String... errors)
+	{
+		m_retryErrors = new HashSet<String>(Arrays.asList(errors));
+	}
+
+	@Override
+	public long getRetryDelayMS(int attempt, String error)
+	{
+		if (m_maxRetries >= 0 && attempt > m_maxRetries)
+			return -1;
+		if (!isRetryable(error))
+			return -1;
+		double delay = m_maxDelayMS;
+		if (attempt < 31)
+			delay = Math.min(delay, m_initialDelayMS * Math.pow(m_multiplier, attempt - 1));
+		if (m_jitter > 0)
+			delay *= 1 + m_jitter * (2 * m_random.nextDouble() - 1);
+		// 0 would give up, so a short delay or a large jitter still retries
+		return Math.max(1, Math.round(delay));
+	}
+
+	/**
+	 * @param error
+	 *            response the request failed with, null if there was none
+	 * @return true if a request failing with error should be retried
+	 */
+	protected boolean isRetryable(String error)
+	{
+		return error == null || m_retryErrors == null || m_retryErrors.contains(error);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BackoffRetryPolicy[" + m_initialDelayMS + "-" + m_maxDelayMS + "ms x" + m_multiplier + ", retries:"
+				+ m_maxRetries + "]";
+	}
+}
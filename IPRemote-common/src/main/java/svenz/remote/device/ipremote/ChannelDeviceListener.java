@@ -6,17 +6,25 @@ package svenz.remote.device.ipremote;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.WritableByteChannel;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.xml.namespace.QName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.thread.ITimeout;
+import svenz.remote.common.utilities.LoggingRunnable;
 import svenz.remote.common.utilities.Utilities;
 import svenz.remote.device.IChangable;
 import svenz.remote.device.impl.ChangableImpl;
 import svenz.remote.net.nio.CompoundTCPSocketChannelCallback;
+import svenz.remote.net.nio.IBufferSocketChannelCallback;
+import svenz.remote.net.nio.ISocketTransport;
+import svenz.remote.net.nio.ITCPChannel;
 import svenz.remote.net.nio.ITCPSocketChannelCallback;
-import svenz.remote.net.nio.SocketChannelManager;
-import svenz.remote.net.protocol.ssdp.SSDPChannelCallback;
 import svenz.remote.net.protocol.ssdp.SSDPManager;
 import svenz.remote.net.protocol.ssdp.SSDPManager.IDeviceListener;
 import svenz.remote.net.protocol.ssdp.jaxb.Device;
@@ -38,20 +46,50 @@ public class ChannelDeviceListener implements IDeviceListener<Object>, IChangabl
 	public static final String NOTIFY_ADDRESS = "address";
 	private static final Logger LOGGER = LoggerFactory.getLogger(ChannelDeviceListener.class);
 	private final ChangableImpl<Void> m_change = new ChangableImpl<Void>(this, null);
-	private SocketChannelManager m_channelManager;
+	private ISocketTransport m_channelManager;
 	private SSDPManager m_ssdpManager;
 	private IPortReader m_portReader;
-	private ITCPSocketChannelCallback m_channelCallback;
+	private IChannelCallbackFactory m_channelCallbackFactory;
 	private InetSocketAddress m_address;
 	private Device m_device;
 	private WritableByteChannel m_instance;
+	private HashedTimingWheel m_timer = HashedTimingWheel.getDefault();
+	private ScheduledExecutorService m_executor;
+	private final Random m_random = new Random();
+	private long m_reconnectDelayMS = 500;
+	private long m_maxReconnectDelayMS = 30000;
+	private double m_reconnectJitter = 0.2;
+	private int m_maxReconnectAttempts = 8;
+	private int m_reconnectAttempts;
+	private ITimeout m_reconnect;
 	
-	public void setChannelCallback(ITCPSocketChannelCallback channelCallback)
+	/**
+	 * Use the same callback for every connection
+	 * 
+	 * @param channelCallback
+	 */
+	public void setChannelCallback(final ITCPSocketChannelCallback channelCallback)
+	{
+		setChannelCallbackFactory(new IChannelCallbackFactory() {
+			@Override
+			public ITCPSocketChannelCallback newChannelCallback()
+			{
+				return channelCallback;
+			}
+		});
+	}
+
+	/**
+	 * Create a callback for each connection, so state the callback holds for a connection starts fresh on reconnect.
+	 * 
+	 * @param channelCallbackFactory
+	 */
+	public void setChannelCallbackFactory(IChannelCallbackFactory channelCallbackFactory)
 	{
-		m_channelCallback = channelCallback;
+		m_channelCallbackFactory = channelCallbackFactory;
 	}
 
-	public void setChannelManager(SocketChannelManager channelManager)
+	public void setChannelManager(ISocketTransport channelManager)
 	{
 		m_channelManager = channelManager;
 	}
@@ -66,6 +104,62 @@ public class ChannelDeviceListener implements IDeviceListener<Object>, IChangabl
 		m_portReader = new ElementPortReader();
 	}
 
+	public void setTimer(HashedTimingWheel timer)
+	{
+		m_timer = timer;
+	}
+
+	/**
+	 * Set the executor reconnects run on. Reconnecting connects and notifies the instance listeners, which write to
+	 * the device, so only runs on the timer thread if there is no executor.
+	 * 
+	 * @param executor
+	 */
+	public void setExecutor(ScheduledExecutorService executor)
+	{
+		m_executor = executor;
+	}
+
+	/**
+	 * Set the delay before the first reconnect attempt after a connection drops. Each further attempt doubles it, up
+	 * to {@link #setMaxReconnectDelayMS(long)}.
+	 * 
+	 * @param reconnectDelayMS
+	 */
+	public void setReconnectDelayMS(long reconnectDelayMS)
+	{
+		m_reconnectDelayMS = reconnectDelayMS;
+	}
+
+	public void setMaxReconnectDelayMS(long maxReconnectDelayMS)
+	{
+		m_maxReconnectDelayMS = maxReconnectDelayMS;
+	}
+
+	/**
+	 * Set the fraction each reconnect delay is randomly varied by, so devices dropped together don't reconnect in
+	 * lock step.
+	 * 
+	 * @param reconnectJitter
+	 *            0 to 1
+	 */
+	public void setReconnectJitter(double reconnectJitter)
+	{
+		if (reconnectJitter < 0 || reconnectJitter > 1)
+			throw new IllegalArgumentException("reconnectJitter must be between 0 and 1: " + reconnectJitter);
+		m_reconnectJitter = reconnectJitter;
+	}
+
+	/**
+	 * Set how many times to try reconnecting before reporting the device removed. 0 disables reconnecting.
+	 * 
+	 * @param maxReconnectAttempts
+	 */
+	public void setMaxReconnectAttempts(int maxReconnectAttempts)
+	{
+		m_maxReconnectAttempts = maxReconnectAttempts;
+	}
+
 	public void setSSDPManager(SSDPManager ssdpManager)
 	{
 		m_ssdpManager = ssdpManager;
@@ -87,27 +181,97 @@ public class ChannelDeviceListener implements IDeviceListener<Object>, IChangabl
 	}
 
 	public void connect()
+	{
+		try
+		{
+			open();
+		}
+		catch (IOException e)
+		{
+			LOGGER.error("Unable to connect to device {} {}", new Object[] { m_device.getFriendlyName(),
+					m_address, e });
+		}
+
+	}
+
+	private void open() throws IOException
 	{
 		if (m_address == null)
 			throw new IllegalStateException("No address to connect to");
 		
 		ITCPSocketChannelCallback callback =
 				new CompoundTCPSocketChannelCallback(Arrays.asList(
-						new SSDPChannelCallback(m_ssdpManager, m_device.getUDN()), m_channelCallback));
+						new ReconnectCallback(m_device.getUDN()), m_channelCallbackFactory.newChannelCallback()));
 		
+		synchronized (this)
+		{ // hold off the callback until the instance is known
+			m_instance = m_channelManager.connect(m_address, callback);
+		}
+		if (LOGGER.isTraceEnabled())
+			LOGGER.trace("Connected to {} @ {}", m_device.getFriendlyName(), m_address);
+		m_change.notify(NOTIFY_INSTANCE);
+	}
+
+	/**
+	 * The connection dropped or failed to open. Schedule a reconnect, leaving the old instance in place so writers
+	 * stay attached until the new one replaces it, or give up and report the device removed.
+	 * 
+	 * @param instance
+	 * @param udn
+	 */
+	private void disconnected(WritableByteChannel instance, String udn)
+	{
+		synchronized (this)
+		{
+			if (instance != m_instance || m_address == null)
+				return; // closed on purpose or already replaced
+			if (m_reconnectAttempts < m_maxReconnectAttempts)
+			{
+				long delay = getReconnectDelay(m_reconnectAttempts++);
+				LOGGER.info("Lost connection to {}, reconnect attempt {} in {}ms", new Object[] { m_address,
+						m_reconnectAttempts, delay });
+				m_reconnect = m_timer.schedule(new LoggingRunnable(new Runnable() {
+					@Override
+					public void run()
+					{
+						reconnect();
+					}
+				}), delay, TimeUnit.MILLISECONDS, m_executor);
+				return;
+			}
+		}
+		LOGGER.warn("Unable to reconnect to {}", m_address);
+		m_ssdpManager.notifyDeviceRemoved(udn);
+	}
+
+	private void reconnect()
+	{
+		WritableByteChannel instance;
+		synchronized (this)
+		{
+			m_reconnect = null;
+			instance = m_instance;
+			if (m_address == null || instance == null)
+				return; // removed or closed while waiting
+		}
 		try
 		{
-			m_instance = m_channelManager.connect(m_address, callback);
-			if (LOGGER.isTraceEnabled())
-				LOGGER.trace("Connected to {} @ {}", m_device.getFriendlyName(), m_address);
-			m_change.notify(NOTIFY_INSTANCE);
+			open();
 		}
 		catch (IOException e)
-		{
-			LOGGER.error("Unable to connect to device {} {}", new Object[] { m_device.getFriendlyName(),
-					m_address, e });
+		{ // e.g. no route to host, fails before any callback so count it as this attempt failing
+			LOGGER.info("Unable to reconnect to {}: {}", m_address, e.toString());
+			disconnected(instance, m_device.getUDN());
 		}
+	}
 
+	long getReconnectDelay(int attempt)
+	{
+		long delay = m_maxReconnectDelayMS;
+		if (attempt < 31)
+			delay = Math.min(m_reconnectDelayMS << attempt, m_maxReconnectDelayMS);
+		double jitter = m_reconnectJitter * (2 * m_random.nextDouble() - 1);
+		return Math.max(0, Math.round(delay * (1 + jitter)));
 	}
 
 	@Override
@@ -121,6 +285,7 @@ public class ChannelDeviceListener implements IDeviceListener<Object>, IChangabl
 			throw new IllegalStateException("Instance already registered");
 
 		m_address = new InetSocketAddress(remoteAddress.getAddress(), port);
+		m_reconnectAttempts = 0;
 		m_change.notify(NOTIFY_ADDRESS);
 
 		m_device = device;
@@ -139,11 +304,16 @@ public class ChannelDeviceListener implements IDeviceListener<Object>, IChangabl
 	@Override
 	public void close() throws IOException
 	{
+		WritableByteChannel instance;
 		synchronized (this)
 		{
-			Utilities.safeClose(m_instance);
+			if (m_reconnect != null)
+				m_reconnect.cancel();
+			m_reconnect = null;
+			instance = m_instance;
 			m_instance = null;
 		}
+		Utilities.safeClose(instance);
 		m_change.notify(NOTIFY_INSTANCE);
 	}
 
@@ -159,6 +329,75 @@ public class ChannelDeviceListener implements IDeviceListener<Object>, IChangabl
 		m_change.removeChangeListener(listener);
 	}
 
+	/**
+	 * Tracks the state of one connection attempt.
+	 */
+	private class ReconnectCallback implements ITCPSocketChannelCallback, IBufferSocketChannelCallback
+	{
+		private final String m_udn;
+
+		public ReconnectCallback(String udn)
+		{
+			m_udn = udn;
+		}
+
+		@Override
+		public void connectionOpen(ITCPChannel instance)
+		{
+			synchronized (ChannelDeviceListener.this)
+			{
+				m_reconnectAttempts = 0;
+			}
+		}
+
+		@Override
+		public void connectionClose(ITCPChannel instance)
+		{
+			disconnected(instance, m_udn);
+		}
+
+		@Override
+		public void connectionFailed(ITCPChannel instance)
+		{
+			disconnected(instance, m_udn);
+		}
+
+		@Override
+		public void writabilityChanged(ITCPChannel instance, boolean writable)
+		{
+			// do nothing
+		}
+
+		@Override
+		public void handleRead(byte[] b, InetSocketAddress address) throws IOException
+		{
+			// do nothing
+		}
+
+		@Override
+		public void handleRead(ByteBuffer b, InetSocketAddress address) throws IOException
+		{
+			// do nothing
+		}
+
+		@Override
+		public void close()
+		{
+			// do nothing, connectionClose or connectionFailed handle the connection ending
+		}
+	}
+
+	/**
+	 * Creates the callback for a new connection to the device
+	 * 
+	 * @author Sven Zethelius
+	 * 
+	 */
+	public interface IChannelCallbackFactory
+	{
+		ITCPSocketChannelCallback newChannelCallback();
+	}
+
 	private interface IPortReader
 	{
 		Integer getPort(Device d, InetSocketAddress remoteAddress);
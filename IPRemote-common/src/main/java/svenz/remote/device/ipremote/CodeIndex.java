@@ -0,0 +1,135 @@
+/**
+ *
+ * CodeIndex.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.device.ipremote;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CodeIndex maps the codes of all the {@link AbstractCoded} of a device to the command each sends, so the request a
+ * response answers is resolved with one lookup instead of probing every coded in turn. A code shared by several coded,
+ * e.g. menu navigation used by more than one menu, maps to each of them. Immutable, a new index is built as coded are
+ * added.
+ *
+ * @author Sven Zethelius
+ *
+ */
+public class CodeIndex
+{
+	public static final CodeIndex EMPTY = new CodeIndex(new HashMap<String, Entry>(),
+			Collections.<AbstractCoded<?>> emptySet());
+
+	private final Map<String, Entry> m_index;
+	// coded whose codes are in the index
+	private final Set<AbstractCoded<?>> m_indexed;
+
+	private CodeIndex(Map<String, Entry> index, Set<AbstractCoded<?>> indexed)
+	{
+		m_index = index;
+		m_indexed = indexed;
+	}
+
+	/**
+	 * @param codeds
+	 * @return a new index with the codes of codeds added. Codeds whose codes don't map back to a single command are left
+	 *         out, {@link #getCommand(AbstractCoded, String)} asks them directly.
+	 */
+	public CodeIndex with(AbstractCoded<?>... codeds)
+	{
+		Map<String, Entry> index = new HashMap<String, Entry>(m_index);
+		Set<AbstractCoded<?>> indexed = Collections.newSetFromMap(new IdentityHashMap<AbstractCoded<?>, Boolean>());
+		indexed.addAll(m_indexed);
+		for (AbstractCoded<?> coded : codeds)
+		{
+			Map<String, String> codeToCommand;
+			try
+			{
+				codeToCommand = coded.getCodeToCommand();
+			}
+			catch (IllegalStateException e)
+			{
+				continue; // multi-code commands, getCommand reports it if asked
+			}
+			for (Map.Entry<String, String> entry : codeToCommand.entrySet())
+				index.put(entry.getKey(), new Entry(coded, entry.getValue(), index.get(entry.getKey())));
+			indexed.add(coded);
+		}
+		return new CodeIndex(index, indexed);
+	}
+
+	/**
+	 * Resolve the request a response answers in one lookup.
+	 * 
+	 * @param code
+	 *            the request, e.g. lastCode from {@link AbstractQueuingDevice#handleResponse(String, String)}
+	 * @return the coded and command that send code, null if no indexed coded does. If several send it, as menu
+	 *         navigation shared by menus does, the one indexed last with the others chained by {@link Entry#getNext()}
+	 */
+	public Entry resolve(String code)
+	{
+		return m_index.get(code);
+	}
+
+	/**
+	 * Same as {@link AbstractCoded#getCommand(String)}, from the index
+	 *
+	 * @param coded
+	 * @param code
+	 * @return command of coded that sends code, null if none does
+	 */
+	public String getCommand(AbstractCoded<?> coded, String code)
+	{
+		for (Entry entry = m_index.get(code); entry != null; entry = entry.m_next)
+		{
+			if (entry.m_coded == coded)
+				return entry.m_command;
+		}
+		return m_indexed.contains(coded) ? null : coded.getCommand(code);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "CodeIndex[" + m_index.size() + " codes]";
+	}
+
+	public static final class Entry
+	{
+		private final AbstractCoded<?> m_coded;
+		private final String m_command;
+		// other coded sending the same code
+		private final Entry m_next;
+
+		private Entry(AbstractCoded<?> coded, String command, Entry next)
+		{
+			m_coded = coded;
+			m_command = command;
+			m_next = next;
+		}
+
+		public AbstractCoded<?> getCoded()
+		{
+			return m_coded;
+		}
+
+		public String getCommand()
+		{
+			return m_command;
+		}
+
+		/**
+		 * @return entry of another coded that sends the same code, null if none does
+		 */
+		public Entry getNext()
+		{
+			return m_next;
+		}
+	}
+}
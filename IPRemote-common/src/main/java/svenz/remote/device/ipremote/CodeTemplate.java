@@ -0,0 +1,235 @@
+/**
+ *
+ * CodeTemplate.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.device.ipremote;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IllegalFormatConversionException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CodeTemplate is a device code compiled once into literal bytes and typed slots, so sending it renders straight into
+ * a buffer without going through {@link String#format(String, Object...)} and a charset encoder. Slots use the
+ * {@link java.util.Formatter} syntax for the subset device codes need: <code>%[index$][flags][width](d|s)</code> with
+ * the '0' and '-' flags, and <code>%%</code>. An index of 0, as in <code>%0$03d</code>, takes the next argument as
+ * older Formatters did. Codes using anything else are rendered with {@link String#format(String, Object...)}.
+ * <p>
+ * Immutable, so shared by all threads.
+ *
+ * @author Sven Zethelius
+ *
+ */
+class CodeTemplate
+{
+	private static final Pattern SLOT = Pattern.compile("%(?:(\\d+)\\$)?([-0]*)(\\d+)?([ds%])");
+
+	private final String m_code;
+	private final byte[] m_bytes;
+	// shared by every send of the code as is, read-only so no writer can change it
+	private final ByteBuffer m_view;
+	// literal bytes before each slot, and after the last
+	private final byte[][] m_literals;
+	private final Slot[] m_slots;
+	// code needs the full Formatter
+	private final boolean m_formatter;
+
+	private CodeTemplate(String code, byte[][] literals, Slot[] slots, boolean formatter)
+	{
+		m_code = code;
+		m_bytes = code.getBytes();
+		m_view = ByteBuffer.wrap(m_bytes).asReadOnlyBuffer();
+		m_literals = literals;
+		m_slots = slots;
+		m_formatter = formatter;
+	}
+
+	/**
+	 * @param code
+	 *            code as loaded from a codes properties file
+	 * @return the compiled code
+	 */
+	public static CodeTemplate compile(String code)
+	{
+		List<byte[]> literals = new ArrayList<byte[]>();
+		List<Slot> slots = new ArrayList<Slot>();
+		StringBuilder literal = new StringBuilder();
+		int ordinal = 0, start = 0;
+		for (Matcher m = SLOT.matcher(code); m.find(); start = m.end())
+		{
+			if (isUnhandled(code, start, m.start()))
+				return new CodeTemplate(code, null, null, true);
+			literal.append(code, start, m.start());
+			if ("%".equals(m.group(4)))
+			{
+				if (m.group(1) != null || m.group(2).length() > 0 || m.group(3) != null)
+					return new CodeTemplate(code, null, null, true);
+				literal.append('%');
+				continue;
+			}
+			int index = m.group(1) == null ? 0 : Integer.parseInt(m.group(1));
+			index = index == 0 ? ordinal++ : index - 1;
+			boolean left = m.group(2).indexOf('-') >= 0;
+			boolean zeroPad = !left && m.group(2).indexOf('0') >= 0 && "d".equals(m.group(4));
+			int width = m.group(3) == null ? 0 : Integer.parseInt(m.group(3));
+			literals.add(literal.toString().getBytes());
+			literal.setLength(0);
+			slots.add(new Slot(index, m.group(4).charAt(0), width, zeroPad, left));
+		}
+		if (isUnhandled(code, start, code.length()))
+			return new CodeTemplate(code, null, null, true);
+		literal.append(code, start, code.length());
+		literals.add(literal.toString().getBytes());
+		return new CodeTemplate(code, literals.toArray(new byte[literals.size()][]),
+				slots.toArray(new Slot[slots.size()]), false);
+	}
+
+	/**
+	 * @return true if code has a % between start and end, which is a slot not handled here
+	 */
+	private static boolean isUnhandled(String code, int start, int end)
+	{
+		int i = code.indexOf('%', start);
+		return i >= 0 && i < end;
+	}
+
+	/**
+	 * @return true if the code takes arguments
+	 */
+	public boolean isFormatted()
+	{
+		return m_formatter || m_slots.length > 0;
+	}
+
+	/**
+	 * @return read-only view of the code as is, as {@link #render(ByteBuffer, Object...)} renders it with null values.
+	 *         The bytes are never changed, so it can be sent without copying.
+	 */
+	public ByteBuffer asReadOnlyBuffer()
+	{
+		return m_view.duplicate();
+	}
+
+	/**
+	 * Render the code with values into dst
+	 *
+	 * @param dst
+	 * @param values
+	 *            arguments for the slots, null to send the code as is
+	 * @throws BufferOverflowException
+	 *             if dst is too small, its position is then undefined
+	 */
+	public void render(ByteBuffer dst, Object... values)
+	{
+		if (values == null)
+			dst.put(m_bytes);
+		else if (m_formatter)
+			dst.put(String.format(m_code, values).getBytes());
+		else
+			renderSlots(dst, values);
+	}
+
+	private void renderSlots(ByteBuffer dst, Object[] values)
+	{
+		for (int i = 0; i < m_slots.length; i++)
+		{
+			dst.put(m_literals[i]);
+			m_slots[i].render(dst, values);
+		}
+		dst.put(m_literals[m_slots.length]);
+	}
+
+	@Override
+	public String toString()
+	{
+		return m_code;
+	}
+
+	private static class Slot
+	{
+		private final int m_index;
+		private final char m_conversion;
+		private final int m_width;
+		private final boolean m_zeroPad;
+		private final boolean m_left;
+
+		public Slot(int index, char conversion, int width, boolean zeroPad, boolean left)
+		{
+			m_index = index;
+			m_conversion = conversion;
+			m_width = width;
+			m_zeroPad = zeroPad;
+			m_left = left;
+		}
+
+		public void render(ByteBuffer dst, Object[] values)
+		{
+			if (m_index >= values.length)
+				throw new IllegalArgumentException("Missing argument " + (m_index + 1) + " of " + values.length);
+			Object value = values[m_index];
+			if (value == null)
+				putString(dst, "null");
+			else if (m_conversion == 's')
+				putString(dst, value.toString());
+			else if (value instanceof Integer || value instanceof Long || value instanceof Short
+					|| value instanceof Byte)
+				putLong(dst, ((Number) value).longValue());
+			else
+				throw new IllegalFormatConversionException(m_conversion, value.getClass());
+		}
+
+		private void putString(ByteBuffer dst, String s)
+		{
+			int pad = m_width - s.length();
+			if (!m_left)
+				putPad(dst, ' ', pad);
+			int length = s.length();
+			for (int i = 0; i < length; i++)
+			{
+				char c = s.charAt(i);
+				if (c >= 0x80)
+				{ // not ASCII, leave it to the encoder
+					dst.put(s.substring(i).getBytes());
+					break;
+				}
+				dst.put((byte) c);
+			}
+			if (m_left)
+				putPad(dst, ' ', pad);
+		}
+
+		private void putLong(ByteBuffer dst, long value)
+		{
+			int digits = 1;
+			for (long v = value / 10; v != 0; v /= 10)
+				digits++;
+			int pad = m_width - digits - (value < 0 ? 1 : 0);
+			if (!m_left && !m_zeroPad)
+				putPad(dst, ' ', pad);
+			if (value < 0)
+				dst.put((byte) '-');
+			if (m_zeroPad)
+				putPad(dst, '0', pad);
+			int end = dst.position() + digits;
+			if (end > dst.limit())
+				throw new BufferOverflowException();
+			for (int i = end - 1; i >= end - digits; i--, value /= 10)
+				dst.put(i, (byte) ('0' + Math.abs(value % 10)));
+			dst.position(end);
+			if (m_left)
+				putPad(dst, ' ', pad);
+		}
+
+		private static void putPad(ByteBuffer dst, char c, int count)
+		{
+			for (int i = 0; i < count; i++)
+				dst.put((byte) c);
+		}
+	}
+}
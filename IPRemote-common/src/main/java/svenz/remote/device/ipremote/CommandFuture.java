@@ -0,0 +1,329 @@
+/**
+ *
+ * CommandFuture.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.device.ipremote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.utilities.LoggingRunnable;
+
+/**
+ * CommandFuture is the result of a command sent to a device. It completes with the device's response once the command
+ * is acknowledged, and fails if the device rejects it, it misses its response deadline and won't be retried, or the
+ * connection to the device is reset. Listeners run once it is done, so several commands can be sent in parallel and
+ * acted on as they complete, see {@link #all(Collection)}.
+ * <p>
+ * Cancelling only stops waiting on the result, the command is still sent.
+ *
+ * @author Sven Zethelius
+ *
+ */
+public class CommandFuture implements Future<String>
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(CommandFuture.class);
+
+	private final CountDownLatch m_done = new CountDownLatch(1);
+	private final long m_createdNanos = System.nanoTime();
+	// guarded by this
+	private List<Runnable> m_listeners = new ArrayList<Runnable>();
+	private volatile long m_sentNanos;
+	private volatile long m_doneNanos;
+	private volatile String m_response;
+	private volatile Throwable m_failure;
+
+	/**
+	 * @param response
+	 * @return a future already completed with response, e.g. for a write to a channel that does not wait on responses
+	 */
+	public static CommandFuture completed(String response)
+	{
+		CommandFuture future = new CommandFuture();
+		future.complete(response);
+		return future;
+	}
+
+	/**
+	 * @param failure
+	 * @return a future that already failed with failure
+	 */
+	public static CommandFuture failed(Throwable failure)
+	{
+		CommandFuture future = new CommandFuture();
+		future.fail(failure);
+		return future;
+	}
+
+	/**
+	 * @param futures
+	 * @return a future that completes with the response of the last of futures once all complete, or fails as soon as
+	 *         one of them fails
+	 */
+	public static CommandFuture all(Collection<CommandFuture> futures)
+	{
+		if (futures.size() == 1)
+			return futures.iterator().next();
+		final CommandFuture all = new CommandFuture();
+		if (futures.isEmpty())
+		{
+			all.complete(null);
+			return all;
+		}
+		final CommandFuture last = new ArrayList<CommandFuture>(futures).get(futures.size() - 1);
+		final AtomicInteger remaining = new AtomicInteger(futures.size());
+		for (final CommandFuture future : futures)
+		{
+			future.addListener(new Runnable() {
+				@Override
+				public void run()
+				{
+					if (!future.isSucceeded())
+						all.completeFrom(future);
+					else if (remaining.decrementAndGet() == 0)
+						all.completeFrom(last);
+				}
+			});
+		}
+		return all;
+	}
+
+	/**
+	 * @see #all(Collection)
+	 */
+	public static CommandFuture all(CommandFuture... futures)
+	{
+		return all(Arrays.asList(futures));
+	}
+
+	/**
+	 * Run listener on the thread that completes this future, or immediately if it is already done. Listeners should
+	 * be quick, they may run while the device queue is locked.
+	 *
+	 * @param listener
+	 */
+	public void addListener(Runnable listener)
+	{
+		synchronized (this)
+		{
+			if (m_listeners != null)
+			{
+				m_listeners.add(listener);
+				return;
+			}
+		}
+		run(listener);
+	}
+
+	/**
+	 * Run listener on executor once this future is done.
+	 *
+	 * @param listener
+	 * @param executor
+	 */
+	public void addListener(final Runnable listener, final Executor executor)
+	{
+		addListener(new Runnable() {
+			@Override
+			public void run()
+			{
+				executor.execute(new LoggingRunnable(listener));
+			}
+		});
+	}
+
+	/**
+	 * Mark the command as written to the device, only the first send counts
+	 */
+	void sent()
+	{
+		if (m_sentNanos == 0)
+			m_sentNanos = System.nanoTime();
+	}
+
+	/**
+	 * @param response
+	 *            response the device acknowledged the command with, may be null
+	 * @return false if already done
+	 */
+	boolean complete(String response)
+	{
+		return done(response, null);
+	}
+
+	/**
+	 * @param failure
+	 * @return false if already done
+	 */
+	boolean fail(Throwable failure)
+	{
+		return done(null, failure);
+	}
+
+	/**
+	 * Complete the same way as other, e.g. when a command is superseded by a newer one
+	 *
+	 * @param other
+	 *            a done future
+	 * @return false if already done
+	 */
+	boolean completeFrom(CommandFuture other)
+	{
+		return done(other.m_response, other.m_failure);
+	}
+
+	private boolean done(String response, Throwable failure)
+	{
+		List<Runnable> listeners;
+		synchronized (this)
+		{
+			if (m_listeners == null)
+				return false;
+			m_response = response;
+			m_failure = failure;
+			m_doneNanos = System.nanoTime();
+			listeners = m_listeners;
+			m_listeners = null;
+		}
+		m_done.countDown();
+		for (Runnable listener : listeners)
+			run(listener);
+		return true;
+	}
+
+	private static void run(Runnable listener)
+	{
+		try
+		{
+			listener.run();
+		}
+		catch (RuntimeException e)
+		{
+			LOGGER.error("Listener {} failed", listener, e);
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		return done(null, new CancellationException());
+	}
+
+	@Override
+	public boolean isCancelled()
+	{
+		return isDone() && m_failure instanceof CancellationException;
+	}
+
+	@Override
+	public boolean isDone()
+	{
+		return m_done.getCount() == 0;
+	}
+
+	/**
+	 * @return true if the device acknowledged the command
+	 */
+	public boolean isSucceeded()
+	{
+		return isDone() && m_failure == null;
+	}
+
+	/**
+	 * @return why the command failed, null if it has not
+	 */
+	public Throwable getFailure()
+	{
+		return isDone() ? m_failure : null;
+	}
+
+	/**
+	 * @return ms from the command first being written to the device until it was done, -1 if it is not done or was
+	 *         never written
+	 */
+	public long getLatencyMS()
+	{
+		return isDone() && m_sentNanos != 0 ? TimeUnit.NANOSECONDS.toMillis(m_doneNanos - m_sentNanos) : -1;
+	}
+
+	/**
+	 * @return ms the command waited in the queue before first being written to the device, -1 if it has not been
+	 */
+	public long getQueuedMS()
+	{
+		return m_sentNanos != 0 ? TimeUnit.NANOSECONDS.toMillis(m_sentNanos - m_createdNanos) : -1;
+	}
+
+	@Override
+	public String get() throws InterruptedException, ExecutionException
+	{
+		m_done.await();
+		return getResult();
+	}
+
+	@Override
+	public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException
+	{
+		if (!m_done.await(timeout, unit))
+			throw new TimeoutException();
+		return getResult();
+	}
+
+	private String getResult() throws ExecutionException
+	{
+		Throwable failure = m_failure;
+		if (failure instanceof CancellationException)
+			throw (CancellationException) failure;
+		if (failure != null)
+			throw new ExecutionException(failure);
+		return m_response;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (!isDone())
+			return "CommandFuture[pending]";
+		if (m_failure != null)
+			return "CommandFuture[failed: " + m_failure + "]";
+		return "CommandFuture[" + m_response + " in " + getLatencyMS() + "ms]";
+	}
+
+	/**
+	 * Failure for a command the device rejected
+	 */
+	public static class CommandRejectedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+		private final String m_response;
+
+		public CommandRejectedException(String request, String response)
+		{
+			super("Command '" + request + "' rejected with '" + response + "'");
+			m_response = response;
+		}
+
+		/**
+		 * @return the error response, may be null
+		 */
+		public String getResponse()
+		{
+			return m_response;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ * IRetryPolicy.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.device.ipremote;
+
+/**
+ * Decides whether and when a failed request to a device is resent.
+ *
+ * @author Sven Zethelius
+ *
+ * @see QueuingWritableByteChannel#setRetryPolicy(IRetryPolicy)
+ */
+public interface IRetryPolicy
+{
+	/**
+	 * @param attempt
+	 *            number of times the request has failed, starting at 1
+	 * @param error
+	 *            response the request failed with, null if there was no response, e.g. the send failed or the response
+	 *            deadline passed
+	 * @return ms to wait before resending, 0 or less to give up on the request
+	 */
+	long getRetryDelayMS(int attempt, String error);
+}
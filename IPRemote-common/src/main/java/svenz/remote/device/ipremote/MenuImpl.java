@@ -20,6 +20,28 @@ public class MenuImpl extends AbstractCoded<Void> implements IMenu
 	@Override
 	public void action(Action action)
 	{
-		fire(action.toString());
+		submitAction(action);
+	}
+
+	/**
+	 * Same as {@link #action(Action)}
+	 * 
+	 * @param action
+	 * @return future completed once the device acknowledges the action
+	 */
+	public CommandFuture submitAction(Action action)
+	{
+		return fire(action.toString());
+	}
+
+	/**
+	 * @param action
+	 * @param retryPolicy
+	 *            retry policy if the device fails the action
+	 * @return future completed once the device acknowledges the action
+	 */
+	public CommandFuture action(Action action, IRetryPolicy retryPolicy)
+	{
+		return fire(action.toString(), retryPolicy);
 	}
 }
@@ -0,0 +1,196 @@
+/**
+ *
+ * PacedWritableByteChannel.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.device.ipremote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.thread.ITimeout;
+import svenz.remote.common.utilities.LoggingRunnable;
+import svenz.remote.net.nio.ByteBuffers;
+
+/**
+ * PacedWritableByteChannel paces writes to a device that doesn't queue its commands through a
+ * {@link QueuingWritableByteChannel}. Writes within the rate limit go straight through, the rest are held in order and
+ * written as tokens become available.
+ *
+ * @author Sven Zethelius
+ *
+ */
+class PacedWritableByteChannel implements WritableByteChannel
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(PacedWritableByteChannel.class);
+	private final Queue<ByteBuffer> m_pending = new LinkedList<ByteBuffer>();
+	private ScheduledExecutorService m_executor;
+	private HashedTimingWheel m_timer = HashedTimingWheel.getDefault();
+	private volatile WritableByteChannel m_channel;
+	private TokenBucket m_rateLimiter;
+	private ITimeout m_wakeup;
+
+	/**
+	 * Set the executor held writes are written from
+	 *
+	 * @param executor
+	 */
+	public void setExecutor(ScheduledExecutorService executor)
+	{
+		m_executor = executor;
+	}
+
+	/**
+	 * Set the timing wheel held writes wait on. Defaults to {@link HashedTimingWheel#getDefault()}.
+	 *
+	 * @param timer
+	 */
+	public void setTimer(HashedTimingWheel timer)
+	{
+		m_timer = timer;
+	}
+
+	/**
+	 * @param commandsPerSecond
+	 *            steady rate writes are sent at, 0 or less for no limit
+	 * @param burst
+	 *            number of writes that may be sent back to back after a quiet period
+	 * @see QueuingWritableByteChannel#setRateLimit(double, int)
+	 */
+	public void setRateLimit(double commandsPerSecond, int burst)
+	{
+		synchronized (m_pending)
+		{
+			m_rateLimiter = commandsPerSecond > 0 ? new TokenBucket(commandsPerSecond, burst, System.nanoTime()) : null;
+		}
+	}
+
+	/**
+	 * Set the channel writes go to. Replacing one channel with another is a reconnect to the same device, and held
+	 * writes go to the new one. Setting null drops them.
+	 *
+	 * @param channel
+	 */
+	public void setChannel(WritableByteChannel channel)
+	{
+		if (m_channel == channel)
+			return;
+		synchronized (m_pending)
+		{
+			if (m_channel != null && channel != null)
+			{
+				m_channel = channel;
+				return;
+			}
+			if (!m_pending.isEmpty())
+				LOGGER.warn("Channel reset.  {} paced writes to {} lost", m_pending.size(), m_channel);
+			m_pending.clear();
+			if (m_wakeup != null)
+			{
+				m_wakeup.cancel();
+				m_wakeup = null;
+			}
+			m_channel = channel;
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException
+	{
+		int remaining = src.remaining();
+		synchronized (m_pending)
+		{
+			WritableByteChannel channel = m_channel;
+			if (channel == null)
+				throw new ClosedChannelException();
+			if (m_pending.isEmpty())
+			{
+				long waitNanos = acquireRate();
+				if (waitNanos == 0)
+					return channel.write(src);
+				scheduleWakeup(waitNanos);
+			}
+			m_pending.add(ByteBuffers.retain(src));
+			src.position(src.limit());
+		}
+		return remaining;
+	}
+
+	/**
+	 * Write held buffers while the rate limit allows, and wait for the next token if any are left.
+	 */
+	private void writePending()
+	{
+		synchronized (m_pending)
+		{
+			m_wakeup = null;
+			while (!m_pending.isEmpty())
+			{
+				long waitNanos = acquireRate();
+				if (waitNanos > 0)
+				{
+					scheduleWakeup(waitNanos);
+					return;
+				}
+				ByteBuffer b = m_pending.poll();
+				try
+				{
+					m_channel.write(b);
+				}
+				catch (IOException e)
+				{
+					LOGGER.error("Unable to write paced message to {}", m_channel, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 0 if a write is allowed now, otherwise nanoseconds until one is
+	 */
+	private long acquireRate()
+	{
+		return m_rateLimiter == null ? 0 : m_rateLimiter.tryAcquire(System.nanoTime());
+	}
+
+	private void scheduleWakeup(long waitNanos)
+	{
+		if (m_wakeup != null)
+			return;
+		m_wakeup = m_timer.schedule(new LoggingRunnable(new Runnable() {
+			@Override
+			public void run()
+			{
+				writePending();
+			}
+		}), TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1, TimeUnit.MILLISECONDS, m_executor);
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		WritableByteChannel channel = m_channel;
+		return channel != null && channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		setChannel(null);
+	}
+
+	@Override
+	public String toString()
+	{
+		return m_channel + " " + m_rateLimiter;
+	}
+}
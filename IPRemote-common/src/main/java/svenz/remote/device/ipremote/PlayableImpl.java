@@ -20,7 +20,29 @@ public class PlayableImpl extends AbstractCoded<IPlayable.Action> implements IPl
 	@Override
 	public void setAction(Action action)
 	{
-		fire(action.toString());
+		submitAction(action);
+	}
+
+	/**
+	 * Same as {@link #setAction(Action)}
+	 * 
+	 * @param action
+	 * @return future completed once the device acknowledges the action
+	 */
+	public CommandFuture submitAction(Action action)
+	{
+		return fire(action.toString());
+	}
+
+	/**
+	 * @param action
+	 * @param retryPolicy
+	 *            retry policy if the device fails the action
+	 * @return future completed once the device acknowledges the action
+	 */
+	public CommandFuture setAction(Action action, IRetryPolicy retryPolicy)
+	{
+		return fire(action.toString(), retryPolicy);
 	}
 
 	@Override
@@ -4,13 +4,13 @@
 package svenz.remote.device.ipremote;
 
 import org.apache.commons.configuration.Configuration;
-import svenz.remote.device.IPowered;
+import svenz.remote.device.IPowered.IAcknowledgedPowered;
 
 /**
  * @author Sven Zethelius
  *
  */
-public class PoweredImpl extends AbstractCoded<Boolean> implements IPowered
+public class PoweredImpl extends AbstractCoded<Boolean> implements IAcknowledgedPowered
 {
 	public PoweredImpl()
 	{
@@ -27,13 +27,25 @@ public class PoweredImpl extends AbstractCoded<Boolean> implements IPowered
 	@Override
 	public void powerOn()
 	{
-		fire("On");
+		submitPowerOn();
 	}
 
 	@Override
 	public void powerOff()
 	{
-		fire("Off");
+		submitPowerOff();
+	}
+
+	@Override
+	public CommandFuture submitPowerOn()
+	{
+		return fire("On");
+	}
+
+	@Override
+	public CommandFuture submitPowerOff()
+	{
+		return fire("Off");
 	}
 
 	@Override
@@ -6,164 +6,710 @@ package svenz.remote.device.ipremote;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
-import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.LinkedList;
+import java.util.ListIterator;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.thread.ITimeout;
 import svenz.remote.common.utilities.LoggingRunnable;
+import svenz.remote.device.ipremote.CommandFuture.CommandRejectedException;
+import svenz.remote.net.nio.ByteBuffers;
+import svenz.remote.net.nio.IBufferReleaser;
+import svenz.remote.net.nio.ITransferWritableByteChannel;
+import svenz.remote.net.nio.WriteQueueFullException;
 
 /**
+ * QueuingWritableByteChannel queues request/response commands to a device. By default it is stop-and-wait, the next
+ * request is only sent once the outstanding one is acknowledged. {@link #setWindowSize(int)} allows several requests
+ * in flight, with responses matched to them in the order sent, or through an {@link IResponseCorrelator} for protocols
+ * where a response identifies its request. {@link #submit(ByteBuffer, Priority, IRetryPolicy, String)} returns a
+ * {@link CommandFuture} for callers that need to know when the device has answered.
+ * 
  * @author Sven Zethelius
  *
  */
-public class QueuingWritableByteChannel implements WritableByteChannel
+public class QueuingWritableByteChannel implements ITransferWritableByteChannel
 {
 	private static final Logger LOGGER = LoggerFactory.getLogger(QueuingWritableByteChannel.class);
 
 	private WritableByteChannel m_channel;
-	private final Queue<Request> m_queue = new ConcurrentLinkedQueue<Request>();
-	private Request m_awaiting;
+	// interactive requests not yet sent, also the lock for all the request lists
+	private final LinkedList<Request> m_queue = new LinkedList<Request>();
+	// background requests not yet sent, e.g. status queries
+	private final LinkedList<Request> m_background = new LinkedList<Request>();
+	// requests sent and awaiting a response, in the order sent
+	private final LinkedList<Request> m_inFlight = new LinkedList<Request>();
+	// requests that failed and are waiting out their retry delay
+	private final LinkedList<Request> m_retrying = new LinkedList<Request>();
 	private ScheduledExecutorService m_executor;
-	private long m_retryDelayMS = -1;
+	private HashedTimingWheel m_timer = HashedTimingWheel.getDefault();
+	private IResponseCorrelator m_correlator;
+	private IRetryPolicy m_retryPolicy;
+	private long m_responseTimeoutMS = -1;
+	private final AtomicInteger m_deadlineMisses = new AtomicInteger();
+	private int m_maxQueued = 256;
+	private int m_windowSize = 1;
+	private int m_maxInteractiveBurst = 4;
+	private int m_interactiveBurst;
+	private TokenBucket m_rateLimiter;
+	private ITimeout m_rateWakeup;
+	private volatile boolean m_writable = true;
 	
+	/**
+	 * Set the executor retries are run on
+	 * 
+	 * @param executor
+	 */
 	public void setExecutor(ScheduledExecutorService executor)
 	{
 		m_executor = executor;
 	}
-	
-	public void setChannel(WritableByteChannel channel)
+
+	/**
+	 * Set the timing wheel retry delays are scheduled on. Defaults to {@link HashedTimingWheel#getDefault()}.
+	 * 
+	 * @param timer
+	 */
+	public void setTimer(HashedTimingWheel timer)
+	{
+		m_timer = timer;
+	}
+
+	/**
+	 * Set the number of requests that may be awaiting a response at once. Requests waiting out a retry delay count
+	 * against the window. Defaults to 1, stop-and-wait.
+	 * 
+	 * @param windowSize
+	 */
+	public void setWindowSize(int windowSize)
+	{
+		if (windowSize < 1)
+			throw new IllegalArgumentException("Window size must be at least 1: " + windowSize);
+		m_windowSize = windowSize;
+	}
+
+	/**
+	 * Pace sends to what the device accepts, devices may reject or drop commands sent too quickly.
+	 * 
+	 * @param commandsPerSecond
+	 *            steady rate requests are sent at, 0 or less for no limit
+	 * @param burst
+	 *            number of requests that may be sent back to back after a quiet period
+	 */
+	public void setRateLimit(double commandsPerSecond, int burst)
 	{
-		if (m_channel == channel)
-			return;
 		synchronized (m_queue)
 		{
-			if (!m_queue.isEmpty())
-				LOGGER.warn("Channel reset.  The following commands to {} lost:{}", m_channel, m_queue);
-			m_queue.clear(); // delete any previous writes that may have been queued
-			m_channel = channel;
-			m_awaiting = null;
+			m_rateLimiter = commandsPerSecond > 0 ? new TokenBucket(commandsPerSecond, burst, System.nanoTime()) : null;
 		}
 	}
 
-	public void setRetryDelayMS(long retryDelayMS)
+	/**
+	 * Set how many interactive requests may be sent in a row while background requests are waiting, so a steady stream
+	 * of user commands doesn't starve status queries. Defaults to 4.
+	 * 
+	 * @param maxInteractiveBurst
+	 */
+	public void setMaxInteractiveBurst(int maxInteractiveBurst)
 	{
-		m_retryDelayMS = retryDelayMS;
+		m_maxInteractiveBurst = maxInteractiveBurst;
 	}
 
-	public void sendNext() throws IOException
+	/**
+	 * Set how responses are matched to the requests in flight. If null, or no request in flight matches, the response
+	 * is for the oldest request.
+	 * 
+	 * @param correlator
+	 */
+	public void setResponseCorrelator(IResponseCorrelator correlator)
+	{
+		m_correlator = correlator;
+	}
+	
+	/**
+	 * Set the channel requests are sent on. Replacing one channel with another is a reconnect to the same device,
+	 * only the requests in flight on the old channel are failed, and those waiting to be sent or retried go to the new
+	 * one. Setting null fails every request.
+	 * 
+	 * @param channel
+	 */
+	public void setChannel(WritableByteChannel channel)
 	{
+		if (m_channel == channel)
+			return;
 		synchronized (m_queue)
 		{
-			if (m_channel == null || m_awaiting != null)
-				return;
-
-			Request r = m_queue.peek();
-			if (r != null)
+			IOException reset = new IOException("Connection to " + m_channel + " reset");
+			if (m_channel != null && channel != null)
 			{
-				m_awaiting = r;
+				if (!m_inFlight.isEmpty())
+					LOGGER.warn("Reconnected.  {} commands in flight to {} lost", m_inFlight.size(), m_channel);
+				dereferenceAll(m_inFlight, reset);
+				m_channel = channel;
+				m_writable = true;
 				try
 				{
-					m_channel.write(ByteBuffer.wrap(r.getRequestBytes()));
+					sendNext();
 				}
 				catch (IOException e)
 				{
-					acknowledgeResponseFailed();
-					throw e;
+					LOGGER.error("Unable to send queued messages to {}", m_channel, e);
 				}
+				return;
 			}
+			if (getRequestCount() > 0)
+				LOGGER.warn("Channel reset.  The following commands to {} lost:{}", m_channel, this);
+			// delete any previous writes that may have been queued
+			dereferenceAll(m_inFlight, reset);
+			dereferenceAll(m_retrying, reset);
+			dereferenceAll(m_queue, reset);
+			dereferenceAll(m_background, reset);
+			m_channel = channel;
+			m_writable = true;
 		}
 	}
 
-	private void retry()
+	/**
+	 * Retry requests written from now on with a fixed delay, forever.
+	 * 
+	 * @param retryDelayMS
+	 *            -1 to not retry
+	 * @see #setRetryPolicy(IRetryPolicy)
+	 */
+	public void setRetryDelayMS(long retryDelayMS)
 	{
-		synchronized (m_queue)
+		setRetryPolicy(retryDelayMS < 0 ? null : new BackoffRetryPolicy(retryDelayMS));
+	}
+
+	/**
+	 * Set the retry policy for requests written from now on that don't give their own. Requests with a policy are
+	 * kept by {@link #clearPending()}. Defaults to null, failed requests are dropped.
+	 * 
+	 * @param retryPolicy
+	 */
+	public void setRetryPolicy(IRetryPolicy retryPolicy)
+	{
+		m_retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Set how long requests written from now on wait for a response once sent. A request that misses its deadline is
+	 * failed as if acknowledged unsuccessfully, so it retries if it has a retry delay, and frees its window slot.
+	 * Defaults to -1, wait forever.
+	 * 
+	 * @param responseTimeoutMS
+	 */
+	public void setResponseTimeoutMS(long responseTimeoutMS)
+	{
+		m_responseTimeoutMS = responseTimeoutMS;
+	}
+
+	/**
+	 * @return number of requests that have missed their response deadline
+	 */
+	public int getDeadlineMisses()
+	{
+		return m_deadlineMisses.get();
+	}
+
+	/**
+	 * Set the maximum number of requests that may be queued. Writes beyond this are rejected with
+	 * {@link WriteQueueFullException}.
+	 * 
+	 * @param maxQueued
+	 */
+	public void setMaxQueued(int maxQueued)
+	{
+		m_maxQueued = maxQueued;
+	}
+
+	/**
+	 * Hold sending while the underlying channel is backed up. Sending resumes when it becomes writable again.
+	 * 
+	 * @param writable
+	 */
+	public void setWritable(boolean writable)
+	{
+		m_writable = writable;
+		if (writable)
 		{
-			m_awaiting = null;
 			try
 			{
 				sendNext();
 			}
 			catch (IOException e)
 			{
-				LOGGER.error("Exception attempting to retry {}", m_queue, e);
+				LOGGER.error("Unable to resume sending to {}", m_channel, e);
+			}
+		}
+	}
+
+	/**
+	 * Send queued requests until the window is full.
+	 * 
+	 * @throws IOException
+	 */
+	public void sendNext() throws IOException
+	{
+		synchronized (m_queue)
+		{
+			while (m_channel != null && m_writable && m_inFlight.size() + m_retrying.size() < m_windowSize)
+			{
+				if (m_queue.isEmpty() && m_background.isEmpty())
+					return;
+				if (!acquireRate())
+					return;
+				Request r = pollNext();
+				m_inFlight.add(r);
 				try
 				{
-					acknowledgeResponseFailed();
+					r.send(m_channel);
 				}
-				catch (IOException e2)
-				{// shouldn't happen since we are retrying
-					throw new IllegalStateException("Unexpected exception", e2);
+				catch (IOException e)
+				{
+					m_inFlight.remove(r);
+					if (!scheduleRetry(r, null))
+						getLane(r).addFirst(r); // leave it for the next sendNext
+					throw e;
 				}
+				scheduleDeadline(r);
 			}
 		}
 	}
 
-	private void acknowledgeResponseFailed() throws IOException
+	/**
+	 * @return true if the rate limit allows a send now, otherwise a wakeup is scheduled for when it will
+	 */
+	private boolean acquireRate()
 	{
-		long retryDelayMS = m_awaiting.getRetryDelayMS();
-		if (retryDelayMS > 0)
+		if (m_rateLimiter == null)
+			return true;
+		long waitNanos = m_rateLimiter.tryAcquire(System.nanoTime());
+		if (waitNanos == 0)
+			return true;
+		if (m_rateWakeup == null)
 		{
-			m_executor.schedule(new LoggingRunnable(new Runnable() {
-
+			m_rateWakeup = schedule(new Runnable() {
 				@Override
 				public void run()
 				{
-					retry();
+					synchronized (m_queue)
+					{
+						m_rateWakeup = null;
+						try
+						{
+							sendNext();
+						}
+						catch (IOException e)
+						{
+							LOGGER.error("Unable to send next message to {}", m_channel, e);
+						}
+					}
 				}
-			}), retryDelayMS, TimeUnit.MILLISECONDS);
+			}, TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
 		}
-		else
+		return false;
+	}
+
+	/**
+	 * @return the next request to send, interactive before background unless the background lane has waited out a
+	 *         full burst
+	 */
+	private Request pollNext()
+	{
+		if (m_background.isEmpty())
+			return m_queue.poll();
+		if (m_queue.isEmpty() || m_interactiveBurst >= m_maxInteractiveBurst)
 		{
-			m_awaiting = null;
+			m_interactiveBurst = 0;
+			return m_background.poll();
 		}
+		m_interactiveBurst++;
+		return m_queue.poll();
 	}
 
-	public void acknowledgeResponse(boolean success) throws IOException
+	private LinkedList<Request> getLane(Request r)
+	{
+		return r.getPriority() == Priority.Background ? m_background : m_queue;
+	}
+
+	private void retry(Request r)
 	{
 		synchronized (m_queue)
 		{
-			if (success)
+			if (!m_retrying.remove(r))
+				return; // answered late or the channel was reset
+			getLane(r).addFirst(r);
+			try
 			{
-				if (m_queue.peek() == m_awaiting)
-					m_queue.remove();
-				m_awaiting = null;
+				sendNext();
 			}
-			else
+			catch (IOException e)
+			{
+				LOGGER.error("Exception attempting to retry {}", r, e);
+			}
+		}
+	}
+
+	private void scheduleDeadline(final Request r)
+	{
+		long timeoutMS = r.getResponseTimeoutMS();
+		if (timeoutMS <= 0)
+			return;
+		r.setDeadline(schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				deadlineMissed(r);
+			}
+		}, timeoutMS));
+	}
+
+	private void deadlineMissed(Request r)
+	{
+		synchronized (m_queue)
+		{
+			if (!r.isDeadlineExpired() || !m_inFlight.remove(r))
+				return; // answered, resent or the channel was reset
+			m_deadlineMisses.incrementAndGet();
+			LOGGER.warn("No response from {} to {} within {}ms", new Object[] { m_channel, r,
+					r.getResponseTimeoutMS() });
+			if (!scheduleRetry(r, null))
+			{
+				r.dereference();
+				r.getFuture().fail(new TimeoutException("No response to " + r + " within " + r.getResponseTimeoutMS()
+						+ "ms"));
+			}
+			try
+			{
+				sendNext();
+			}
+			catch (IOException e)
+			{
+				LOGGER.error("Unable to send next message to {}", m_channel, e);
+			}
+		}
+	}
+
+	/**
+	 * Schedule task on the timer, run on the executor if there is one
+	 */
+	private ITimeout schedule(Runnable task, long delayMS)
+	{
+		return m_timer.schedule(new LoggingRunnable(task), delayMS, TimeUnit.MILLISECONDS, m_executor);
+	}
+
+	/**
+	 * Hold r out of the window until the delay from its retry policy passes.
+	 * 
+	 * @param r
+	 * @param error
+	 *            response r failed with, null if there was none
+	 * @return false if r does not retry
+	 */
+	private boolean scheduleRetry(final Request r, String error)
+	{
+		IRetryPolicy retryPolicy = r.getRetryPolicy();
+		if (retryPolicy == null)
+			return false;
+		long retryDelayMS = retryPolicy.getRetryDelayMS(r.failed(), error);
+		if (retryDelayMS <= 0)
+		{
+			LOGGER.debug("Giving up on {} to {} after {} attempts", new Object[] { r, m_channel, r.getFailures() });
+			return false;
+		}
+		m_retrying.add(r);
+		schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				retry(r);
+			}
+		}, retryDelayMS);
+		return true;
+	}
+
+	/**
+	 * Acknowledge the response to the oldest outstanding request.
+	 * 
+	 * @param success
+	 * @throws IOException
+	 */
+	public void acknowledgeResponse(boolean success) throws IOException
+	{
+		acknowledgeResponse(getOutstandingRequest(), success, null);
+	}
+
+	/**
+	 * Acknowledge the response to a request, completing its {@link CommandFuture}. A failed request is retried if its
+	 * retry policy allows, otherwise it is dropped and its future fails with a {@link CommandRejectedException}.
+	 * 
+	 * @param request
+	 *            request as returned by {@link #getOutstandingRequest(String)}
+	 * @param success
+	 * @param response
+	 *            the response, passed to the retry policy on failure. May be null.
+	 * @throws IOException
+	 */
+	public void acknowledgeResponse(byte[] request, boolean success, String response) throws IOException
+	{
+		synchronized (m_queue)
+		{
+			Request r = find(m_inFlight, request);
+			if (r != null)
 			{
-				Request r = m_awaiting;
-				acknowledgeResponseFailed();
-				if (m_awaiting == null)
+				m_inFlight.remove(r);
+				r.cancelDeadline();
+				if (success)
 				{
-					if (r == m_queue.peek())
-						m_queue.remove();
+					r.dereference();
+					r.getFuture().complete(response);
 				}
+				else if (!scheduleRetry(r, response))
+				{
+					r.dereference();
+					r.getFuture().fail(new CommandRejectedException(r.toString(), response));
+				}
+			}
+			else if (success && null != (r = find(m_retrying, request)))
+			{ // late response, the retry is no longer needed
+				m_retrying.remove(r);
+				r.dereference();
+				r.getFuture().complete(response);
 			}
 			sendNext();
 		}
 	}
 
+	/**
+	 * @return the oldest outstanding request, or null if there is none
+	 */
 	public byte[] getOutstandingRequest()
 	{
 		// we're processing a response
-		Request r = m_queue.peek();
-		return r == null ? null : r.getRequestBytes();
+		synchronized (m_queue)
+		{
+			Request r = m_inFlight.peek();
+			if (r == null)
+				r = m_retrying.peek();
+			if (r == null)
+				r = m_queue.peek();
+			if (r == null)
+				r = m_background.peek();
+			return r == null ? null : r.getRequestBytes();
+		}
+	}
+
+	/**
+	 * @param response
+	 * @return the request in flight the response correlates to, otherwise the oldest outstanding request
+	 */
+	public byte[] getOutstandingRequest(String response)
+	{
+		synchronized (m_queue)
+		{
+			IResponseCorrelator correlator = m_correlator;
+			if (correlator != null)
+			{
+				for (Request r : m_inFlight)
+				{
+					if (correlator.isResponseTo(response, r.getRequestBytes()))
+						return r.getRequestBytes();
+				}
+			}
+			return getOutstandingRequest();
+		}
+	}
+
+	private static Request find(LinkedList<Request> requests, byte[] request)
+	{
+		for (Request r : requests)
+		{
+			if (r.getRequestBytes() == request)
+				return r;
+		}
+		return null;
+	}
+
+	private static void dereferenceAll(LinkedList<Request> requests, IOException failure)
+	{
+		for (Request r; null != (r = requests.poll());)
+		{
+			r.cancelDeadline();
+			r.dereference();
+			r.getFuture().fail(failure);
+		}
+	}
+
+	private int getRequestCount()
+	{
+		return m_queue.size() + m_background.size() + m_inFlight.size() + m_retrying.size();
 	}
 
 	@Override
 	public int write(ByteBuffer src) throws IOException
 	{
+		checkCapacity();
 		int consumed = src.remaining();
 		byte[] b = new byte[consumed];
 		src.get(b);
-		m_queue.add(new Request(b, m_retryDelayMS));
-		sendNext();
+		enqueue(new Request(ByteBuffer.wrap(b), null, m_retryPolicy, m_responseTimeoutMS, Priority.Interactive,
+				null));
+		return consumed;
+	}
+
+	/**
+	 * Queue a copy of src in the lane for priority. If coalesceKey is given it replaces any request with the same key
+	 * that hasn't been sent yet. For idempotent commands, such as setting the volume, where only the latest value
+	 * matters. The replacement keeps the queue position of the request it replaces.
+	 * 
+	 * @param src
+	 * @param priority
+	 * @param retryPolicy
+	 *            policy for this request, null for the channel's
+	 * @param coalesceKey
+	 *            key identifying requests that supersede each other, e.g. "AVR.zone1.sound.volume.Set", may be null
+	 * @return bytes consumed from src
+	 * @throws IOException
+	 */
+	public int write(ByteBuffer src, Priority priority, IRetryPolicy retryPolicy, String coalesceKey)
+			throws IOException
+	{
+		int consumed = src.remaining();
+		submit(src, priority, retryPolicy, coalesceKey);
 		return consumed;
 	}
 
+	/**
+	 * Queue a copy of src as {@link #write(ByteBuffer, Priority, IRetryPolicy, String)} does.
+	 * 
+	 * @param src
+	 * @param priority
+	 * @param retryPolicy
+	 *            policy for this request, null for the channel's
+	 * @param coalesceKey
+	 *            key identifying requests that supersede each other, may be null
+	 * @return future completed once the request is acknowledged. A request replaced by a later one with the same
+	 *         coalesceKey completes with its replacement.
+	 * @throws IOException
+	 */
+	public CommandFuture submit(ByteBuffer src, Priority priority, IRetryPolicy retryPolicy, String coalesceKey)
+			throws IOException
+	{
+		byte[] b = new byte[src.remaining()];
+		src.get(b);
+		return submit(ByteBuffer.wrap(b), null, priority, retryPolicy, coalesceKey);
+	}
+
+	/**
+	 * Queue b as {@link #submit(ByteBuffer, Priority, IRetryPolicy, String)} does, but without copying it. b is
+	 * handed back to releaser as {@link #write(ByteBuffer, IBufferReleaser)} does.
+	 * 
+	 * @param b
+	 * @param releaser
+	 *            notified once b is no longer referenced, may be null
+	 * @param priority
+	 * @param retryPolicy
+	 *            policy for this request, null for the channel's
+	 * @param coalesceKey
+	 *            key identifying requests that supersede each other, may be null
+	 * @return future completed once the request is acknowledged
+	 * @throws IOException
+	 */
+	public CommandFuture submit(ByteBuffer b, IBufferReleaser releaser, Priority priority, IRetryPolicy retryPolicy,
+			String coalesceKey) throws IOException
+	{
+		Request r = new Request(b, releaser, retryPolicy != null ? retryPolicy : m_retryPolicy, m_responseTimeoutMS,
+				priority, coalesceKey);
+		synchronized (m_queue)
+		{
+			if (coalesceKey == null || !replace(r))
+			{
+				try
+				{
+					checkCapacity();
+				}
+				catch (WriteQueueFullException e)
+				{
+					if (releaser != null)
+						releaser.release(b);
+					throw e;
+				}
+				getLane(r).add(r);
+			}
+			sendNext();
+		}
+		return r.getFuture();
+	}
+
+	private boolean replace(final Request r)
+	{
+		for (ListIterator<Request> iter = getLane(r).listIterator(); iter.hasNext();)
+		{
+			Request queued = iter.next();
+			if (r.getCoalesceKey().equals(queued.getCoalesceKey()))
+			{
+				LOGGER.trace("Replacing {} with {} to {}", new Object[] { queued, r, m_channel });
+				iter.set(r);
+				queued.dereference();
+				final CommandFuture replaced = queued.getFuture();
+				r.getFuture().addListener(new Runnable() {
+					@Override
+					public void run()
+					{
+						replaced.completeFrom(r.getFuture());
+					}
+				});
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Queue b without copying it. b is handed back to releaser once the request has been answered or dropped and
+	 * the underlying channel no longer references it.
+	 */
+	@Override
+	public void write(ByteBuffer b, IBufferReleaser releaser) throws IOException
+	{
+		try
+		{
+			checkCapacity();
+		}
+		catch (WriteQueueFullException e)
+		{
+			if (releaser != null)
+				releaser.release(b);
+			throw e;
+		}
+		enqueue(new Request(b, releaser, m_retryPolicy, m_responseTimeoutMS, Priority.Interactive, null));
+	}
+
+	private void enqueue(Request r) throws IOException
+	{
+		synchronized (m_queue)
+		{
+			m_queue.add(r);
+			sendNext();
+		}
+	}
+
+	private void checkCapacity() throws WriteQueueFullException
+	{
+		synchronized (m_queue)
+		{
+			if (getRequestCount() >= m_maxQueued)
+				throw new WriteQueueFullException("Too many requests queued to " + m_channel);
+		}
+	}
+
 	@Override
 	public boolean isOpen()
 	{
@@ -182,16 +728,26 @@ public class QueuingWritableByteChannel implements WritableByteChannel
 	{
 		StringBuilder sb = new StringBuilder();
 		sb.append(m_channel);
-		if (!m_queue.isEmpty())
+		synchronized (m_queue)
 		{
-			sb.append(" Pending:");
-			for (Request r : m_queue)
-				sb.append(r).append(',');
-			sb.replace(sb.length() - 1, sb.length(), "");
+			append(sb, " Awaiting:", m_inFlight);
+			append(sb, " Retrying:", m_retrying);
+			append(sb, " Pending:", m_queue);
+			append(sb, " Background:", m_background);
 		}
 		return sb.toString();
 	}
 
+	private static void append(StringBuilder sb, String label, LinkedList<Request> requests)
+	{
+		if (requests.isEmpty())
+			return;
+		sb.append(label);
+		for (Request r : requests)
+			sb.append(r).append(',');
+		sb.setLength(sb.length() - 1);
+	}
+
 	/**
 	 * Clear any outstanding requests that haven't been sent.
 	 */
@@ -199,13 +755,8 @@ public class QueuingWritableByteChannel implements WritableByteChannel
 	{
 		synchronized (m_queue)
 		{
-			// clear all but the "must have" messages
-			for (Iterator<Request> iter = m_queue.iterator(); iter.hasNext();)
-			{
-				Request r = iter.next();
-				if (r.getRetryDelayMS() < 0)
-					iter.remove();
-			}
+			clearPending(m_queue, null);
+			clearPending(m_background, null);
 		}
 	}
 
@@ -216,52 +767,192 @@ public class QueuingWritableByteChannel implements WritableByteChannel
 	 */
 	public void clearPending(String code)
 	{
-		byte[] bCode = code.getBytes();
+		ByteBuffer bCode = ByteBuffer.wrap(code.getBytes());
 		synchronized (m_queue)
 		{
-			for (Iterator<Request> iter = m_queue.iterator(); iter.hasNext();)
+			clearPending(m_queue, bCode);
+			clearPending(m_background, bCode);
+		}
+	}
+
+	private static void clearPending(LinkedList<Request> requests, ByteBuffer code)
+	{
+		// clear all but the "must have" messages
+		for (Iterator<Request> iter = requests.iterator(); iter.hasNext();)
+		{
+			Request r = iter.next();
+			if (r.getRetryPolicy() == null && (code == null || r.getRequestBuffer().equals(code)))
 			{
-				Request r = iter.next();
-				if (r.getRetryDelayMS() < 0 && Arrays.equals(r.getRequestBytes(), bCode))
-					iter.remove();
+				iter.remove();
+				r.dereference();
+				r.getFuture().cancel(false);
 			}
 		}
 	}
 
-	private class Request implements Runnable
+	/**
+	 * Lane a request is queued in. Interactive requests are sent ahead of background ones.
+	 */
+	public static enum Priority
 	{
-		private final byte[] m_request;
-		private final long m_retryDelayMS;
+		Interactive, Background
+	}
 
+	/**
+	 * Matches responses to the requests in flight, for protocols where a response identifies the request it answers.
+	 */
+	public interface IResponseCorrelator
+	{
 		/**
+		 * @param response
 		 * @param request
-		 * @param retryDelayMS
+		 * @return true if response answers request
 		 */
-		public Request(byte[] request, long retryDelayMS)
+		boolean isResponseTo(String response, byte[] request);
+	}
+
+	/**
+	 * A queued request. The request buffer is shared with the underlying channel while a send is in flight, so it is
+	 * only handed back to its owner once it has left the queue and every send has been released.
+	 */
+	private static class Request implements IBufferReleaser
+	{
+		private final ByteBuffer m_request;
+		private final IBufferReleaser m_releaser;
+		private final IRetryPolicy m_retryPolicy;
+		private final long m_responseTimeoutMS;
+		private final Priority m_priority;
+		private final String m_coalesceKey;
+		private final AtomicInteger m_references = new AtomicInteger(1);
+		private final CommandFuture m_future = new CommandFuture();
+		private byte[] m_requestBytes;
+		private ITimeout m_deadline;
+		private int m_failures;
+
+		/**
+		 * @param request
+		 * @param releaser
+		 * @param retryPolicy
+		 *            may be null if the request is not retried
+		 * @param responseTimeoutMS
+		 * @param priority
+		 * @param coalesceKey
+		 *            may be null if the request is never replaced
+		 */
+		public Request(ByteBuffer request, IBufferReleaser releaser, IRetryPolicy retryPolicy,
+				long responseTimeoutMS, Priority priority, String coalesceKey)
 		{
 			m_request = request;
-			m_retryDelayMS = retryDelayMS;
+			m_releaser = releaser;
+			m_retryPolicy = retryPolicy;
+			m_responseTimeoutMS = responseTimeoutMS;
+			m_priority = priority;
+			m_coalesceKey = coalesceKey;
+		}
+
+		public long getResponseTimeoutMS()
+		{
+			return m_responseTimeoutMS;
 		}
 
-		public byte[] getRequestBytes()
+		// deadline is only touched with the queue lock held
+		public void setDeadline(ITimeout deadline)
 		{
-			return m_request;
+			m_deadline = deadline;
 		}
 
-		public long getRetryDelayMS()
+		public void cancelDeadline()
 		{
-			return m_retryDelayMS;
+			if (m_deadline != null)
+				m_deadline.cancel();
+			m_deadline = null;
+		}
+
+		/**
+		 * @return true if the current deadline has passed, false if it was cancelled or replaced
+		 */
+		public boolean isDeadlineExpired()
+		{
+			return m_deadline != null && m_deadline.isExpired();
+		}
+
+		public CommandFuture getFuture()
+		{
+			return m_future;
+		}
+
+		public Priority getPriority()
+		{
+			return m_priority;
+		}
+
+		public String getCoalesceKey()
+		{
+			return m_coalesceKey;
+		}
+
+		public synchronized byte[] getRequestBytes()
+		{
+			if (m_requestBytes == null)
+				m_requestBytes = ByteBuffers.toArray(m_request);
+			return m_requestBytes;
+		}
+
+		public ByteBuffer getRequestBuffer()
+		{
+			return m_request.duplicate();
+		}
+
+		public IRetryPolicy getRetryPolicy()
+		{
+			return m_retryPolicy;
+		}
+
+		/**
+		 * Count a failure, only called with the queue lock held
+		 * 
+		 * @return number of failures so far
+		 */
+		public int failed()
+		{
+			return ++m_failures;
+		}
+
+		public int getFailures()
+		{
+			return m_failures;
+		}
+
+		public void send(WritableByteChannel channel) throws IOException
+		{
+			if (channel instanceof ITransferWritableByteChannel)
+			{
+				m_references.incrementAndGet();
+				((ITransferWritableByteChannel) channel).write(getRequestBuffer(), this);
+			}
+			else
+			{
+				channel.write(getRequestBuffer());
+			}
+			m_future.sent();
 		}
 
 		@Override
-		public void run()
+		public void release(ByteBuffer b)
+		{
+			dereference();
+		}
+
+		public void dereference()
 		{
+			if (m_references.decrementAndGet() == 0 && m_releaser != null)
+				m_releaser.release(m_request);
 		}
 
 		@Override
 		public String toString()
 		{
-			return new String(m_request).replace("\r", "").replace("\n", "") + (m_retryDelayMS < 0 ? "" : "*");
+			return new String(getRequestBytes()).replace("\r", "").replace("\n", "") + (m_retryPolicy == null ? "" : "*");
 		}
 	}
 }
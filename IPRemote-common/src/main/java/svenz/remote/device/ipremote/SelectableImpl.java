@@ -7,13 +7,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import org.apache.commons.configuration.Configuration;
-import svenz.remote.device.ISelectable;
+import svenz.remote.device.ISelectable.IAcknowledgedSelectable;
 
 /**
  * @author Sven Zethelius
  *
  */
-public class SelectableImpl extends AbstractCoded<String> implements ISelectable
+public class SelectableImpl extends AbstractCoded<String> implements IAcknowledgedSelectable
 {
 	private Collection<String> m_options = Collections.emptyList();
 	private boolean m_formatted;
@@ -45,14 +45,20 @@ public class SelectableImpl extends AbstractCoded<String> implements ISelectable
 
 	@Override
 	public void setSelection(String input)
+	{
+		submitSelection(input);
+	}
+
+	@Override
+	public CommandFuture submitSelection(String input)
 	{
 		if (!m_options.contains(input))
 			throw new IllegalArgumentException("Unable to set status to '" + input + "'");
 
 		if (m_formatted)
-			fireFormatted("Set", input);
+			return fireFormatted("Set", input);
 		else
-			fire(input);
+			return fire(input);
 	}
 
 	@Override
@@ -108,14 +108,26 @@ public class SoundImpl extends AbstractCoded<Void> implements ISound
 	
 	@Override
 	public void setVolume(int volume)
+	{
+		submitVolume(volume);
+	}
+
+	/**
+	 * Same as {@link #setVolume(int)}
+	 * 
+	 * @param volume
+	 * @return future completed once the device acknowledges the volume, and the unmute if muted
+	 */
+	public CommandFuture submitVolume(int volume)
 	{
 		if (volume < m_volumeMin || volume > m_volumeMax)
 			throw new IllegalArgumentException("Volume " + volume + " is invalid");
 
-		m_volumeCodes.fireFormatted("Set", volume);
+		CommandFuture future = m_volumeCodes.fireFormatted("Set", volume);
 
 		if (Boolean.TRUE.equals(m_muteCodes.getStatus()))
-			mute(false);
+			future = CommandFuture.all(future, submitMute(false));
+		return future;
 	}
 	
 	public void setVolumeStatus(int volume)
@@ -126,7 +138,18 @@ public class SoundImpl extends AbstractCoded<Void> implements ISound
 	@Override
 	public void mute(boolean muteOn)
 	{
-		m_muteCodes.fire(muteOn ? "On" : "Off");
+		submitMute(muteOn);
+	}
+
+	/**
+	 * Same as {@link #mute(boolean)}
+	 * 
+	 * @param muteOn
+	 * @return future completed once the device acknowledges the command
+	 */
+	public CommandFuture submitMute(boolean muteOn)
+	{
+		return m_muteCodes.fire(muteOn ? "On" : "Off");
 	}
 
 	@Override
@@ -0,0 +1,70 @@
+/**
+ *
+ * TokenBucket.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.device.ipremote;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenBucket paces sends to a steady rate while allowing short bursts. Tokens accrue at a fixed rate up to the burst
+ * size, and each send takes one. Not thread safe, callers synchronize.
+ *
+ * @author Sven Zethelius
+ *
+ */
+class TokenBucket
+{
+	private final double m_nanosPerToken;
+	private final int m_burst;
+	private double m_tokens;
+	private long m_lastNanos;
+
+	/**
+	 * @param tokensPerSecond
+	 * @param burst
+	 *            most tokens that can accrue, so most sends in a burst
+	 * @param nowNanos
+	 *            current {@link System#nanoTime()}, the bucket starts full
+	 */
+	TokenBucket(double tokensPerSecond, int burst, long nowNanos)
+	{
+		if (tokensPerSecond <= 0 || burst < 1)
+			throw new IllegalArgumentException("Invalid rate " + tokensPerSecond + "/s burst " + burst);
+		m_nanosPerToken = TimeUnit.SECONDS.toNanos(1) / tokensPerSecond;
+		m_burst = burst;
+		m_tokens = burst;
+		m_lastNanos = nowNanos;
+	}
+
+	/**
+	 * Take a token if one is available
+	 *
+	 * @param nowNanos
+	 *            current {@link System#nanoTime()}
+	 * @return 0 if a token was taken, otherwise nanoseconds until the next one is available
+	 */
+	long tryAcquire(long nowNanos)
+	{
+		long elapsed = nowNanos - m_lastNanos;
+		if (elapsed > 0)
+		{
+			m_tokens = Math.min(m_burst, m_tokens + elapsed / m_nanosPerToken);
+			m_lastNanos = nowNanos;
+		}
+		if (m_tokens >= 1)
+		{
+			m_tokens--;
+			return 0;
+		}
+		return Math.max(1, (long) Math.ceil((1 - m_tokens) * m_nanosPerToken));
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TokenBucket[" + (TimeUnit.SECONDS.toNanos(1) / m_nanosPerToken) + "/s burst:" + m_burst + "]";
+	}
+}
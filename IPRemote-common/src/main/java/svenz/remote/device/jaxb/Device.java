@@ -16,6 +16,10 @@ public class Device
 	private String m_name;
 	@org.simpleframework.xml.Attribute(name = "impl", required = true)
 	private Class<?> m_clazz;
+	@org.simpleframework.xml.Attribute(name = "commandsPerSecond", required = false)
+	private double m_commandsPerSecond;
+	@org.simpleframework.xml.Attribute(name = "burst", required = false)
+	private int m_burst = 1;
 
 	// @javax.xml.bind.annotation.XmlAttribute(name = "name")
 	public void setName(String name)
@@ -38,4 +42,32 @@ public class Device
 	{
 		return m_clazz.newInstance();
 	}
+
+	/**
+	 * @return rate commands are sent to the device at, 0 if unlimited
+	 */
+	public double getCommandsPerSecond()
+	{
+		return m_commandsPerSecond;
+	}
+
+	// @javax.xml.bind.annotation.XmlAttribute(name = "commandsPerSecond")
+	public void setCommandsPerSecond(double commandsPerSecond)
+	{
+		m_commandsPerSecond = commandsPerSecond;
+	}
+
+	/**
+	 * @return number of commands that may be sent back to back when rate limited
+	 */
+	public int getBurst()
+	{
+		return m_burst;
+	}
+
+	// @javax.xml.bind.annotation.XmlAttribute(name = "burst")
+	public void setBurst(int burst)
+	{
+		m_burst = burst;
+	}
 }
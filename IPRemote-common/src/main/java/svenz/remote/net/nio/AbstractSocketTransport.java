@@ -0,0 +1,294 @@
+/**
+ *
+ * AbstractSocketTransport.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.BasicThreadFactory;
+import svenz.remote.common.thread.DaemonThreadFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.thread.NameThreadFactory;
+import svenz.remote.common.utilities.Utilities;
+
+/**
+ * AbstractSocketTransport holds what the JDK 7 transports share: the write queue settings for TCP connections, and
+ * UDP listeners that receive on a dedicated thread each. Subclasses provide the TCP connections.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public abstract class AbstractSocketTransport implements ISocketTransport
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSocketTransport.class);
+	protected static final int READ_BUFFER_SIZE = 1024;
+	private ScheduledExecutorService m_executor;
+	private HashedTimingWheel m_timer = HashedTimingWheel.getDefault();
+	private ThreadFactory m_receiveThreadFactory =
+			new NameThreadFactory(new DaemonThreadFactory(new BasicThreadFactory()), "DatagramReceive-");
+	private final Map<SocketAddress, Boolean> m_loopbackAddress = new ConcurrentHashMap<SocketAddress, Boolean>();
+	private final List<BlockingDatagramChannelInstance> m_listeners = new ArrayList<BlockingDatagramChannelInstance>();
+	private int m_writeBatchSize = SocketChannelManager.DEFAULT_WRITE_BATCH_SIZE;
+	private int m_maxPendingWrites = SocketChannelManager.DEFAULT_MAX_PENDING_WRITES;
+	private long m_maxPendingBytes = SocketChannelManager.DEFAULT_MAX_PENDING_BYTES;
+	private long m_lowWaterMark = SocketChannelManager.DEFAULT_LOW_WATER_MARK;
+	private long m_highWaterMark = SocketChannelManager.DEFAULT_HIGH_WATER_MARK;
+	/**
+	 * Channel for sending messages, unbound so must provide address. Null while closed.
+	 */
+	private DatagramChannel m_datagram;
+
+	@Override
+	public void setExecutor(ScheduledExecutorService executor)
+	{
+		m_executor = executor;
+	}
+
+	/**
+	 * Set the timing wheel connect timeouts are scheduled on. Defaults to {@link HashedTimingWheel#getDefault()}.
+	 * 
+	 * @param timer
+	 */
+	public void setTimer(HashedTimingWheel timer)
+	{
+		m_timer = timer;
+	}
+
+	protected HashedTimingWheel getTimer()
+	{
+		return m_timer;
+	}
+
+	/**
+	 * Set the factory used to create the threads receiving UDP packets.
+	 * 
+	 * @param receiveThreadFactory
+	 */
+	public void setReceiveThreadFactory(ThreadFactory receiveThreadFactory)
+	{
+		m_receiveThreadFactory = receiveThreadFactory;
+	}
+
+	/**
+	 * @see SocketChannelManager#setWriteBatchSize(int)
+	 */
+	public void setWriteBatchSize(int writeBatchSize)
+	{
+		if (writeBatchSize < 1)
+			throw new IllegalArgumentException("writeBatchSize must be positive: " + writeBatchSize);
+		m_writeBatchSize = writeBatchSize;
+	}
+
+	protected int getWriteBatchSize()
+	{
+		return m_writeBatchSize;
+	}
+
+	/**
+	 * @see SocketChannelManager#setMaxPendingWrites(int)
+	 */
+	public void setMaxPendingWrites(int maxPendingWrites)
+	{
+		if (maxPendingWrites < 1)
+			throw new IllegalArgumentException("maxPendingWrites must be positive: " + maxPendingWrites);
+		m_maxPendingWrites = maxPendingWrites;
+	}
+
+	/**
+	 * @see SocketChannelManager#setMaxPendingBytes(long)
+	 */
+	public void setMaxPendingBytes(long maxPendingBytes)
+	{
+		if (maxPendingBytes < 1)
+			throw new IllegalArgumentException("maxPendingBytes must be positive: " + maxPendingBytes);
+		m_maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * @see SocketChannelManager#setWriteBufferWaterMarks(long, long)
+	 */
+	public void setWriteBufferWaterMarks(long lowWaterMark, long highWaterMark)
+	{
+		if (lowWaterMark < 0 || highWaterMark < lowWaterMark)
+			throw new IllegalArgumentException("Invalid water marks: " + lowWaterMark + "-" + highWaterMark);
+		m_lowWaterMark = lowWaterMark;
+		m_highWaterMark = highWaterMark;
+	}
+
+	/**
+	 * Apply the configured limits to the write queue of a new connection
+	 * 
+	 * @param queue
+	 */
+	void configure(WriteQueue queue)
+	{
+		queue.setLimits(m_maxPendingWrites, m_maxPendingBytes, m_lowWaterMark, m_highWaterMark);
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		synchronized (this)
+		{
+			if (m_datagram != null)
+				return;
+			doOpen();
+			try
+			{
+				m_datagram = DatagramChannel.open();
+				m_datagram.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			}
+			catch (IOException e)
+			{
+				Utilities.safeClose(m_datagram);
+				m_datagram = null;
+				doClose();
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		synchronized (this)
+		{
+			if (m_datagram == null)
+				return;
+			doClose();
+			for (BlockingDatagramChannelInstance listener : m_listeners)
+				Utilities.safeClose(listener);
+			m_listeners.clear();
+			Utilities.safeClose(m_datagram);
+			m_datagram = null;
+		}
+	}
+
+	/**
+	 * Start the TCP side of the transport. Called with the transport locked.
+	 * 
+	 * @throws IOException
+	 */
+	protected abstract void doOpen() throws IOException;
+
+	/**
+	 * Stop the TCP side of the transport, closing any open connections. Called with the transport locked.
+	 */
+	protected abstract void doClose();
+
+	/**
+	 * @throws ClosedChannelException
+	 *             if not open, so callers handle it with their other I/O failures
+	 */
+	protected synchronized void checkOpen() throws ClosedChannelException
+	{
+		if (m_datagram == null)
+			throw new ClosedChannelException();
+	}
+
+	@Override
+	public IDatagramChannel listenMultigram(InetSocketAddress address, Collection<NetworkInterface> interfaces,
+			ISocketChannelCallback callback) throws IOException
+	{
+		InetAddress iaddress = address.getAddress();
+		DatagramChannel channel = DatagramChannel.open(getProtocolFamily(iaddress));
+		try
+		{
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			channel.bind(new InetSocketAddress(address.getPort()));
+			for (NetworkInterface inet : interfaces)
+				channel.join(iaddress, inet);
+			return listenDatagram(channel, callback);
+		}
+		catch (IOException e)
+		{
+			Utilities.safeClose(channel);
+			throw e;
+		}
+	}
+
+	@Override
+	public IDatagramChannel listenDatagram(InetSocketAddress address, ISocketChannelCallback callback)
+			throws IOException
+	{
+		DatagramChannel channel = DatagramChannel.open(getProtocolFamily(address.getAddress()));
+		try
+		{
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			channel.bind(address);
+			return listenDatagram(channel, callback);
+		}
+		catch (IOException e)
+		{
+			Utilities.safeClose(channel);
+			throw e;
+		}
+	}
+
+	private IDatagramChannel listenDatagram(DatagramChannel channel, ISocketChannelCallback callback)
+			throws IOException
+	{
+		BlockingDatagramChannelInstance instance =
+				new BlockingDatagramChannelInstance(callback, channel, m_loopbackAddress.keySet(), READ_BUFFER_SIZE);
+		synchronized (this)
+		{
+			checkOpen();
+			m_listeners.add(instance);
+		}
+		m_loopbackAddress.put(channel.getLocalAddress(), Boolean.TRUE);
+		instance.start(m_receiveThreadFactory);
+		return instance;
+	}
+
+	private ProtocolFamily getProtocolFamily(InetAddress address)
+	{
+		return address instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+	}
+
+	@Override
+	public void sendDatagram(InetSocketAddress address, byte[] b) throws IOException
+	{
+		LOGGER.trace("Sending to {}: {}", address, b);
+		DatagramChannel datagram;
+		synchronized (this)
+		{
+			checkOpen();
+			datagram = m_datagram;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(b);
+		datagram.send(bb, address);
+		if (bb.remaining() > 0)
+			throw new IOException("Unable to write all bytes on UDP send.  Sent " + (b.length - bb.remaining())
+					+ " of " + b.length);
+	}
+
+	@Override
+	public WritableByteChannel connect(InetSocketAddress address, ITCPSocketChannelCallback callback)
+			throws IOException
+	{
+		return connect(address, 0, callback);
+	}
+}
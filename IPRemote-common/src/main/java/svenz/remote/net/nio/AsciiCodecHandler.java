@@ -0,0 +1,59 @@
+/**
+ *
+ * AsciiCodecHandler.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Pipeline stage converting inbound {@link ByteBuffer}s to {@link String}s and outbound {@link CharSequence}s to
+ * {@link ByteBuffer}s. Other messages pass through unchanged.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class AsciiCodecHandler extends ChannelHandlerAdapter
+{
+	private final Charset m_charset;
+	private byte[] m_scratch = new byte[64];
+
+	public AsciiCodecHandler()
+	{
+		this(Charset.forName("US-ASCII"));
+	}
+
+	public AsciiCodecHandler(Charset charset)
+	{
+		m_charset = charset;
+	}
+
+	@Override
+	public void channelRead(IChannelHandlerContext ctx, Object msg) throws IOException
+	{
+		if (!(msg instanceof ByteBuffer))
+		{
+			ctx.fireChannelRead(msg);
+			return;
+		}
+		ByteBuffer b = (ByteBuffer) msg;
+		int length = b.remaining();
+		if (m_scratch.length < length)
+			m_scratch = new byte[length];
+		b.get(m_scratch, 0, length);
+		ctx.fireChannelRead(new String(m_scratch, 0, length, m_charset));
+	}
+
+	@Override
+	public void write(IChannelHandlerContext ctx, Object msg, IBufferReleaser releaser) throws IOException
+	{
+		if (msg instanceof CharSequence)
+			ctx.write(ByteBuffer.wrap(msg.toString().getBytes(m_charset)), null);
+		else
+			ctx.write(msg, releaser);
+	}
+}
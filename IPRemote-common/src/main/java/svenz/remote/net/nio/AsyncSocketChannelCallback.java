@@ -8,17 +8,20 @@ package svenz.remote.net.nio;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.concurrent.Executor;
 import org.slf4j.LoggerFactory;
 import svenz.remote.common.utilities.LoggingRunnable;
 
 /**
- * AsyncSocketChannelCallback moves the call to an executor
+ * AsyncSocketChannelCallback moves the call to an executor. Buffers read are retained once before moving to the
+ * executor, and a batch of datagrams moves to the executor as a single task.
  * 
  * @author Sven Zethelius
  * 
  */
-public class AsyncSocketChannelCallback implements ITCPSocketChannelCallback
+public class AsyncSocketChannelCallback implements ITCPSocketChannelCallback, IBufferSocketChannelCallback,
+		IDatagramBatchCallback
 {
 	private final Executor m_executor;
 	private final ITCPSocketChannelCallback m_callback;
@@ -57,9 +60,77 @@ public class AsyncSocketChannelCallback implements ITCPSocketChannelCallback
 			});
 	}
 
+	@Override
+	public void handleRead(ByteBuffer b, final InetSocketAddress address) throws IOException
+	{
+		if (!(m_callback instanceof IBufferSocketChannelCallback))
+		{
+			handleRead(ByteBuffers.toArray(b), address);
+			return;
+		}
+
+		final ByteBuffer retained = ByteBuffers.retain(b);
+		async(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						((IBufferSocketChannelCallback) m_callback).handleRead(retained, address);
+					}
+					catch (Exception e)
+					{
+						LoggerFactory.getLogger(m_callback.getClass()).error("Exception handling read", e);
+					}
+				}
+			});
+	}
+
+	@Override
+	public void handleReadBatch(DatagramBatch batch) throws IOException
+	{
+		final DatagramBatch retained = batch.retain();
+		async(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					if (m_callback instanceof IDatagramBatchCallback)
+					{
+						try
+						{
+							((IDatagramBatchCallback) m_callback).handleReadBatch(retained);
+						}
+						catch (Exception e)
+						{
+							LoggerFactory.getLogger(m_callback.getClass()).error("Exception handling read", e);
+						}
+						return;
+					}
+					for (int i = 0; i < retained.size(); i++)
+					{
+						try
+						{
+							if (m_callback instanceof IBufferSocketChannelCallback)
+								((IBufferSocketChannelCallback) m_callback).handleRead(retained.get(i),
+										retained.getAddress(i));
+							else
+								m_callback.handleRead(ByteBuffers.toArray(retained.get(i)), retained.getAddress(i));
+						}
+						catch (Exception e)
+						{
+							LoggerFactory.getLogger(m_callback.getClass()).error("Exception handling read", e);
+						}
+					}
+				}
+			});
+	}
 
 	@Override
-	public void connectionOpen(final TCPSocketChannelInstance instance)
+	public void connectionOpen(final ITCPChannel instance)
 	{
 		async(new Runnable() {
 
@@ -72,7 +143,7 @@ public class AsyncSocketChannelCallback implements ITCPSocketChannelCallback
 	}
 
 	@Override
-	public void connectionClose(final TCPSocketChannelInstance instance)
+	public void connectionClose(final ITCPChannel instance)
 	{
 		async(new Runnable() {
 
@@ -85,7 +156,7 @@ public class AsyncSocketChannelCallback implements ITCPSocketChannelCallback
 	}
 
 	@Override
-	public void connectionFailed(final TCPSocketChannelInstance instance)
+	public void connectionFailed(final ITCPChannel instance)
 	{
 		async(new Runnable() {
 
@@ -98,6 +169,19 @@ public class AsyncSocketChannelCallback implements ITCPSocketChannelCallback
 
 	}
 
+	@Override
+	public void writabilityChanged(final ITCPChannel instance, final boolean writable)
+	{
+		async(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				m_callback.writabilityChanged(instance, writable);
+			}
+		});
+	}
+
 	private void async(Runnable r)
 	{
 		m_executor.execute(new LoggingRunnable(r));
@@ -0,0 +1,96 @@
+/**
+ *
+ * AsynchronousChannelManager.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.BasicThreadFactory;
+import svenz.remote.common.thread.DaemonThreadFactory;
+import svenz.remote.common.thread.NameThreadFactory;
+
+/**
+ * AsynchronousChannelManager is an {@link ISocketTransport} built on the JDK 7 asynchronous channels. TCP
+ * connections run on an {@link AsynchronousChannelGroup} with completion handlers instead of selector loops. The JDK
+ * has no asynchronous datagram channel, so each UDP listener gets a thread blocked in receive.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class AsynchronousChannelManager extends AbstractSocketTransport
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsynchronousChannelManager.class);
+	private ThreadFactory m_threadFactory =
+			new NameThreadFactory(new DaemonThreadFactory(new BasicThreadFactory()), "AsyncChannel-");
+	private int m_threadCount = Runtime.getRuntime().availableProcessors();
+	private AsynchronousChannelGroup m_group;
+
+	/**
+	 * Set the factory used to create the channel group threads. Must be called before {@link #open()}.
+	 * 
+	 * @param threadFactory
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory)
+	{
+		m_threadFactory = threadFactory;
+	}
+
+	/**
+	 * Set the number of threads running completion handlers. Defaults to the number of processors. Must be called
+	 * before {@link #open()}.
+	 * 
+	 * @param threadCount
+	 */
+	public void setThreadCount(int threadCount)
+	{
+		if (threadCount < 1)
+			throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+		m_threadCount = threadCount;
+	}
+
+	@Override
+	protected void doOpen() throws IOException
+	{
+		m_group = AsynchronousChannelGroup.withFixedThreadPool(m_threadCount, m_threadFactory);
+	}
+
+	@Override
+	protected void doClose()
+	{
+		try
+		{
+			m_group.shutdownNow();
+		}
+		catch (IOException e)
+		{
+			LOGGER.error("Unable to shutdown channel group", e);
+		}
+		m_group = null;
+	}
+
+	private synchronized AsynchronousChannelGroup getGroup() throws ClosedChannelException
+	{
+		checkOpen();
+		return m_group;
+	}
+
+	@Override
+	public WritableByteChannel connect(InetSocketAddress address, int timeout, ITCPSocketChannelCallback callback)
+			throws IOException
+	{
+		AsynchronousTCPChannelInstance instance =
+				new AsynchronousTCPChannelInstance(address, callback, READ_BUFFER_SIZE, getWriteBatchSize());
+		configure(instance.getWriteQueue());
+		instance.connect(getGroup(), getTimer(), timeout);
+		return instance;
+	}
+}
@@ -0,0 +1,293 @@
+/**
+ *
+ * AsynchronousTCPChannelInstance.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.utilities.Utilities;
+
+/**
+ * AsynchronousTCPChannelInstance is the {@link AsynchronousChannelManager} counterpart of
+ * {@link TCPSocketChannelInstance}. It keeps one read and at most one gathering write outstanding, each re-armed
+ * from its completion handler on the channel group's threads.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+class AsynchronousTCPChannelInstance implements ITCPChannel
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsynchronousTCPChannelInstance.class);
+	private static final ITCPSocketChannelCallback DEFAULT_CALLBACK =
+			new CompoundTCPSocketChannelCallback(Collections.<ITCPSocketChannelCallback> emptyList());
+	private final InetSocketAddress m_remoteAddress;
+	private final ITCPSocketChannelCallback m_callback;
+	private final WriteQueue m_pendingWrites = new WriteQueue();
+	private final AtomicReference<State> m_state = new AtomicReference<State>(State.NotConnected);
+	private final AtomicBoolean m_writing = new AtomicBoolean(false);
+	private final ByteBuffer m_readBuffer;
+	private final ByteBuffer[] m_writeBatch;
+	private volatile AsynchronousSocketChannel m_channel;
+
+	private static enum State
+	{
+		NotConnected, Connected, Closed
+	};
+
+	AsynchronousTCPChannelInstance(InetSocketAddress address, ITCPSocketChannelCallback callback, int readBufferSize,
+			int writeBatchSize)
+	{
+		m_remoteAddress = address;
+		m_callback = callback != null ? callback : DEFAULT_CALLBACK;
+		m_readBuffer = ByteBuffer.allocate(readBufferSize);
+		m_writeBatch = new ByteBuffer[writeBatchSize];
+	}
+
+	WriteQueue getWriteQueue()
+	{
+		return m_pendingWrites;
+	}
+
+	/**
+	 * Start connecting.
+	 * 
+	 * @param group
+	 * @param timer
+	 *            timer for the connect timeout
+	 * @param timeout
+	 *            milliseconds, 0 for none
+	 * @throws IOException
+	 */
+	void connect(AsynchronousChannelGroup group, HashedTimingWheel timer, int timeout) throws IOException
+	{
+		LOGGER.trace("Connecting to {}", m_remoteAddress);
+		m_channel = AsynchronousSocketChannel.open(group);
+		m_channel.connect(m_remoteAddress, null, new CompletionHandler<Void, Void>() {
+			@Override
+			public void completed(Void result, Void attachment)
+			{
+				if (!m_state.compareAndSet(State.NotConnected, State.Connected))
+					return; // closed while connecting
+				LOGGER.trace("Connected to {}", m_remoteAddress);
+				m_callback.connectionOpen(AsynchronousTCPChannelInstance.this);
+				read();
+				flush();
+			}
+
+			@Override
+			public void failed(Throwable exc, Void attachment)
+			{
+				if (!(exc instanceof AsynchronousCloseException))
+					LOGGER.error("Unable to connect to {}", m_remoteAddress, exc);
+				close();
+			}
+		});
+		if (timeout > 0)
+		{
+			timer.schedule(new Runnable() {
+				@Override
+				public void run()
+				{
+					if (m_state.get() == State.NotConnected)
+						close();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void read()
+	{
+		AsynchronousSocketChannel channel = m_channel;
+		if (channel == null)
+			return;
+		try
+		{
+			channel.read(m_readBuffer, null, new CompletionHandler<Integer, Void>() {
+				@Override
+				public void completed(Integer result, Void attachment)
+				{
+					if (result.intValue() == -1)
+					{
+						close();
+						return;
+					}
+					try
+					{
+						doRead(m_readBuffer);
+					}
+					catch (Exception e)
+					{
+						LOGGER.error("Error processing read from {}", m_remoteAddress, e);
+						close();
+						return;
+					}
+					finally
+					{
+						m_readBuffer.clear();
+					}
+					read();
+				}
+
+				@Override
+				public void failed(Throwable exc, Void attachment)
+				{
+					failure("read", exc);
+				}
+			});
+		}
+		catch (RuntimeException e)
+		{
+			failure("read", e);
+		}
+	}
+
+	private void doRead(ByteBuffer b) throws IOException
+	{
+		b.flip();
+		if (m_callback instanceof IBufferSocketChannelCallback)
+		{
+			if (LOGGER.isTraceEnabled())
+				LOGGER.trace("Read: {} bytes from {}", b.remaining(), m_remoteAddress);
+			((IBufferSocketChannelCallback) m_callback).handleRead(b.asReadOnlyBuffer(), m_remoteAddress);
+			return;
+		}
+		m_callback.handleRead(ByteBuffers.toArray(b), m_remoteAddress);
+	}
+
+	/**
+	 * Start a gathering write of the head of the queue, unless one is already outstanding.
+	 */
+	private void flush()
+	{
+		final AsynchronousSocketChannel channel = m_channel;
+		if (m_state.get() != State.Connected || channel == null)
+			return;
+		if (m_pendingWrites.isEmpty() || !m_writing.compareAndSet(false, true))
+			return;
+		final int count = m_pendingWrites.peek(m_writeBatch);
+		try
+		{
+			channel.write(m_writeBatch, 0, count, 0L, TimeUnit.MILLISECONDS, null,
+					new CompletionHandler<Long, Void>() {
+						@Override
+						public void completed(Long result, Void attachment)
+						{
+							if (LOGGER.isTraceEnabled())
+								LOGGER.trace("Wrote {} bytes in {} buffers to {}", new Object[] { result, count,
+										m_remoteAddress });
+							Arrays.fill(m_writeBatch, 0, count, null);
+							if (m_pendingWrites.removeWritten())
+								m_callback.writabilityChanged(AsynchronousTCPChannelInstance.this, true);
+							m_writing.set(false);
+							flush();
+						}
+
+						@Override
+						public void failed(Throwable exc, Void attachment)
+						{
+							m_writing.set(false);
+							failure("write", exc);
+						}
+					});
+		}
+		catch (RuntimeException e)
+		{
+			m_writing.set(false);
+			failure("write", e);
+		}
+	}
+
+	private void failure(String op, Throwable exc)
+	{
+		if (m_state.get() != State.Closed && !(exc instanceof ClosedChannelException))
+			LOGGER.error("Error processing " + m_remoteAddress + " for op:" + op, exc);
+		close();
+	}
+
+	@Override
+	public boolean isWritable()
+	{
+		return m_pendingWrites.isWritable();
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress()
+	{
+		return m_remoteAddress;
+	}
+
+	/**
+	 * Copies the remaining bytes of src, as src remains owned by the caller.
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException
+	{
+		ByteBuffer b = ByteBuffers.retain(src);
+		int remaining = b.remaining();
+		src.position(src.limit());
+		write(b, null);
+		return remaining;
+	}
+
+	@Override
+	public void write(ByteBuffer b, IBufferReleaser releaser) throws IOException
+	{
+		PendingWrite w = new PendingWrite(b, releaser);
+		if (!isOpen())
+		{
+			w.release();
+			throw new ClosedChannelException();
+		}
+		if (m_pendingWrites.add(w, m_remoteAddress))
+			m_callback.writabilityChanged(this, false);
+		if (!isOpen())
+			m_pendingWrites.releaseAll(); // lost a race with close
+		else
+			flush();
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return m_state.get() != State.Closed;
+	}
+
+	@Override
+	public void close()
+	{
+		State state = m_state.getAndSet(State.Closed);
+		if (state == State.Closed)
+			return;
+		LOGGER.trace("Closing {}", m_remoteAddress);
+		Utilities.safeClose(m_channel);
+		m_pendingWrites.releaseAll();
+		if (state == State.Connected)
+			m_callback.connectionClose(this);
+		else
+			m_callback.connectionFailed(this);
+		Utilities.safeClose(m_callback);
+	}
+
+	@Override
+	public String toString()
+	{
+		return m_remoteAddress.toString();
+	}
+}
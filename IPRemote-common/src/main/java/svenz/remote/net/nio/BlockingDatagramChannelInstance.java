@@ -0,0 +1,114 @@
+/**
+ *
+ * BlockingDatagramChannelInstance.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collection;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.utilities.Utilities;
+
+/**
+ * BlockingDatagramChannelInstance receives on a blocking {@link DatagramChannel} from a dedicated thread. Used by
+ * {@link AsynchronousChannelManager}, as the JDK has no asynchronous datagram channel.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+class BlockingDatagramChannelInstance implements IDatagramChannel, Runnable
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(BlockingDatagramChannelInstance.class);
+	private final ISocketChannelCallback m_callback;
+	private final DatagramChannel m_channel;
+	private final Collection<SocketAddress> m_loopbackAddresses;
+	private final ByteBuffer m_readBuffer;
+
+	BlockingDatagramChannelInstance(ISocketChannelCallback callback, DatagramChannel channel,
+			Collection<SocketAddress> loopbackAddresses, int readBufferSize)
+	{
+		m_callback = callback;
+		m_channel = channel;
+		m_loopbackAddresses = loopbackAddresses;
+		m_readBuffer = ByteBuffer.allocate(readBufferSize);
+	}
+
+	void start(ThreadFactory factory)
+	{
+		factory.newThread(this).start();
+	}
+
+	@Override
+	public void run()
+	{
+		LOGGER.trace("Receiving on {}", this);
+		ByteBuffer b = m_readBuffer;
+		while (m_channel.isOpen())
+		{
+			try
+			{
+				InetSocketAddress address = (InetSocketAddress) m_channel.receive(b);
+				b.flip();
+				if (address != null && !m_loopbackAddresses.contains(address))
+					doRead(b, address);
+			}
+			catch (ClosedChannelException e)
+			{
+				break;
+			}
+			catch (Exception e)
+			{
+				LOGGER.error("Error processing datagram on {}", this, e);
+			}
+			finally
+			{
+				b.clear();
+			}
+		}
+		LOGGER.trace("Stopped receiving on {}", this);
+		Utilities.safeClose(m_callback);
+	}
+
+	private void doRead(ByteBuffer b, InetSocketAddress address) throws IOException
+	{
+		if (m_callback instanceof IBufferSocketChannelCallback)
+			((IBufferSocketChannelCallback) m_callback).handleRead(b.asReadOnlyBuffer(), address);
+		else
+			m_callback.handleRead(ByteBuffers.toArray(b), address);
+	}
+
+	@Override
+	public void send(ByteBuffer b, SocketAddress address) throws IOException
+	{
+		m_channel.send(b, address);
+		if (b.remaining() > 0)
+			throw new IOException("Unable to send all bytes.  Remaining:" + b.remaining());
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return m_channel.isOpen();
+	}
+
+	@Override
+	public void close()
+	{
+		Utilities.safeClose(m_channel);
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.valueOf(m_channel.socket().getLocalSocketAddress());
+	}
+}
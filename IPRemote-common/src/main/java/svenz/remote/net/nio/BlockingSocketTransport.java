@@ -0,0 +1,82 @@
+/**
+ *
+ * BlockingSocketTransport.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.BasicThreadFactory;
+import svenz.remote.common.thread.DaemonThreadFactory;
+import svenz.remote.common.thread.NameThreadFactory;
+import svenz.remote.common.thread.VirtualThreadFactory;
+import svenz.remote.common.utilities.Utilities;
+
+/**
+ * BlockingSocketTransport gives each connection and each UDP listener its own threads doing plain blocking I/O, so
+ * reads reach the callbacks without a selector hand off. On JDK 21 or later the threads are virtual, earlier
+ * runtimes fall back to daemon platform threads.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class BlockingSocketTransport extends AbstractSocketTransport
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(BlockingSocketTransport.class);
+	private final Set<BlockingTCPChannelInstance> m_connections =
+			Collections.newSetFromMap(new ConcurrentHashMap<BlockingTCPChannelInstance, Boolean>());
+	private ThreadFactory m_threadFactory;
+
+	public BlockingSocketTransport()
+	{
+		VirtualThreadFactory factory = new VirtualThreadFactory(new DaemonThreadFactory(new BasicThreadFactory()));
+		LOGGER.debug("Using {} threads", factory.isVirtual() ? "virtual" : "platform");
+		setThreadFactory(new NameThreadFactory(factory, "Blocking-"));
+	}
+
+	/**
+	 * Set the factory used to create the connection and UDP receive threads.
+	 * 
+	 * @param threadFactory
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory)
+	{
+		m_threadFactory = threadFactory;
+		setReceiveThreadFactory(threadFactory);
+	}
+
+	@Override
+	protected void doOpen()
+	{
+		// threads are created per connection
+	}
+
+	@Override
+	protected void doClose()
+	{
+		for (BlockingTCPChannelInstance connection : new ArrayList<BlockingTCPChannelInstance>(m_connections))
+			Utilities.safeClose(connection);
+	}
+
+	@Override
+	public WritableByteChannel connect(InetSocketAddress address, int timeout, ITCPSocketChannelCallback callback)
+			throws IOException
+	{
+		checkOpen();
+		BlockingTCPChannelInstance instance = new BlockingTCPChannelInstance(address, callback, m_connections,
+				READ_BUFFER_SIZE, getWriteBatchSize());
+		configure(instance.getWriteQueue());
+		instance.connect(m_threadFactory, timeout);
+		return instance;
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ *
+ * BlockingTCPChannelInstance.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.utilities.Utilities;
+
+/**
+ * BlockingTCPChannelInstance is the {@link BlockingSocketTransport} connection: one thread connects and then blocks
+ * in read, a second blocks waiting for queued writes. Intended for virtual threads, so waits use
+ * {@link ReentrantLock} rather than monitors, which would pin the carrier thread.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+class BlockingTCPChannelInstance implements ITCPChannel
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(BlockingTCPChannelInstance.class);
+	private static final ITCPSocketChannelCallback DEFAULT_CALLBACK =
+			new CompoundTCPSocketChannelCallback(Collections.<ITCPSocketChannelCallback> emptyList());
+	private final InetSocketAddress m_remoteAddress;
+	private final ITCPSocketChannelCallback m_callback;
+	private final Collection<BlockingTCPChannelInstance> m_connections;
+	private final WriteQueue m_pendingWrites = new WriteQueue();
+	private final AtomicReference<State> m_state = new AtomicReference<State>(State.NotConnected);
+	private final ReentrantLock m_lock = new ReentrantLock();
+	private final Condition m_writeReady = m_lock.newCondition();
+	private final ByteBuffer[] m_writeBatch;
+	private final int m_readBufferSize;
+	private volatile SocketChannel m_channel;
+
+	private static enum State
+	{
+		NotConnected, Connected, Closed
+	};
+
+	/**
+	 * @param address
+	 * @param callback
+	 * @param connections
+	 *            open connections, this instance removes itself when closed
+	 * @param readBufferSize
+	 * @param writeBatchSize
+	 */
+	BlockingTCPChannelInstance(InetSocketAddress address, ITCPSocketChannelCallback callback,
+			Collection<BlockingTCPChannelInstance> connections, int readBufferSize, int writeBatchSize)
+	{
+		m_remoteAddress = address;
+		m_callback = callback != null ? callback : DEFAULT_CALLBACK;
+		m_connections = connections;
+		m_readBufferSize = readBufferSize;
+		m_writeBatch = new ByteBuffer[writeBatchSize];
+	}
+
+	WriteQueue getWriteQueue()
+	{
+		return m_pendingWrites;
+	}
+
+	/**
+	 * Start the connection thread.
+	 * 
+	 * @param factory
+	 * @param timeout
+	 *            connect timeout in milliseconds, 0 for none
+	 * @throws IOException
+	 */
+	void connect(final ThreadFactory factory, final int timeout) throws IOException
+	{
+		m_channel = SocketChannel.open();
+		m_connections.add(this);
+		factory.newThread(new Runnable() {
+			@Override
+			public void run()
+			{
+				if (connect(timeout))
+				{
+					factory.newThread(new Runnable() {
+						@Override
+						public void run()
+						{
+							writeLoop();
+						}
+					}).start();
+					readLoop();
+				}
+			}
+		}).start();
+	}
+
+	private boolean connect(int timeout)
+	{
+		LOGGER.trace("Connecting to {}", m_remoteAddress);
+		try
+		{
+			m_channel.socket().connect(m_remoteAddress, timeout);
+		}
+		catch (IOException e)
+		{
+			if (m_state.get() != State.Closed)
+				LOGGER.error("Unable to connect to {}", m_remoteAddress, e);
+			close();
+			return false;
+		}
+		if (!m_state.compareAndSet(State.NotConnected, State.Connected))
+			return false; // closed while connecting
+		LOGGER.trace("Connected to {}", m_remoteAddress);
+		m_callback.connectionOpen(this);
+		return true;
+	}
+
+	private void readLoop()
+	{
+		ByteBuffer b = ByteBuffer.allocate(m_readBufferSize);
+		try
+		{
+			while (m_channel.read(b) != -1)
+			{
+				b.flip();
+				if (m_callback instanceof IBufferSocketChannelCallback)
+				{
+					if (LOGGER.isTraceEnabled())
+						LOGGER.trace("Read: {} bytes from {}", b.remaining(), m_remoteAddress);
+					((IBufferSocketChannelCallback) m_callback).handleRead(b.asReadOnlyBuffer(), m_remoteAddress);
+				}
+				else
+				{
+					m_callback.handleRead(ByteBuffers.toArray(b), m_remoteAddress);
+				}
+				b.clear();
+			}
+		}
+		catch (Exception e)
+		{
+			failure("read", e);
+		}
+		close();
+	}
+
+	private void writeLoop()
+	{
+		try
+		{
+			while (awaitWrites())
+			{
+				int count = m_pendingWrites.peek(m_writeBatch);
+				long written = m_channel.write(m_writeBatch, 0, count);
+				if (LOGGER.isTraceEnabled())
+					LOGGER.trace("Wrote {} bytes in {} buffers to {}", new Object[] { written, count, m_remoteAddress });
+				Arrays.fill(m_writeBatch, 0, count, null);
+				if (m_pendingWrites.removeWritten())
+					m_callback.writabilityChanged(this, true);
+			}
+		}
+		catch (Exception e)
+		{
+			failure("write", e);
+		}
+		close();
+	}
+
+	/**
+	 * Block until there are writes queued.
+	 * 
+	 * @return false if closed
+	 * @throws InterruptedException
+	 */
+	private boolean awaitWrites() throws InterruptedException
+	{
+		m_lock.lock();
+		try
+		{
+			while (m_pendingWrites.isEmpty() && m_state.get() == State.Connected)
+				m_writeReady.await();
+			return m_state.get() == State.Connected;
+		}
+		finally
+		{
+			m_lock.unlock();
+		}
+	}
+
+	private void signalWriter()
+	{
+		m_lock.lock();
+		try
+		{
+			m_writeReady.signal();
+		}
+		finally
+		{
+			m_lock.unlock();
+		}
+	}
+
+	private void failure(String op, Exception e)
+	{
+		if (m_state.get() != State.Closed && !(e instanceof ClosedChannelException))
+			LOGGER.error("Error processing " + m_remoteAddress + " for op:" + op, e);
+	}
+
+	@Override
+	public boolean isWritable()
+	{
+		return m_pendingWrites.isWritable();
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress()
+	{
+		return m_remoteAddress;
+	}
+
+	/**
+	 * Copies the remaining bytes of src, as src remains owned by the caller.
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException
+	{
+		ByteBuffer b = ByteBuffers.retain(src);
+		int remaining = b.remaining();
+		src.position(src.limit());
+		write(b, null);
+		return remaining;
+	}
+
+	@Override
+	public void write(ByteBuffer b, IBufferReleaser releaser) throws IOException
+	{
+		PendingWrite w = new PendingWrite(b, releaser);
+		if (!isOpen())
+		{
+			w.release();
+			throw new ClosedChannelException();
+		}
+		if (m_pendingWrites.add(w, m_remoteAddress))
+			m_callback.writabilityChanged(this, false);
+		if (!isOpen())
+			m_pendingWrites.releaseAll(); // lost a race with close
+		else
+			signalWriter();
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return m_state.get() != State.Closed;
+	}
+
+	@Override
+	public void close()
+	{
+		State state = m_state.getAndSet(State.Closed);
+		if (state == State.Closed)
+			return;
+		LOGGER.trace("Closing {}", m_remoteAddress);
+		m_connections.remove(this);
+		Utilities.safeClose(m_channel);
+		signalWriter();
+		m_pendingWrites.releaseAll();
+		if (state == State.Connected)
+			m_callback.connectionClose(this);
+		else
+			m_callback.connectionFailed(this);
+		Utilities.safeClose(m_callback);
+	}
+
+	@Override
+	public String toString()
+	{
+		return m_remoteAddress.toString();
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ * ByteBuffers.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for working with the {@link ByteBuffer} views passed to {@link IBufferSocketChannelCallback}
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class ByteBuffers
+{
+	private ByteBuffers()
+	{
+	}
+
+	/**
+	 * Copy the remaining bytes of a buffer so that they can be used after the callback returns. The position of b
+	 * is not changed.
+	 * 
+	 * @param b
+	 * @return a new buffer, positioned at 0, containing the remaining bytes of b
+	 */
+	public static ByteBuffer retain(ByteBuffer b)
+	{
+		ByteBuffer copy = ByteBuffer.allocate(b.remaining());
+		copy.put(b.duplicate());
+		copy.flip();
+		return copy;
+	}
+
+	/**
+	 * Copy the remaining bytes of a buffer to an array. The position of b is not changed.
+	 * 
+	 * @param b
+	 * @return
+	 */
+	public static byte[] toArray(ByteBuffer b)
+	{
+		byte[] bytes = new byte[b.remaining()];
+		b.duplicate().get(bytes);
+		return bytes;
+	}
+}
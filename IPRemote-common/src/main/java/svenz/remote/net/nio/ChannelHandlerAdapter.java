@@ -0,0 +1,48 @@
+/**
+ *
+ * ChannelHandlerAdapter.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+
+/**
+ * {@link IChannelHandler} that passes every event on unchanged. Extend and override the events of interest.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class ChannelHandlerAdapter implements IChannelHandler
+{
+	@Override
+	public void channelOpen(IChannelHandlerContext ctx) throws IOException
+	{
+		ctx.fireChannelOpen();
+	}
+
+	@Override
+	public void channelClosed(IChannelHandlerContext ctx) throws IOException
+	{
+		ctx.fireChannelClosed();
+	}
+
+	@Override
+	public void channelRead(IChannelHandlerContext ctx, Object msg) throws IOException
+	{
+		ctx.fireChannelRead(msg);
+	}
+
+	@Override
+	public void writabilityChanged(IChannelHandlerContext ctx, boolean writable)
+	{
+		ctx.fireWritabilityChanged(writable);
+	}
+
+	@Override
+	public void write(IChannelHandlerContext ctx, Object msg, IBufferReleaser releaser) throws IOException
+	{
+		ctx.write(msg, releaser);
+	}
+}
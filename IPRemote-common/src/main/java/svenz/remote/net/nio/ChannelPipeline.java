@@ -0,0 +1,399 @@
+/**
+ *
+ * ChannelPipeline.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ChannelPipeline is an ordered chain of {@link IChannelHandler}s for a connection. As a callback it feeds reads and
+ * connection events through the handlers first to last. Writes made through {@link #getWriter(WritableByteChannel)}
+ * pass through the handlers last to first before reaching the channel.
+ * <p>
+ * Handlers may be added or removed at any time, events already in flight finish on the chain they started on.
+ *
+ * @author Sven Zethelius
+ *
+ */
+public class ChannelPipeline implements ITCPSocketChannelCallback, IBufferSocketChannelCallback
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChannelPipeline.class);
+	private volatile Context m_first;
+	private volatile Context m_last;
+	private volatile WritableByteChannel m_channel;
+	private PipelineWriter m_writer;
+
+	public synchronized void addFirst(String name, IChannelHandler handler)
+	{
+		Context ctx = newContext(name, handler);
+		ctx.m_next = m_first;
+		if (m_first == null)
+			m_last = ctx;
+		else
+			m_first.m_prev = ctx;
+		m_first = ctx;
+	}
+
+	public synchronized void addLast(String name, IChannelHandler handler)
+	{
+		Context ctx = newContext(name, handler);
+		ctx.m_prev = m_last;
+		if (m_last == null)
+			m_first = ctx;
+		else
+			m_last.m_next = ctx;
+		m_last = ctx;
+	}
+
+	/**
+	 * Add handler in front of the handler named baseName
+	 *
+	 * @param baseName
+	 * @param name
+	 * @param handler
+	 */
+	public synchronized void addBefore(String baseName, String name, IChannelHandler handler)
+	{
+		Context base = getContext(baseName);
+		if (base == null)
+			throw new IllegalArgumentException("No handler named " + baseName);
+		if (base == m_first)
+		{
+			addFirst(name, handler);
+			return;
+		}
+		Context ctx = newContext(name, handler);
+		ctx.m_prev = base.m_prev;
+		ctx.m_next = base;
+		base.m_prev.m_next = ctx;
+		base.m_prev = ctx;
+	}
+
+	/**
+	 * @param name
+	 * @return the removed handler, or null if there was none of that name
+	 */
+	public synchronized IChannelHandler remove(String name)
+	{
+		Context ctx = getContext(name);
+		if (ctx == null)
+			return null;
+		if (ctx.m_prev == null)
+			m_first = ctx.m_next;
+		else
+			ctx.m_prev.m_next = ctx.m_next;
+		if (ctx.m_next == null)
+			m_last = ctx.m_prev;
+		else
+			ctx.m_next.m_prev = ctx.m_prev;
+		return ctx.m_handler;
+	}
+
+	public IChannelHandler get(String name)
+	{
+		Context ctx = getContext(name);
+		return ctx == null ? null : ctx.m_handler;
+	}
+
+	public boolean isEmpty()
+	{
+		return m_first == null;
+	}
+
+	/**
+	 * Get the channel to write to through this pipeline. The same writer is returned until the channel changes.
+	 *
+	 * @param channel
+	 *            channel the pipeline writes to, may be null
+	 * @return writer or null if channel is null
+	 */
+	public synchronized WritableByteChannel getWriter(WritableByteChannel channel)
+	{
+		m_channel = channel;
+		if (channel == null)
+			m_writer = null;
+		else if (m_writer == null || m_writer.m_target != channel)
+			m_writer = new PipelineWriter(channel);
+		return m_writer;
+	}
+
+	/**
+	 * Write msg through the pipeline, starting at the last handler.
+	 *
+	 * @see IChannelHandler#write(IChannelHandlerContext, Object, IBufferReleaser)
+	 */
+	public void write(Object msg, IBufferReleaser releaser) throws IOException
+	{
+		Context ctx = m_last;
+		if (ctx == null)
+			writeChannel(msg, releaser);
+		else
+			ctx.m_handler.write(ctx, msg, releaser);
+	}
+
+	/**
+	 * Feed msg through the pipeline, starting at the first handler
+	 */
+	public void fireChannelRead(Object msg) throws IOException
+	{
+		Context ctx = m_first;
+		if (ctx == null)
+			unhandled(msg);
+		else
+			ctx.m_handler.channelRead(ctx, msg);
+	}
+
+	@Override
+	public void handleRead(byte[] b, InetSocketAddress address) throws IOException
+	{
+		fireChannelRead(ByteBuffer.wrap(b));
+	}
+
+	@Override
+	public void handleRead(ByteBuffer b, InetSocketAddress address) throws IOException
+	{
+		fireChannelRead(b);
+	}
+
+	@Override
+	public void connectionOpen(ITCPChannel instance)
+	{
+		Context ctx = m_first;
+		if (ctx == null)
+			return;
+		try
+		{
+			ctx.m_handler.channelOpen(ctx);
+		}
+		catch (IOException e)
+		{
+			LOGGER.error("Unable to open pipeline for {}", instance, e);
+		}
+	}
+
+	@Override
+	public void connectionClose(ITCPChannel instance)
+	{
+		LOGGER.trace("Connection closed {}", instance);
+	}
+
+	@Override
+	public void connectionFailed(ITCPChannel instance)
+	{
+		LOGGER.trace("Connection failed {}", instance);
+	}
+
+	@Override
+	public void writabilityChanged(ITCPChannel instance, boolean writable)
+	{
+		Context ctx = m_first;
+		if (ctx != null)
+			ctx.m_handler.writabilityChanged(ctx, writable);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		Context ctx = m_first;
+		if (ctx != null)
+			ctx.m_handler.channelClosed(ctx);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder("ChannelPipeline[");
+		for (Context ctx = m_first; ctx != null; ctx = ctx.m_next)
+		{
+			sb.append(ctx.m_name);
+			if (ctx.m_next != null)
+				sb.append(", ");
+		}
+		return sb.append(']').toString();
+	}
+
+	private Context newContext(String name, IChannelHandler handler)
+	{
+		if (getContext(name) != null)
+			throw new IllegalArgumentException("Duplicate handler name " + name);
+		return new Context(name, handler);
+	}
+
+	private Context getContext(String name)
+	{
+		for (Context ctx = m_first; ctx != null; ctx = ctx.m_next)
+		{
+			if (ctx.m_name.equals(name))
+				return ctx;
+		}
+		return null;
+	}
+
+	private void unhandled(Object msg)
+	{
+		LOGGER.debug("Discarding message that reached the end of the pipeline {}", msg);
+	}
+
+	private void writeChannel(Object msg, IBufferReleaser releaser) throws IOException
+	{
+		WritableByteChannel channel = m_channel;
+		ByteBuffer b;
+		if (msg instanceof ByteBuffer)
+			b = (ByteBuffer) msg;
+		else if (msg instanceof byte[])
+			b = ByteBuffer.wrap((byte[]) msg);
+		else
+			throw new IllegalArgumentException("Unable to write " + (msg == null ? null : msg.getClass()));
+
+		if (channel == null)
+		{
+			if (releaser != null)
+				releaser.release(b);
+			throw new ClosedChannelException();
+		}
+		if (releaser != null && channel instanceof ITransferWritableByteChannel)
+		{
+			((ITransferWritableByteChannel) channel).write(b, releaser);
+			return;
+		}
+		try
+		{
+			channel.write(b);
+		}
+		finally
+		{
+			if (releaser != null)
+				releaser.release(b);
+		}
+	}
+
+	private final class Context implements IChannelHandlerContext
+	{
+		private final String m_name;
+		private final IChannelHandler m_handler;
+		private volatile Context m_prev;
+		private volatile Context m_next;
+
+		Context(String name, IChannelHandler handler)
+		{
+			m_name = name;
+			m_handler = handler;
+		}
+
+		@Override
+		public String getName()
+		{
+			return m_name;
+		}
+
+		@Override
+		public ChannelPipeline getPipeline()
+		{
+			return ChannelPipeline.this;
+		}
+
+		@Override
+		public void fireChannelOpen() throws IOException
+		{
+			Context next = m_next;
+			if (next != null)
+				next.m_handler.channelOpen(next);
+		}
+
+		@Override
+		public void fireChannelClosed() throws IOException
+		{
+			Context next = m_next;
+			if (next != null)
+				next.m_handler.channelClosed(next);
+		}
+
+		@Override
+		public void fireChannelRead(Object msg) throws IOException
+		{
+			Context next = m_next;
+			if (next == null)
+				unhandled(msg);
+			else
+				next.m_handler.channelRead(next, msg);
+		}
+
+		@Override
+		public void fireWritabilityChanged(boolean writable)
+		{
+			Context next = m_next;
+			if (next != null)
+				next.m_handler.writabilityChanged(next, writable);
+		}
+
+		@Override
+		public void write(Object msg, IBufferReleaser releaser) throws IOException
+		{
+			Context prev = m_prev;
+			if (prev == null)
+				writeChannel(msg, releaser);
+			else
+				prev.m_handler.write(prev, msg, releaser);
+		}
+
+		@Override
+		public String toString()
+		{
+			return m_name;
+		}
+	}
+
+	/**
+	 * Entry point for writes, so the pipeline can stand in for the channel it writes to.
+	 */
+	private final class PipelineWriter implements ITransferWritableByteChannel
+	{
+		private final WritableByteChannel m_target;
+
+		PipelineWriter(WritableByteChannel target)
+		{
+			m_target = target;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException
+		{
+			int remaining = src.remaining();
+			ChannelPipeline.this.write(src, null);
+			return remaining;
+		}
+
+		@Override
+		public void write(ByteBuffer b, IBufferReleaser releaser) throws IOException
+		{
+			ChannelPipeline.this.write(b, releaser);
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return m_target.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			m_target.close();
+		}
+
+		@Override
+		public String toString()
+		{
+			return m_target.toString();
+		}
+	}
+}
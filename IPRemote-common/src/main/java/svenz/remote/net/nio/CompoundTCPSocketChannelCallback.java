@@ -5,6 +5,7 @@ package svenz.remote.net.nio;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import svenz.remote.common.utilities.Utilities;
 
@@ -12,7 +13,7 @@ import svenz.remote.common.utilities.Utilities;
  * @author Sven Zethelius
  *
  */
-public class CompoundTCPSocketChannelCallback implements ITCPSocketChannelCallback
+public class CompoundTCPSocketChannelCallback implements ITCPSocketChannelCallback, IBufferSocketChannelCallback
 {
 	private final Collection<? extends ITCPSocketChannelCallback> m_callbacks;
 
@@ -28,6 +29,31 @@ public class CompoundTCPSocketChannelCallback implements ITCPSocketChannelCallba
 			callback.handleRead(b, address);
 	}
 
+	/**
+	 * Pass the same view to each callback, resetting the position between them. Callbacks that only accept byte[]
+	 * share a single copy.
+	 */
+	@Override
+	public void handleRead(ByteBuffer b, InetSocketAddress address) throws IOException
+	{
+		int position = b.position();
+		byte[] bytes = null;
+		for (ITCPSocketChannelCallback callback : m_callbacks)
+		{
+			if (callback instanceof IBufferSocketChannelCallback)
+			{
+				((IBufferSocketChannelCallback) callback).handleRead(b, address);
+				b.position(position);
+			}
+			else
+			{
+				if (bytes == null)
+					bytes = ByteBuffers.toArray(b);
+				callback.handleRead(bytes, address);
+			}
+		}
+	}
+
 	@Override
 	public void close()
 	{
@@ -36,14 +62,14 @@ public class CompoundTCPSocketChannelCallback implements ITCPSocketChannelCallba
 	}
 
 	@Override
-	public void connectionOpen(TCPSocketChannelInstance instance)
+	public void connectionOpen(ITCPChannel instance)
 	{
 		for (ITCPSocketChannelCallback callback : m_callbacks)
 			callback.connectionOpen(instance);
 	}
 
 	@Override
-	public void connectionClose(TCPSocketChannelInstance instance)
+	public void connectionClose(ITCPChannel instance)
 	{
 		for (ITCPSocketChannelCallback callback : m_callbacks)
 			callback.connectionClose(instance);
@@ -51,10 +77,17 @@ public class CompoundTCPSocketChannelCallback implements ITCPSocketChannelCallba
 
 
 	@Override
-	public void connectionFailed(TCPSocketChannelInstance instance)
+	public void connectionFailed(ITCPChannel instance)
 	{
 		for (ITCPSocketChannelCallback callback : m_callbacks)
 			callback.connectionFailed(instance);
 	}
 
+	@Override
+	public void writabilityChanged(ITCPChannel instance, boolean writable)
+	{
+		for (ITCPSocketChannelCallback callback : m_callbacks)
+			callback.writabilityChanged(instance, writable);
+	}
+
 }
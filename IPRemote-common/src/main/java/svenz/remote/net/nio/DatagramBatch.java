@@ -0,0 +1,120 @@
+/**
+ *
+ * DatagramBatch.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * DatagramBatch holds the datagrams drained from a channel in one readiness event. The payloads are packed into a
+ * single buffer that is reused from batch to batch.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public final class DatagramBatch
+{
+	private ByteBuffer m_data;
+	private int[] m_offsets;
+	private int[] m_lengths;
+	private InetSocketAddress[] m_addresses;
+	private int m_size;
+
+	DatagramBatch(int capacity, int dataCapacity)
+	{
+		m_data = ByteBuffer.allocate(dataCapacity);
+		m_offsets = new int[capacity];
+		m_lengths = new int[capacity];
+		m_addresses = new InetSocketAddress[capacity];
+	}
+
+	/**
+	 * Copy the remaining bytes of b into the batch
+	 * 
+	 * @param b
+	 * @param address
+	 */
+	void add(ByteBuffer b, InetSocketAddress address)
+	{
+		int length = b.remaining();
+		if (m_data.remaining() < length)
+		{
+			ByteBuffer data = ByteBuffer.allocate(Math.max(m_data.capacity() * 2, m_data.position() + length));
+			m_data.flip();
+			data.put(m_data);
+			m_data = data;
+		}
+		if (m_size == m_offsets.length)
+		{
+			int capacity = m_size * 2;
+			m_offsets = Arrays.copyOf(m_offsets, capacity);
+			m_lengths = Arrays.copyOf(m_lengths, capacity);
+			m_addresses = Arrays.copyOf(m_addresses, capacity);
+		}
+		m_offsets[m_size] = m_data.position();
+		m_lengths[m_size] = length;
+		m_addresses[m_size] = address;
+		m_size++;
+		m_data.put(b.duplicate());
+	}
+
+	void clear()
+	{
+		Arrays.fill(m_addresses, 0, m_size, null);
+		m_size = 0;
+		m_data.clear();
+	}
+
+	public int size()
+	{
+		return m_size;
+	}
+
+	public boolean isEmpty()
+	{
+		return m_size == 0;
+	}
+
+	/**
+	 * @param i
+	 * @return read-only view of the i'th datagram, only valid until the batch is reused
+	 */
+	public ByteBuffer get(int i)
+	{
+		checkIndex(i);
+		ByteBuffer b = m_data.asReadOnlyBuffer();
+		b.limit(m_offsets[i] + m_lengths[i]);
+		b.position(m_offsets[i]);
+		return b;
+	}
+
+	public InetSocketAddress getAddress(int i)
+	{
+		checkIndex(i);
+		return m_addresses[i];
+	}
+
+	/**
+	 * Copy the batch so it can be used after the callback returns.
+	 * 
+	 * @return a compact copy of this batch
+	 */
+	public DatagramBatch retain()
+	{
+		DatagramBatch copy = new DatagramBatch(Math.max(m_size, 1), Math.max(m_data.position(), 1));
+		for (int i = 0; i < m_size; i++)
+			copy.add(get(i), m_addresses[i]);
+		return copy;
+	}
+
+	private void checkIndex(int i)
+	{
+		if (i < 0 || i >= m_size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + m_size);
+	}
+}
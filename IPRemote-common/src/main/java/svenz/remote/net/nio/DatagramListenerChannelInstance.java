@@ -23,11 +23,14 @@ import org.slf4j.LoggerFactory;
  * @author Sven Zethelius
  * 
  */
-public class DatagramListenerChannelInstance extends SocketChannelInstance<DatagramChannel>
+public class DatagramListenerChannelInstance extends SocketChannelInstance<DatagramChannel> implements
+		IDatagramChannel
 {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DatagramListenerChannelInstance.class);
 	private Collection<SocketAddress> m_loopbackAddresses;
+	private int m_maxBatchSize = SocketChannelManager.DEFAULT_DATAGRAM_BATCH_SIZE;
+	private DatagramBatch m_batch;
 
 	public DatagramListenerChannelInstance(
 			ISocketChannelCallback callback, 
@@ -39,6 +42,17 @@ public class DatagramListenerChannelInstance extends SocketChannelInstance<Datag
 		setChannel(channel);
 	}
 
+	/**
+	 * Set the most datagrams received per readiness event, so one busy channel can't starve the others on its
+	 * selector.
+	 * 
+	 * @param maxBatchSize
+	 */
+	void setMaxBatchSize(int maxBatchSize)
+	{
+		m_maxBatchSize = maxBatchSize;
+	}
+
 	@Override
 	void setKey(SelectionKey key)
 	{
@@ -52,11 +66,47 @@ public class DatagramListenerChannelInstance extends SocketChannelInstance<Datag
 		if (channel == null)
 			return 0;
 
-		InetSocketAddress address = (InetSocketAddress) channel.receive(b);
-		if (address != null && !m_loopbackAddresses.contains(address))
-			doRead(b, address);
-		b.clear();
-		return 0;
+		IDatagramBatchCallback batchCallback =
+				m_callback instanceof IDatagramBatchCallback ? (IDatagramBatchCallback) m_callback : null;
+		if (batchCallback != null && m_batch == null)
+			m_batch = new DatagramBatch(m_maxBatchSize, m_maxBatchSize * b.capacity());
+
+		int received = 0;
+		try
+		{
+			for (; received < m_maxBatchSize; received++)
+			{
+				InetSocketAddress address = (InetSocketAddress) channel.receive(b);
+				if (address == null)
+					break;
+				if (!m_loopbackAddresses.contains(address))
+				{
+					if (batchCallback != null)
+					{
+						b.flip();
+						m_batch.add(b, address);
+					}
+					else
+					{
+						doRead(b, address);
+					}
+				}
+				b.clear();
+			}
+			if (batchCallback != null && !m_batch.isEmpty())
+			{
+				if (LOGGER.isTraceEnabled())
+					LOGGER.trace("Read: {} datagrams on {}", m_batch.size(), this);
+				batchCallback.handleReadBatch(m_batch);
+			}
+		}
+		finally
+		{
+			b.clear();
+			if (m_batch != null)
+				m_batch.clear();
+		}
+		return received;
 	}
 
 	/**
@@ -66,6 +116,7 @@ public class DatagramListenerChannelInstance extends SocketChannelInstance<Datag
 	 * @param address
 	 * @throws IOException
 	 */
+	@Override
 	public void send(ByteBuffer b, SocketAddress address) throws IOException
 	{
 		DatagramChannel channel = getChannel();
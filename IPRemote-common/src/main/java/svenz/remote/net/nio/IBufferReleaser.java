@@ -0,0 +1,27 @@
+/**
+ *
+ * IBufferReleaser.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback returning ownership of a buffer handed to
+ * {@link ITransferWritableByteChannel#write(ByteBuffer, IBufferReleaser)} once the channel is done with it.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface IBufferReleaser
+{
+	/**
+	 * Called exactly once per transferred buffer, after it has been flushed or discarded because the channel closed.
+	 * May be called from the selector thread, so implementations should not block.
+	 * 
+	 * @param b
+	 */
+	void release(ByteBuffer b);
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ * IBufferSocketChannelCallback.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Callback interface for reading from a channel without copying the read bytes. Instances implementing this
+ * interface are called with {@link #handleRead(ByteBuffer, InetSocketAddress)} instead of
+ * {@link #handleRead(byte[], InetSocketAddress)}.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface IBufferSocketChannelCallback extends ISocketChannelCallback
+{
+	/**
+	 * Handle bytes read from the channel.
+	 * 
+	 * @param b
+	 *            read-only view of the bytes read, from position to limit. The view is only valid for the duration of
+	 *            the call. Use {@link ByteBuffers#retain(ByteBuffer)} to keep the content after returning, e.g. to
+	 *            process it on another thread.
+	 * @param address
+	 * @throws IOException
+	 */
+	void handleRead(ByteBuffer b, InetSocketAddress address) throws IOException;
+}
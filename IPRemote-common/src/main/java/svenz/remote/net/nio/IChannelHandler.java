@@ -0,0 +1,51 @@
+/**
+ *
+ * IChannelHandler.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+
+/**
+ * A stage in a {@link ChannelPipeline}. Inbound events travel from the first handler to the last, writes travel from
+ * the last handler to the first and then to the channel. A handler passes an event on through its
+ * {@link IChannelHandlerContext}, or consumes it by not doing so.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface IChannelHandler
+{
+	/**
+	 * The connection opened
+	 */
+	void channelOpen(IChannelHandlerContext ctx) throws IOException;
+
+	/**
+	 * The connection closed, or failed to open
+	 */
+	void channelClosed(IChannelHandlerContext ctx) throws IOException;
+
+	/**
+	 * A message was read. The first handler receives {@link java.nio.ByteBuffer}s only valid during the call,
+	 * later handlers receive whatever earlier handlers produce.
+	 */
+	void channelRead(IChannelHandlerContext ctx, Object msg) throws IOException;
+
+	/**
+	 * The connection's write backlog crossed a water mark
+	 */
+	void writabilityChanged(IChannelHandlerContext ctx, boolean writable);
+
+	/**
+	 * Write msg toward the channel.
+	 * 
+	 * @param msg
+	 * @param releaser
+	 *            if not null, msg is a {@link java.nio.ByteBuffer} owned by the writer and releaser must be called
+	 *            once it is no longer needed. A handler that replaces the buffer is responsible for releasing it.
+	 */
+	void write(IChannelHandlerContext ctx, Object msg, IBufferReleaser releaser) throws IOException;
+}
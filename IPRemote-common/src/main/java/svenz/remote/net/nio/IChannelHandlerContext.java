@@ -0,0 +1,38 @@
+/**
+ *
+ * IChannelHandlerContext.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+
+/**
+ * Binds an {@link IChannelHandler} to its position in a {@link ChannelPipeline}, so that it can pass events to its
+ * neighbors.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface IChannelHandlerContext
+{
+	String getName();
+
+	ChannelPipeline getPipeline();
+
+	void fireChannelOpen() throws IOException;
+
+	void fireChannelClosed() throws IOException;
+
+	void fireChannelRead(Object msg) throws IOException;
+
+	void fireWritabilityChanged(boolean writable);
+
+	/**
+	 * Pass msg to the previous handler, or the channel if this is the first.
+	 * 
+	 * @see IChannelHandler#write(IChannelHandlerContext, Object, IBufferReleaser)
+	 */
+	void write(Object msg, IBufferReleaser releaser) throws IOException;
+}
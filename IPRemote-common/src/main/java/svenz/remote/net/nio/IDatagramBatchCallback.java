@@ -0,0 +1,26 @@
+/**
+ *
+ * IDatagramBatchCallback.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+
+/**
+ * Callback receiving all the datagrams drained from a channel in one readiness event in a single call, rather than
+ * one {@link #handleRead(byte[], java.net.InetSocketAddress)} per datagram.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface IDatagramBatchCallback extends ISocketChannelCallback
+{
+	/**
+	 * @param batch
+	 *            only valid for the duration of the call, use {@link DatagramBatch#retain()} to keep it
+	 * @throws IOException
+	 */
+	void handleReadBatch(DatagramBatch batch) throws IOException;
+}
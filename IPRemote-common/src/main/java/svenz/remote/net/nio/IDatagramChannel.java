@@ -0,0 +1,33 @@
+/**
+ *
+ * IDatagramChannel.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.util.Collection;
+
+/**
+ * A bound UDP socket returned by {@link ISocketTransport#listenDatagram(InetSocketAddress, ISocketChannelCallback)}
+ * and {@link ISocketTransport#listenMultigram(InetSocketAddress, Collection, ISocketChannelCallback)}.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface IDatagramChannel extends Channel
+{
+	/**
+	 * Send a UDP packet to the address specified, using the local port this channel is bound to.
+	 * 
+	 * @param b
+	 * @param address
+	 * @throws IOException
+	 */
+	void send(ByteBuffer b, SocketAddress address) throws IOException;
+}
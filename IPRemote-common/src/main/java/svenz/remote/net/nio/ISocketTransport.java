@@ -0,0 +1,86 @@
+/**
+ *
+ * ISocketTransport.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * ISocketTransport creates the TCP and UDP channels used to talk to devices. Use {@link SocketTransportFactory} to
+ * get the configured implementation.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface ISocketTransport extends Closeable
+{
+	void setExecutor(ScheduledExecutorService executor);
+
+	/**
+	 * Prepare the transport for operation.
+	 * 
+	 * @throws IOException
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Listen to a multigram socket (Multicast UDP)
+	 * 
+	 * @param address
+	 * @param interfaces
+	 * @param callback
+	 * @return channel, or null if multicast isn't supported
+	 * @throws IOException
+	 */
+	IDatagramChannel listenMultigram(InetSocketAddress address, Collection<NetworkInterface> interfaces,
+			ISocketChannelCallback callback) throws IOException;
+
+	/**
+	 * Listen to a datagram socket (UDP)
+	 * 
+	 * @param address
+	 * @param callback
+	 * @return
+	 * @throws IOException
+	 */
+	IDatagramChannel listenDatagram(InetSocketAddress address, ISocketChannelCallback callback) throws IOException;
+
+	/**
+	 * Send a UDP packet from an ephemeral address
+	 * 
+	 * @param address
+	 * @param b
+	 * @throws IOException
+	 */
+	void sendDatagram(InetSocketAddress address, byte[] b) throws IOException;
+
+	WritableByteChannel connect(InetSocketAddress address, ITCPSocketChannelCallback callback) throws IOException;
+
+	/**
+	 * Open a TCP connection. The returned channel accepts writes immediately, queuing them until connected.
+	 * 
+	 * @param address
+	 * @param timeout
+	 *            connect timeout in milliseconds, 0 for none
+	 * @param callback
+	 * @return
+	 * @throws IOException
+	 */
+	WritableByteChannel connect(InetSocketAddress address, int timeout, ITCPSocketChannelCallback callback)
+			throws IOException;
+
+	/**
+	 * Close the transport and every channel it opened
+	 */
+	@Override
+	void close();
+}
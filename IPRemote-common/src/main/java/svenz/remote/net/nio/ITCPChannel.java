@@ -0,0 +1,27 @@
+/**
+ *
+ * ITCPChannel.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A TCP connection as seen by its {@link ITCPSocketChannelCallback}, independent of the {@link ISocketTransport}
+ * that created it.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface ITCPChannel extends ITransferWritableByteChannel
+{
+	/**
+	 * @return false while the bytes queued are above the high water mark and haven't yet drained to the low water
+	 *         mark
+	 */
+	boolean isWritable();
+
+	InetSocketAddress getRemoteAddress();
+}
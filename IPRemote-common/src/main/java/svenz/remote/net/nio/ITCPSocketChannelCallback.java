@@ -10,9 +10,18 @@ package svenz.remote.net.nio;
  */
 public interface ITCPSocketChannelCallback extends ISocketChannelCallback
 {
-	void connectionOpen(TCPSocketChannelInstance instance);
+	void connectionOpen(ITCPChannel instance);
 
-	void connectionClose(TCPSocketChannelInstance instance);
+	void connectionClose(ITCPChannel instance);
 
-	void connectionFailed(TCPSocketChannelInstance instance);
+	void connectionFailed(ITCPChannel instance);
+
+	/**
+	 * Called when the bytes queued for writing cross the high water mark (writable false), and again once they drain
+	 * below the low water mark (writable true).
+	 * 
+	 * @param instance
+	 * @param writable
+	 */
+	void writabilityChanged(ITCPChannel instance, boolean writable);
 }
@@ -0,0 +1,32 @@
+/**
+ *
+ * ITransferWritableByteChannel.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel accepting ownership of the buffers written to it, so they can be queued without copying.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public interface ITransferWritableByteChannel extends WritableByteChannel
+{
+	/**
+	 * Queue the remaining bytes of b for writing. The caller must not touch b until it is handed back through
+	 * releaser, which happens once the bytes are flushed or the channel closes. The releaser is called even if this
+	 * method throws.
+	 * 
+	 * @param b
+	 * @param releaser
+	 *            may be null if the buffer does not need to be returned
+	 * @throws IOException
+	 */
+	void write(ByteBuffer b, IBufferReleaser releaser) throws IOException;
+}
@@ -0,0 +1,162 @@
+/**
+ *
+ * LineFrameDecoder.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LineFrameDecoder splits a TCP byte stream into lines terminated by CR, LF or CRLF. Lines that span reads are held
+ * until their terminator arrives. Empty lines are dropped. Complete lines are passed to an {@link IFrameHandler} as
+ * a range of a buffer, so a line contained in a single read is never copied.
+ * <p>
+ * Not thread safe, an instance belongs to a single connection.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class LineFrameDecoder
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(LineFrameDecoder.class);
+	public static final int DEFAULT_MAX_FRAME_LENGTH = 1024;
+
+	private final int m_maxFrameLength;
+	private byte[] m_partial = new byte[64];
+	private ByteBuffer m_partialBuffer = ByteBuffer.wrap(m_partial);
+	private int m_partialLength;
+	private boolean m_discarding;
+
+	/**
+	 * Receives frames from {@link LineFrameDecoder#decode(ByteBuffer, IFrameHandler)}
+	 */
+	public interface IFrameHandler
+	{
+		/**
+		 * Handle a complete frame, excluding its terminator. The bytes are only valid for the duration of the call.
+		 * 
+		 * @param b
+		 *            buffer containing the frame. The position and limit of b must not be relied upon.
+		 * @param offset
+		 *            absolute index of the first byte of the frame in b
+		 * @param length
+		 *            number of bytes in the frame
+		 * @throws IOException
+		 */
+		void handleFrame(ByteBuffer b, int offset, int length) throws IOException;
+	}
+
+	public LineFrameDecoder()
+	{
+		this(DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	/**
+	 * @param maxFrameLength
+	 *            longest frame to accept. Longer frames are discarded up to their terminator.
+	 */
+	public LineFrameDecoder(int maxFrameLength)
+	{
+		if (maxFrameLength < 1)
+			throw new IllegalArgumentException("maxFrameLength must be positive: " + maxFrameLength);
+		m_maxFrameLength = maxFrameLength;
+	}
+
+	/**
+	 * Consume all remaining bytes of b, passing each completed frame to handler. Any trailing partial frame is kept
+	 * for the next call.
+	 * 
+	 * @param b
+	 * @param handler
+	 * @throws IOException
+	 *             from the handler
+	 */
+	public void decode(ByteBuffer b, IFrameHandler handler) throws IOException
+	{
+		int start = b.position();
+		int limit = b.limit();
+		try
+		{
+			for (int i = start; i < limit; i++)
+			{
+				byte c = b.get(i);
+				if (c != '\r' && c != '\n')
+					continue;
+
+				if (m_partialLength > 0)
+				{
+					append(b, start, i);
+					if (!m_discarding)
+						emitPartial(handler);
+				}
+				else if (i > start && !m_discarding)
+				{
+					if (i - start > m_maxFrameLength)
+						LOGGER.warn("Discarding {} byte frame longer than {}", i - start, m_maxFrameLength);
+					else
+						handler.handleFrame(b, start, i - start);
+				}
+				m_partialLength = 0;
+				m_discarding = false;
+				start = i + 1;
+			}
+			if (start < limit && !m_discarding)
+				append(b, start, limit);
+		}
+		finally
+		{
+			b.position(limit);
+		}
+	}
+
+	/**
+	 * @return true if part of a frame is waiting for its terminator
+	 */
+	public boolean hasPartial()
+	{
+		return m_partialLength > 0 || m_discarding;
+	}
+
+	/**
+	 * Drop any partial frame, e.g. when the connection is reset.
+	 */
+	public void reset()
+	{
+		m_partialLength = 0;
+		m_discarding = false;
+	}
+
+	private void append(ByteBuffer b, int start, int end)
+	{
+		int length = end - start;
+		int required = m_partialLength + length;
+		if (required > m_maxFrameLength)
+		{
+			LOGGER.warn("Discarding frame longer than {}", m_maxFrameLength);
+			m_partialLength = 0;
+			m_discarding = true;
+			return;
+		}
+		if (required > m_partial.length)
+		{
+			byte[] partial = new byte[Math.min(Math.max(required, m_partial.length * 2), m_maxFrameLength)];
+			System.arraycopy(m_partial, 0, partial, 0, m_partialLength);
+			m_partial = partial;
+			m_partialBuffer = ByteBuffer.wrap(partial);
+		}
+		for (int i = start; i < end; i++)
+			m_partial[m_partialLength++] = b.get(i);
+	}
+
+	private void emitPartial(IFrameHandler handler) throws IOException
+	{
+		int length = m_partialLength;
+		m_partialLength = 0;
+		handler.handleFrame(m_partialBuffer, 0, length);
+	}
+}
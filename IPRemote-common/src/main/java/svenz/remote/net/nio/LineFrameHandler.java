@@ -0,0 +1,69 @@
+/**
+ *
+ * LineFrameHandler.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import svenz.remote.net.nio.LineFrameDecoder.IFrameHandler;
+
+/**
+ * Pipeline stage splitting inbound {@link ByteBuffer}s into lines with a {@link LineFrameDecoder}. Each line is
+ * passed on as a {@link ByteBuffer} view that is only valid for the duration of the call.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class LineFrameHandler extends ChannelHandlerAdapter implements IFrameHandler
+{
+	private final LineFrameDecoder m_decoder;
+	private IChannelHandlerContext m_ctx;
+
+	public LineFrameHandler()
+	{
+		this(new LineFrameDecoder());
+	}
+
+	public LineFrameHandler(LineFrameDecoder decoder)
+	{
+		m_decoder = decoder;
+	}
+
+	@Override
+	public void channelOpen(IChannelHandlerContext ctx) throws IOException
+	{
+		m_decoder.reset();
+		super.channelOpen(ctx);
+	}
+
+	@Override
+	public void channelRead(IChannelHandlerContext ctx, Object msg) throws IOException
+	{
+		if (!(msg instanceof ByteBuffer))
+		{
+			ctx.fireChannelRead(msg);
+			return;
+		}
+		m_ctx = ctx;
+		try
+		{
+			m_decoder.decode((ByteBuffer) msg, this);
+		}
+		finally
+		{
+			m_ctx = null;
+		}
+	}
+
+	@Override
+	public void handleFrame(ByteBuffer b, int offset, int length) throws IOException
+	{
+		ByteBuffer frame = b.duplicate();
+		frame.limit(offset + length);
+		frame.position(offset);
+		m_ctx.fireChannelRead(frame);
+	}
+}
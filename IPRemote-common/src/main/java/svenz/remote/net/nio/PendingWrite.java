@@ -0,0 +1,48 @@
+/**
+ *
+ * PendingWrite.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer queued for writing, along with who to hand it back to once written.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+final class PendingWrite
+{
+	private final ByteBuffer m_buffer;
+	private final IBufferReleaser m_releaser;
+	private final int m_size;
+
+	PendingWrite(ByteBuffer buffer, IBufferReleaser releaser)
+	{
+		m_buffer = buffer;
+		m_releaser = releaser;
+		m_size = buffer.remaining();
+	}
+
+	/**
+	 * @return number of bytes queued, regardless of how many have been written so far
+	 */
+	int size()
+	{
+		return m_size;
+	}
+
+	ByteBuffer getBuffer()
+	{
+		return m_buffer;
+	}
+
+	void release()
+	{
+		if (m_releaser != null)
+			m_releaser.release(m_buffer);
+	}
+}
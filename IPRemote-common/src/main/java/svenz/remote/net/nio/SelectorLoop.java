@@ -0,0 +1,286 @@
+/**
+ *
+ * SelectorLoop.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import svenz.remote.common.utilities.Utilities;
+
+/**
+ * SelectorLoop is a single reactor: one {@link Selector} driven by one long lived thread that loops register
+ * pending, select and dispatch until closed. {@link SocketChannelManager} shards its channels across several of
+ * these.
+ *
+ * @author Sven Zethelius
+ *
+ */
+class SelectorLoop implements Runnable, Closeable
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(SelectorLoop.class);
+	private final Queue<Callable<? extends SelectableChannel>> m_pending =
+			new ConcurrentLinkedQueue<Callable<? extends SelectableChannel>>();
+	private final Queue<SocketChannelInstance<?>> m_interestChanged =
+			new ConcurrentLinkedQueue<SocketChannelInstance<?>>();
+	private final ByteBuffer m_readBuffer = ByteBuffer.allocate(1024);
+	private final Selector m_selector;
+	private final Closeable m_owner;
+	private final AtomicBoolean m_wakeup = new AtomicBoolean(false);
+	private final AtomicInteger m_channels = new AtomicInteger(0);
+	private volatile boolean m_running = true;
+	private Thread m_thread;
+
+	/**
+	 * @param owner
+	 *            closed if the selector is unexpectedly closed
+	 * @throws IOException
+	 */
+	SelectorLoop(Closeable owner) throws IOException
+	{
+		m_owner = owner;
+		m_selector = Selector.open();
+	}
+
+	void start(ThreadFactory factory)
+	{
+		m_thread = factory.newThread(this);
+		m_thread.start();
+	}
+
+	/**
+	 * @return number of channels currently registered with this loop
+	 */
+	int getChannelCount()
+	{
+		return m_channels.get();
+	}
+
+	/**
+	 * Queue an operation to run on the loop thread before the next select.
+	 *
+	 * @param pending
+	 */
+	void addPending(Callable<? extends SelectableChannel> pending)
+	{
+		if (!m_pending.add(pending))
+			throw new IllegalStateException("Unable to enqueue pending operation");
+		wakeup();
+	}
+
+	/**
+	 * Register the channel with this loop's selector. Must be called from the loop thread, typically from a
+	 * {@link #addPending(Callable)} operation.
+	 *
+	 * @param channel
+	 * @param ops
+	 * @param instance
+	 * @throws ClosedChannelException
+	 */
+	void register(SelectableChannel channel, int ops, SocketChannelInstance<?> instance)
+			throws ClosedChannelException
+	{
+		instance.setLoop(this);
+		instance.setKey(channel.register(m_selector, ops, instance));
+		m_channels.incrementAndGet();
+	}
+
+	/**
+	 * Notification from a registered instance that its interest operations need updating, e.g. because a write was
+	 * queued. Only instances queued here are examined on the next loop iteration.
+	 *
+	 * @param instance
+	 */
+	void interestChanged(SocketChannelInstance<?> instance)
+	{
+		m_interestChanged.add(instance);
+		wakeup();
+	}
+
+	/**
+	 * Notification from a registered instance that it closed
+	 */
+	void channelClosed()
+	{
+		m_channels.decrementAndGet();
+	}
+
+	/**
+	 * Wake the selector, unless a wakeup is already pending for this cycle.
+	 */
+	void wakeup()
+	{
+		if (m_wakeup.compareAndSet(false, true))
+			m_selector.wakeup();
+	}
+
+	/**
+	 * Stop the loop, close all channels registered with it and the selector.
+	 */
+	@Override
+	public void close()
+	{
+		m_running = false;
+		m_selector.wakeup();
+		try
+		{
+			for (SelectionKey key : new ArrayList<SelectionKey>(m_selector.keys()))
+			{
+				Utilities.safeClose((SocketChannelInstance<?>) key.attachment());
+			}
+		}
+		catch (ClosedSelectorException e)
+		{
+			LOGGER.trace("Selector already closed", e);
+		}
+		Utilities.safeClose(m_selector);
+	}
+
+	@Override
+	public void run()
+	{
+		LOGGER.trace("Selector loop started");
+		while (m_running)
+		{
+			try
+			{
+				registerPending();
+				int selected = m_selector.select();
+				m_wakeup.set(false);
+				if (!m_running)
+					break;
+				if(selected > 0)
+					LOGGER.trace("{} channels ready.", selected);
+				for (Iterator<SelectionKey> iter = m_selector.selectedKeys().iterator(); iter.hasNext();)
+				{
+					SelectionKey key = iter.next();
+					iter.remove();
+					handleChannel(key);
+				}
+			}
+			catch (ClosedSelectorException e)
+			{
+				if (m_running)
+					Utilities.safeClose(m_owner);
+				break;
+			}
+			catch (Exception e)
+			{
+				LOGGER.error("Unhandled exception in selector thread", e);
+			}
+		}
+		LOGGER.trace("Selector loop stopped");
+	}
+
+	private void registerPending() throws Exception
+	{
+		SocketChannelInstance<?> instance;
+		while (null != (instance = m_interestChanged.poll()))
+		{
+			instance.clearInterestChanged();
+			SelectionKey key = instance.getKey();
+			if (key == null)
+				continue; // not registered yet, registration will pick up the pending operations
+			if (!key.isValid())
+			{
+				Utilities.safeClose(instance); // just in case it wasn't already closed
+				continue;
+			}
+
+			int opsExisting = key.interestOps();
+			int ops = instance.getPendingOperations() | opsExisting;
+			if (ops != opsExisting)
+				key.interestOps(ops);
+		}
+
+		for (Iterator<Callable<? extends SelectableChannel>> iter = m_pending.iterator(); iter.hasNext();)
+		{
+			try
+			{
+				iter.next().call(); // TODO need channel?
+			}
+			catch (Exception e)
+			{
+				LOGGER.error("Unable to handle pending socket", e);
+			}
+			finally
+			{
+				iter.remove();
+			}
+		}
+	}
+
+	private void handleChannel(SelectionKey key)
+	{
+		SocketChannelInstance<?> instance = (SocketChannelInstance<?>) key.attachment();
+		try
+		{
+			if (!key.isValid() || !key.channel().isOpen())
+			{
+				Utilities.safeClose(instance);
+			}
+			else if(key.isReadable())
+			{
+				instance.processRead(m_readBuffer);
+			}
+			else
+			{
+				instance.process();
+			}
+		}
+		catch (CancelledKeyException e)
+		{
+			LOGGER.trace("Closing channel {}", key.attachment(), e);
+			Utilities.safeClose(instance);
+		}
+		catch (ClosedChannelException e)
+		{
+			LOGGER.trace("Closing channel {}", key.attachment(), e);
+			Utilities.safeClose(instance);
+		}
+		catch (ConnectException e)
+		{
+			LOGGER.error("Unable to connect to " + key.attachment(), e);
+			Utilities.safeClose(instance);
+		}
+		catch (IOException e)
+		{
+			String op = "Unknown";
+			try
+			{
+				if (key.isConnectable())
+					op = "connect";
+				else if (key.isReadable())
+					op = "read";
+				else if (key.isWritable())
+					op = "write";
+			}
+			catch(Exception e2)
+			{
+				LOGGER.error("Secondary exception from key " + key.attachment(), e);
+			}
+			LOGGER.error("Error processing " + key.attachment() + " for op:" + op, e);
+			Utilities.safeClose(instance);
+		}
+	}
+}
@@ -15,8 +15,7 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.util.Collections;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,8 +33,10 @@ public abstract class SocketChannelInstance<T extends SelectableChannel> impleme
 	private static final ISocketChannelCallback DEFAULT_CALLBACK = 
 			new CompoundTCPSocketChannelCallback(Collections.<ITCPSocketChannelCallback>emptyList());
 
-	protected final Queue<ByteBuffer> m_pendingWrites = new ConcurrentLinkedQueue<ByteBuffer>();
+	protected final WriteQueue m_pendingWrites = new WriteQueue();
 	private SelectionKey m_key;
+	private volatile SelectorLoop m_loop;
+	private final AtomicBoolean m_interestChanged = new AtomicBoolean(false);
 	private final AtomicReference<T> m_channel = new AtomicReference<T>();
 	protected final ISocketChannelCallback m_callback;
 
@@ -57,6 +58,27 @@ public abstract class SocketChannelInstance<T extends SelectableChannel> impleme
 		return m_key;
 	}
 
+	void setLoop(SelectorLoop loop)
+	{
+		m_loop = loop;
+	}
+
+	/**
+	 * Queue this instance with its selector loop to have its interest operations updated. An instance is queued at
+	 * most once per loop iteration.
+	 */
+	protected void interestChanged()
+	{
+		SelectorLoop loop = m_loop;
+		if (loop != null && m_interestChanged.compareAndSet(false, true))
+			loop.interestChanged(this);
+	}
+
+	void clearInterestChanged()
+	{
+		m_interestChanged.set(false);
+	}
+
 	void process() throws IOException
 	{
 		throw new UnsupportedOperationException("Key in unknown state:" + m_key.readyOps());
@@ -71,9 +93,17 @@ public abstract class SocketChannelInstance<T extends SelectableChannel> impleme
 
 	protected void doRead(ByteBuffer b, InetSocketAddress address) throws IOException
 	{
-		int pos = b.position();
-		byte[] bytes = new byte[pos];
-		((ByteBuffer) b.flip()).get(bytes);
+		b.flip();
+		if (m_callback instanceof IBufferSocketChannelCallback)
+		{
+			if (LOGGER.isTraceEnabled())
+				LOGGER.trace("Read: {} bytes from {}", b.remaining(), address);
+			((IBufferSocketChannelCallback) m_callback).handleRead(b.asReadOnlyBuffer(), address);
+			return;
+		}
+
+		byte[] bytes = new byte[b.remaining()];
+		b.get(bytes);
 
 		if (LOGGER.isTraceEnabled())
 			LOGGER.trace("Read: {} from {}", bytes.length <= 100 ? bytes : bytes.length, address);
@@ -109,12 +139,23 @@ public abstract class SocketChannelInstance<T extends SelectableChannel> impleme
 		// if key is null, we have not finished the connect because we
 		// haven't even registered!
 		if (m_key != null)
+		{
 			m_key.cancel();
+			m_loop.channelClosed();
+		}
 		Utilities.safeClose(channel);
-		m_pendingWrites.clear();
+		releasePendingWrites();
 		Utilities.safeClose(m_callback);
 	}
 
+	/**
+	 * Discard any queued writes, handing the buffers back to their owners.
+	 */
+	protected void releasePendingWrites()
+	{
+		m_pendingWrites.releaseAll();
+	}
+
 	protected final T getChannel()
 	{
 		return m_channel.get();
@@ -6,9 +6,7 @@
  */
 package svenz.remote.net.nio;
 
-import java.io.Closeable;
 import java.io.IOException;
-import java.net.ConnectException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -18,63 +16,183 @@ import java.net.ProtocolFamily;
 import java.net.SocketAddress;
 import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
-import java.nio.channels.CancelledKeyException;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import svenz.remote.common.thread.BasicThreadFactory;
+import svenz.remote.common.thread.DaemonThreadFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.thread.NameThreadFactory;
 import svenz.remote.common.utilities.Utilities;
 
 /**
- * SocketChannelManager wraps NIO selector to create a managed object per
- * connection
+ * SocketChannelManager wraps NIO selectors to create a managed object per
+ * connection. Channels are sharded across a pool of {@link SelectorLoop}s, each
+ * assigned to the least loaded loop.
  * 
  * @author Sven Zethelius
  * 
  */
-public class SocketChannelManager implements Closeable
+public class SocketChannelManager implements ISocketTransport
 {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SocketChannelManager.class);
 	private static final boolean JDK7_NIO = checkNIO();
-	private final Queue<Callable<? extends SelectableChannel>> m_pending =
-			new ConcurrentLinkedQueue<Callable<? extends SelectableChannel>>();
-	private Selector m_selector;
+	static final int DEFAULT_WRITE_BATCH_SIZE = 16;
+	static final int DEFAULT_DATAGRAM_BATCH_SIZE = 32;
+	static final int DEFAULT_MAX_PENDING_WRITES = 1024;
+	static final long DEFAULT_MAX_PENDING_BYTES = 256 * 1024;
+	static final long DEFAULT_LOW_WATER_MARK = 8 * 1024;
+	static final long DEFAULT_HIGH_WATER_MARK = 32 * 1024;
 	private ScheduledExecutorService m_executor;
+	private HashedTimingWheel m_timer = HashedTimingWheel.getDefault();
+	private ThreadFactory m_threadFactory =
+			new NameThreadFactory(new DaemonThreadFactory(new BasicThreadFactory()), "Selector-");
 	private final Map<SocketAddress, Boolean> m_loopbackAddress = new ConcurrentHashMap<SocketAddress, Boolean>();
+	private int m_selectorCount = Runtime.getRuntime().availableProcessors();
+	private int m_writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+	private int m_datagramBatchSize = DEFAULT_DATAGRAM_BATCH_SIZE;
+	private int m_maxPendingWrites = DEFAULT_MAX_PENDING_WRITES;
+	private long m_maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+	private long m_lowWaterMark = DEFAULT_LOW_WATER_MARK;
+	private long m_highWaterMark = DEFAULT_HIGH_WATER_MARK;
+	private final AtomicInteger m_nextLoop = new AtomicInteger(0);
 
 
 	/**
-	 * Future for controlling the selector thread
+	 * Event loops driving the selectors
 	 */
-	private Future<?> m_future;
+	private SelectorLoop[] m_loops;
+
+	/**
+	 * Registrations made before {@link #open()}, handed to the loops once they exist
+	 */
+	private final List<Registration<?>> m_pending = new ArrayList<Registration<?>>();
 
 	/**
 	 * Channel for sending messages, unbound so must provide address
 	 */
 	private DatagramChannel m_datagram;
 
+	@Override
 	public void setExecutor(ScheduledExecutorService executor)
 	{
 		m_executor = executor;
 	}
 
+	/**
+	 * Set the timing wheel connect timeouts are scheduled on. Defaults to {@link HashedTimingWheel#getDefault()}.
+	 * 
+	 * @param timer
+	 */
+	public void setTimer(HashedTimingWheel timer)
+	{
+		m_timer = timer;
+	}
+
+	/**
+	 * Set the factory used to create the selector event loop threads. Must be called before {@link #open()}.
+	 * 
+	 * @param threadFactory
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory)
+	{
+		m_threadFactory = threadFactory;
+	}
+
+	/**
+	 * Set the number of selector loops channels are sharded across. Defaults to the number of processors. Must be
+	 * called before {@link #open()}.
+	 * 
+	 * @param selectorCount
+	 */
+	public void setSelectorCount(int selectorCount)
+	{
+		if (selectorCount < 1)
+			throw new IllegalArgumentException("selectorCount must be positive: " + selectorCount);
+		m_selectorCount = selectorCount;
+	}
+
+	/**
+	 * Set the maximum number of queued buffers a TCP channel gathers into a single write. Applies to channels
+	 * connected after the call.
+	 * 
+	 * @param writeBatchSize
+	 */
+	public void setWriteBatchSize(int writeBatchSize)
+	{
+		if (writeBatchSize < 1)
+			throw new IllegalArgumentException("writeBatchSize must be positive: " + writeBatchSize);
+		m_writeBatchSize = writeBatchSize;
+	}
+
+	/**
+	 * Set the maximum number of datagrams a listening channel receives per readiness event before yielding to the
+	 * other channels on its selector. Applies to channels opened after the call.
+	 * 
+	 * @param datagramBatchSize
+	 */
+	public void setDatagramBatchSize(int datagramBatchSize)
+	{
+		if (datagramBatchSize < 1)
+			throw new IllegalArgumentException("datagramBatchSize must be positive: " + datagramBatchSize);
+		m_datagramBatchSize = datagramBatchSize;
+	}
+
+	/**
+	 * Set the maximum number of writes a TCP channel will queue before rejecting further writes with
+	 * {@link WriteQueueFullException}. Applies to channels connected after the call.
+	 * 
+	 * @param maxPendingWrites
+	 */
+	public void setMaxPendingWrites(int maxPendingWrites)
+	{
+		if (maxPendingWrites < 1)
+			throw new IllegalArgumentException("maxPendingWrites must be positive: " + maxPendingWrites);
+		m_maxPendingWrites = maxPendingWrites;
+	}
+
+	/**
+	 * Set the maximum number of bytes a TCP channel will queue before rejecting further writes with
+	 * {@link WriteQueueFullException}. Applies to channels connected after the call.
+	 * 
+	 * @param maxPendingBytes
+	 */
+	public void setMaxPendingBytes(long maxPendingBytes)
+	{
+		if (maxPendingBytes < 1)
+			throw new IllegalArgumentException("maxPendingBytes must be positive: " + maxPendingBytes);
+		m_maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * Set the queued byte counts at which a TCP channel reports itself unwritable (above high) and writable again
+	 * (at or below low). Applies to channels connected after the call.
+	 * 
+	 * @param lowWaterMark
+	 * @param highWaterMark
+	 */
+	public void setWriteBufferWaterMarks(long lowWaterMark, long highWaterMark)
+	{
+		if (lowWaterMark < 0 || highWaterMark < lowWaterMark)
+			throw new IllegalArgumentException("Invalid water marks: " + lowWaterMark + "-" + highWaterMark);
+		m_lowWaterMark = lowWaterMark;
+		m_highWaterMark = highWaterMark;
+	}
+
 	Collection<SocketAddress> getLoopbackAddress()
 	{
 		return m_loopbackAddress.keySet();
@@ -103,14 +221,31 @@ public class SocketChannelManager implements Closeable
 	 * 
 	 * @throws IOException
 	 */
+	@Override
 	public void open() throws IOException
 	{
 		synchronized (this)
 		{
-			if (m_selector != null)
+			if (m_loops != null)
 				return;
-			m_selector = Selector.open();
-			m_future = m_executor.scheduleAtFixedRate(new SelectorThread(), 0, 1, TimeUnit.MICROSECONDS);
+			SelectorLoop[] loops = new SelectorLoop[m_selectorCount];
+			try
+			{
+				for (int i = 0; i < loops.length; i++)
+					loops[i] = new SelectorLoop(this);
+			}
+			catch (IOException e)
+			{
+				for (SelectorLoop loop : loops)
+					Utilities.safeClose(loop);
+				throw e;
+			}
+			for (SelectorLoop loop : loops)
+				loop.start(m_threadFactory);
+			m_loops = loops;
+			for (Registration<?> r : m_pending)
+				addPending(r);
+			m_pending.clear();
 
 			m_datagram = DatagramChannel.open();
 			configureChannel(m_datagram);
@@ -122,18 +257,11 @@ public class SocketChannelManager implements Closeable
 	{
 		synchronized (this)
 		{
-			if(m_selector == null)
+			if(m_loops == null)
 				return;
-			m_future.cancel(false);
-			m_future = null;
-			for (SelectionKey key : new ArrayList<SelectionKey>(m_selector.keys()))
-			{
-				Utilities.safeClose((SocketChannelInstance<?>) key.attachment());
-			}
-
-			wakeSelector();
-			Utilities.safeClose(m_selector);
-			m_selector = null;
+			for (SelectorLoop loop : m_loops)
+				Utilities.safeClose(loop);
+			m_loops = null;
 			Utilities.safeClose(m_datagram);
 			m_datagram = null;
 		}
@@ -158,6 +286,7 @@ public class SocketChannelManager implements Closeable
 	 * @return
 	 * @throws IOException
 	 */
+	@Override
 	public DatagramListenerChannelInstance listenMultigram(InetSocketAddress address,
 			Collection<NetworkInterface> interfaces,
 			ISocketChannelCallback callback) throws IOException
@@ -193,6 +322,7 @@ public class SocketChannelManager implements Closeable
 	 * @return
 	 * @throws IOException
 	 */
+	@Override
 	public DatagramListenerChannelInstance listenDatagram(InetSocketAddress address, ISocketChannelCallback callback)
 			throws IOException
 	{
@@ -215,7 +345,8 @@ public class SocketChannelManager implements Closeable
 			final ISocketChannelCallback callback)
 	{
 		final DatagramListenerChannelInstance instance = new DatagramListenerChannelInstance(callback, channel, m_loopbackAddress.keySet());
-		Callable<DatagramChannel> c = new Callable<DatagramChannel>()
+		instance.setMaxBatchSize(m_datagramBatchSize);
+		Registration<DatagramChannel> c = new Registration<DatagramChannel>()
 			{
 				@Override
 				public DatagramChannel call() throws Exception
@@ -223,7 +354,7 @@ public class SocketChannelManager implements Closeable
 					try
 					{
 						m_loopbackAddress.put(channel.getLocalAddress(), Boolean.TRUE);
-						instance.setKey(channel.register(m_selector, SelectionKey.OP_READ, instance));
+						m_loop.register(channel, SelectionKey.OP_READ, instance);
 					}
 					catch (Exception e)
 					{
@@ -234,19 +365,45 @@ public class SocketChannelManager implements Closeable
 					return channel;
 				}
 			};
-		if (!m_pending.add(c))
-			throw new IllegalStateException("Unable to enqueue pending listen operation");
-		wakeSelector();
+		addPending(c);
 		return instance;
 	}
 
-	private void wakeSelector()
+	/**
+	 * Hand r to the least loaded loop, or hold it until {@link #open()} if there are no loops yet.
+	 * 
+	 * @param r
+	 */
+	private void addPending(Registration<?> r)
 	{
 		synchronized (this)
 		{
-			if (m_selector != null)
-				m_selector.wakeup();
+			if (m_loops == null)
+			{
+				m_pending.add(r);
+				return;
+			}
+			r.m_loop = nextLoop(m_loops);
+		}
+		r.m_loop.addPending(r);
+	}
+
+	/**
+	 * Pick the loop with the fewest registered channels. Ties are broken round robin.
+	 * 
+	 * @return
+	 */
+	private SelectorLoop nextLoop(SelectorLoop[] loops)
+	{
+		int start = (m_nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+		SelectorLoop best = loops[start];
+		for (int i = 1; i < loops.length; i++)
+		{
+			SelectorLoop loop = loops[(start + i) % loops.length];
+			if (loop.getChannelCount() < best.getChannelCount())
+				best = loop;
 		}
+		return best;
 	}
 
 	private ProtocolFamily getProtocolFamily(InetAddress address)
@@ -265,6 +422,7 @@ public class SocketChannelManager implements Closeable
 	 * @param b
 	 * @throws IOException
 	 */
+	@Override
 	public void sendDatagram(InetSocketAddress address, byte[] b) throws IOException
 	{
 		LOGGER.trace("Sending to {}: {}", address, b);
@@ -276,16 +434,20 @@ public class SocketChannelManager implements Closeable
 					+ " of " + b.length);
 	}
 	
+	@Override
 	public WritableByteChannel connect(InetSocketAddress address, ITCPSocketChannelCallback callback)
 			throws IOException
 	{
 		return connect(address, 0, callback);
 	}
 
+	@Override
 	public WritableByteChannel connect(InetSocketAddress address, int timeout, ITCPSocketChannelCallback callback)
 			throws IOException
 	{
 		TCPSocketChannelInstance instance = new TCPSocketChannelInstance(address, callback);
+		instance.setWriteBatchSize(m_writeBatchSize);
+		instance.setWriteLimits(m_maxPendingWrites, m_maxPendingBytes, m_lowWaterMark, m_highWaterMark);
 		connect(instance, address, timeout);
 		return instance;
 	}
@@ -306,13 +468,13 @@ public class SocketChannelManager implements Closeable
 			throw e;
 		}
 		instance.setChannel(channel);
-		Callable<SocketChannel> c = new Callable<SocketChannel>() {
+		Registration<SocketChannel> c = new Registration<SocketChannel>() {
 			@Override
 			public SocketChannel call() throws Exception
 			{
 				try
 				{
-					instance.setKey(channel.register(m_selector, SelectionKey.OP_CONNECT, instance));
+					m_loop.register(channel, SelectionKey.OP_CONNECT, instance);
 				}
 				catch (Exception e)
 				{
@@ -323,10 +485,10 @@ public class SocketChannelManager implements Closeable
 				return channel;
 			}
 		};
-		m_pending.add(c);
+		addPending(c);
 		if (timeout > 0)
 		{
-			m_executor.schedule(new Runnable() {
+			m_timer.schedule(new Runnable() {
 				@Override
 				public void run()
 				{
@@ -335,130 +497,17 @@ public class SocketChannelManager implements Closeable
 				}
 			}, timeout, TimeUnit.MILLISECONDS);
 		}
-		wakeSelector();
 	}
-	
-	private void registerPending(Selector selector) throws Exception
-	{
-		for (Iterator<SelectionKey> iter = selector.keys().iterator(); iter.hasNext();)
-		{
-			SelectionKey key = iter.next();
-			SocketChannelInstance<?> instance = (SocketChannelInstance<?>) key.attachment();
-			if (!key.isValid())
-			{
-				Utilities.safeClose(instance); // just in case it wasn't already closed
-				continue;
-			}
 
-			int opsExisting = key.interestOps();
-			int ops = instance.getPendingOperations() | opsExisting;
-			if (ops != opsExisting)
-				key.interestOps(ops);
-		}
-
-		for (Iterator<Callable<? extends SelectableChannel>> iter = m_pending.iterator(); iter.hasNext();)
-		{
-			try
-			{
-				iter.next().call(); // TODO need channel?
-			}
-			catch (Exception e)
-			{
-				LOGGER.error("Unable to handle pending socket", e);
-			}
-			finally
-			{
-				iter.remove();
-			}
-		}
-	}
-
-	private class SelectorThread implements Runnable
+	/**
+	 * Registers a channel with the loop it was assigned when run on that loop's thread.
+	 * 
+	 * @author Sven Zethelius
+	 * 
+	 * @param <T>
+	 */
+	private abstract static class Registration<T extends SelectableChannel> implements Callable<T>
 	{
-		private final ByteBuffer m_readBuffer = ByteBuffer.allocate(1024);
-
-
-		@Override
-		public void run()
-		{
-			try
-			{
-				Selector selector = m_selector;
-				registerPending(selector);
-				int selected = selector.select();
-				if(selected > 0)
-					LOGGER.trace("{} channels ready.", selected);
-				for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext();)
-				{
-					SelectionKey key = iter.next();
-					iter.remove();
-					handleChannel(key);
-				}
-			}
-			catch (ClosedSelectorException e)
-			{
-				Utilities.safeClose(SocketChannelManager.this);
-			}
-			catch (Exception e)
-			{
-				LOGGER.error("Unhandled exception in selector thread", e);
-			}
-		}
-
-		private void handleChannel(SelectionKey key)
-		{
-			SocketChannelInstance<?> instance = (SocketChannelInstance<?>) key.attachment();
-			try
-			{
-				if (!key.isValid() || !key.channel().isOpen())
-				{
-					Utilities.safeClose(instance);
-				}
-				else if(key.isReadable())
-				{
-					instance.processRead(m_readBuffer);
-				}
-				else
-				{
-					instance.process();
-				}
-			}
-			catch (CancelledKeyException e)
-			{
-				LOGGER.trace("Closing channel {}", key.attachment(), e);
-				Utilities.safeClose(instance);
-			}
-			catch (ClosedChannelException e)
-			{
-				LOGGER.trace("Closing channel {}", key.attachment(), e);
-				Utilities.safeClose(instance);
-			}
-			catch (ConnectException e)
-			{
-				LOGGER.error("Unable to connect to " + key.attachment(), e);
-				Utilities.safeClose(instance);
-			}
-			catch (IOException e)
-			{
-				String op = "Unknown";
-				try
-				{
-					if (key.isConnectable())
-						op = "connect";
-					else if (key.isReadable())
-						op = "read";
-					else if (key.isWritable())
-						op = "write";
-				}
-				catch(Exception e2)
-				{
-					LOGGER.error("Secondary exception from key " + key.attachment(), e);
-				}
-				LOGGER.error("Error processing " + key.attachment() + " for op:" + op, e);
-				Utilities.safeClose(instance);
-			}
-		}
+		protected SelectorLoop m_loop;
 	}
-
-
 }
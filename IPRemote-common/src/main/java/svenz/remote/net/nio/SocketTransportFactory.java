@@ -0,0 +1,80 @@
+/**
+ *
+ * SocketTransportFactory.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SocketTransportFactory picks the {@link ISocketTransport} implementation. The system property
+ * {@value #TRANSPORT_PROPERTY} selects it: {@value #TRANSPORT_SELECTOR} (default) for {@link SocketChannelManager},
+ * {@value #TRANSPORT_ASYNC} for {@link AsynchronousChannelManager} or {@value #TRANSPORT_BLOCKING} for
+ * {@link BlockingSocketTransport}. The latter two fall back to the selector transport where JDK 7 channels aren't
+ * available.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class SocketTransportFactory
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(SocketTransportFactory.class);
+	public static final String TRANSPORT_PROPERTY = "svenz.remote.transport";
+	public static final String TRANSPORT_SELECTOR = "selector";
+	public static final String TRANSPORT_ASYNC = "nio2";
+	public static final String TRANSPORT_BLOCKING = "blocking";
+
+	private SocketTransportFactory()
+	{
+	}
+
+	/**
+	 * @return transport configured by the {@value #TRANSPORT_PROPERTY} system property
+	 */
+	public static ISocketTransport create()
+	{
+		return create(System.getProperty(TRANSPORT_PROPERTY, TRANSPORT_SELECTOR));
+	}
+
+	/**
+	 * @param transport
+	 *            {@value #TRANSPORT_SELECTOR}, {@value #TRANSPORT_ASYNC} or {@value #TRANSPORT_BLOCKING}
+	 * @return
+	 */
+	public static ISocketTransport create(String transport)
+	{
+		if (TRANSPORT_ASYNC.equalsIgnoreCase(transport))
+		{
+			if (isJDK7Available())
+				return new AsynchronousChannelManager();
+			LOGGER.warn("Asynchronous channels not available, using selector transport");
+		}
+		else if (TRANSPORT_BLOCKING.equalsIgnoreCase(transport))
+		{
+			if (isJDK7Available())
+				return new BlockingSocketTransport();
+			LOGGER.warn("JDK 7 channels not available, using selector transport");
+		}
+		else if (!TRANSPORT_SELECTOR.equalsIgnoreCase(transport))
+		{
+			LOGGER.warn("Unknown transport {}, using selector transport", transport);
+		}
+		return new SocketChannelManager();
+	}
+
+	private static boolean isJDK7Available()
+	{
+		try
+		{
+			Class.forName("java.nio.channels.AsynchronousChannelGroup");
+			return true;
+		}
+		catch (ClassNotFoundException e)
+		{
+			return false;
+		}
+	}
+}
@@ -10,11 +10,11 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +26,7 @@ import svenz.remote.common.utilities.Utilities;
  * @author Sven Zethelius
  * 
  */
-public class TCPSocketChannelInstance extends SocketChannelInstance<SocketChannel> implements WritableByteChannel
+public class TCPSocketChannelInstance extends SocketChannelInstance<SocketChannel> implements ITCPChannel
 {
 	private static final Logger LOGGER = LoggerFactory.getLogger(TCPSocketChannelInstance.class);
 	private static final ITCPSocketChannelCallback DEFAULT_CALLBACK = 
@@ -34,6 +34,7 @@ public class TCPSocketChannelInstance extends SocketChannelInstance<SocketChanne
 	private final InetSocketAddress m_remoteAddress;
 	private final ITCPSocketChannelCallback m_callback;
 	private final AtomicReference<State> m_state = new AtomicReference<State>(State.NotConnected);
+	private ByteBuffer[] m_writeBatch = new ByteBuffer[SocketChannelManager.DEFAULT_WRITE_BATCH_SIZE];
 
 	private static enum State
 	{
@@ -47,6 +48,47 @@ public class TCPSocketChannelInstance extends SocketChannelInstance<SocketChanne
 		m_callback = callback;
 	}
 
+	/**
+	 * Set the maximum number of queued buffers handed to a single gathering write.
+	 * 
+	 * @param writeBatchSize
+	 */
+	void setWriteBatchSize(int writeBatchSize)
+	{
+		m_writeBatch = new ByteBuffer[writeBatchSize];
+	}
+
+	/**
+	 * Set the limits on queued writes. Writes past maxPendingWrites or maxPendingBytes are rejected, while crossing the
+	 * water marks only notifies the callback through
+	 * {@link ITCPSocketChannelCallback#writabilityChanged(ITCPChannel, boolean)}.
+	 * 
+	 * @param maxPendingWrites
+	 * @param maxPendingBytes
+	 * @param lowWaterMark
+	 * @param highWaterMark
+	 */
+	void setWriteLimits(int maxPendingWrites, long maxPendingBytes, long lowWaterMark, long highWaterMark)
+	{
+		m_pendingWrites.setLimits(maxPendingWrites, maxPendingBytes, lowWaterMark, highWaterMark);
+	}
+
+	/**
+	 * @return false while the bytes queued are above the high water mark and haven't yet drained to the low water
+	 *         mark
+	 */
+	@Override
+	public boolean isWritable()
+	{
+		return m_pendingWrites.isWritable();
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress()
+	{
+		return m_remoteAddress;
+	}
+
 	@Override
 	void setKey(SelectionKey key)
 	{
@@ -107,33 +149,56 @@ public class TCPSocketChannelInstance extends SocketChannelInstance<SocketChanne
 		}
 	}
 
+	/**
+	 * Drain the pending writes, gathering up to a batch of queued buffers into each write call. Stops when the socket
+	 * will not accept more.
+	 * 
+	 * @throws IOException
+	 */
 	void processWrite() throws IOException
 	{
 		SocketChannel channel = getChannel();
 		if (channel == null || !channel.isConnected())
 			return;
-		for (Iterator<ByteBuffer> iter = m_pendingWrites.iterator(); iter.hasNext();)
+		ByteBuffer[] batch = m_writeBatch;
+		boolean writable = false;
+		while (!m_pendingWrites.isEmpty())
 		{
-			ByteBuffer b = iter.next();
+			int count = m_pendingWrites.peek(batch);
+			long remaining = 0;
+			for (int i = 0; i < count; i++)
+				remaining += batch[i].remaining();
 			if (LOGGER.isTraceEnabled())
-				LOGGER.trace("Writing {} bytes to {}", b.remaining(), m_remoteAddress);
-			channel.write(b);
-			if (b.remaining() > 0)
-				break;
-			iter.remove();
+				LOGGER.trace("Writing {} bytes in {} buffers to {}", new Object[] { remaining, count, m_remoteAddress });
+			long written = channel.write(batch, 0, count);
+			Arrays.fill(batch, 0, count, null);
+
+			writable |= m_pendingWrites.removeWritten();
+			if (written < remaining)
+				break; // socket buffer full, wait for the next OP_WRITE
 		}
+		if (writable)
+			m_callback.writabilityChanged(this, true);
 	}
 
-	public void write(byte[] b, int off, int len)
+	private void enqueue(PendingWrite w) throws WriteQueueFullException
 	{
-		m_pendingWrites.add(ByteBuffer.wrap(b, off, len));
-		SelectionKey key = getKey();
-		if (key != null)
-			key.selector().wakeup();
+		if (m_pendingWrites.add(w, m_remoteAddress))
+			m_callback.writabilityChanged(this, false);
 	}
 
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		enqueue(new PendingWrite(ByteBuffer.wrap(b, off, len), null));
+		interestChanged();
+	}
+
+	/**
+	 * Copies the remaining bytes of src, as src remains owned by the caller. Use
+	 * {@link #write(ByteBuffer, IBufferReleaser)} to avoid the copy.
+	 */
 	@Override
-	public int write(ByteBuffer src)
+	public int write(ByteBuffer src) throws IOException
 	{
 		byte[] b = new byte[src.remaining()];
 		src.get(b);
@@ -141,6 +206,22 @@ public class TCPSocketChannelInstance extends SocketChannelInstance<SocketChanne
 		return b.length;
 	}
 
+	@Override
+	public void write(ByteBuffer b, IBufferReleaser releaser) throws IOException
+	{
+		PendingWrite w = new PendingWrite(b, releaser);
+		if (!isOpen())
+		{
+			w.release();
+			throw new ClosedChannelException();
+		}
+		enqueue(w);
+		if (!isOpen())
+			releasePendingWrites(); // lost a race with close
+		else
+			interestChanged();
+	}
+
 	@Override
 	public void close()
 	{
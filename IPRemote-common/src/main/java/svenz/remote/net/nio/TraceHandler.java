@@ -0,0 +1,67 @@
+/**
+ *
+ * TraceHandler.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.slf4j.Logger;
+
+/**
+ * Pipeline stage logging the messages passing through it at trace level, without changing them. Insert it between
+ * other stages to see what each one produces.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class TraceHandler extends ChannelHandlerAdapter
+{
+	private final Logger m_logger;
+
+	public TraceHandler(Logger logger)
+	{
+		m_logger = logger;
+	}
+
+	@Override
+	public void channelOpen(IChannelHandlerContext ctx) throws IOException
+	{
+		m_logger.trace("{} open", ctx.getName());
+		super.channelOpen(ctx);
+	}
+
+	@Override
+	public void channelClosed(IChannelHandlerContext ctx) throws IOException
+	{
+		m_logger.trace("{} closed", ctx.getName());
+		super.channelClosed(ctx);
+	}
+
+	@Override
+	public void channelRead(IChannelHandlerContext ctx, Object msg) throws IOException
+	{
+		if (m_logger.isTraceEnabled())
+			m_logger.trace("{} read: {}", ctx.getName(), describe(msg));
+		super.channelRead(ctx, msg);
+	}
+
+	@Override
+	public void write(IChannelHandlerContext ctx, Object msg, IBufferReleaser releaser) throws IOException
+	{
+		if (m_logger.isTraceEnabled())
+			m_logger.trace("{} write: {}", ctx.getName(), describe(msg));
+		super.write(ctx, msg, releaser);
+	}
+
+	private static String describe(Object msg)
+	{
+		if (msg instanceof ByteBuffer)
+			msg = new String(ByteBuffers.toArray((ByteBuffer) msg));
+		else if (msg instanceof byte[])
+			msg = new String((byte[]) msg);
+		return String.valueOf(msg).replace("\r", "\\r").replace("\n", "\\n");
+	}
+}
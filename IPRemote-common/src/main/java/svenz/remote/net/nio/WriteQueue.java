@@ -0,0 +1,159 @@
+/**
+ *
+ * WriteQueue.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WriteQueue holds the writes pending on a connection, enforcing the count and byte limits and tracking the
+ * writability water marks. Any thread may add, a single thread drains.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+class WriteQueue
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(WriteQueue.class);
+	private final Queue<PendingWrite> m_queue;
+	private final AtomicInteger m_pendingCount = new AtomicInteger(0);
+	private final AtomicLong m_pendingBytes = new AtomicLong(0);
+	private final AtomicBoolean m_writable = new AtomicBoolean(true);
+	private int m_maxPendingWrites = SocketChannelManager.DEFAULT_MAX_PENDING_WRITES;
+	private long m_maxPendingBytes = SocketChannelManager.DEFAULT_MAX_PENDING_BYTES;
+	private long m_lowWaterMark = SocketChannelManager.DEFAULT_LOW_WATER_MARK;
+	private long m_highWaterMark = SocketChannelManager.DEFAULT_HIGH_WATER_MARK;
+
+	WriteQueue()
+	{
+		this(new ConcurrentLinkedQueue<PendingWrite>());
+	}
+
+	/**
+	 * @param queue
+	 *            thread safe queue to hold the writes
+	 */
+	WriteQueue(Queue<PendingWrite> queue)
+	{
+		m_queue = queue;
+	}
+
+	void setLimits(int maxPendingWrites, long maxPendingBytes, long lowWaterMark, long highWaterMark)
+	{
+		m_maxPendingWrites = maxPendingWrites;
+		m_maxPendingBytes = maxPendingBytes;
+		m_lowWaterMark = lowWaterMark;
+		m_highWaterMark = highWaterMark;
+	}
+
+	/**
+	 * Queue w, releasing it if it is rejected.
+	 * 
+	 * @param w
+	 * @param target
+	 *            for error messages
+	 * @return true if this write took the queue above the high water mark
+	 * @throws WriteQueueFullException
+	 */
+	boolean add(PendingWrite w, Object target) throws WriteQueueFullException
+	{
+		int size = w.size();
+		if (m_pendingCount.incrementAndGet() > m_maxPendingWrites)
+		{
+			m_pendingCount.decrementAndGet();
+			w.release();
+			throw new WriteQueueFullException("Too many writes pending to " + target);
+		}
+		long bytes = m_pendingBytes.addAndGet(size);
+		if (bytes > m_maxPendingBytes && bytes != size) // always allow a single write, however large
+		{
+			m_pendingBytes.addAndGet(-size);
+			m_pendingCount.decrementAndGet();
+			w.release();
+			throw new WriteQueueFullException("Too many bytes pending to " + target);
+		}
+		// clear writable before w is visible to the drain, so the drain of w is always after it and sets it back
+		boolean unwritable = bytes > m_highWaterMark && m_writable.compareAndSet(true, false);
+		m_queue.add(w);
+		if (unwritable)
+			LOGGER.debug("{} bytes pending to {}, no longer writable", bytes, target);
+		return unwritable;
+	}
+
+	boolean isEmpty()
+	{
+		return m_queue.isEmpty();
+	}
+
+	boolean isWritable()
+	{
+		return m_writable.get();
+	}
+
+	/**
+	 * Fill batch with the buffers at the head of the queue.
+	 * 
+	 * @param batch
+	 * @return number of buffers filled in
+	 */
+	int peek(ByteBuffer[] batch)
+	{
+		int count = 0;
+		for (PendingWrite w : m_queue)
+		{
+			if (count == batch.length)
+				break;
+			batch[count++] = w.getBuffer();
+		}
+		return count;
+	}
+
+	/**
+	 * Remove and release the fully written buffers from the head of the queue.
+	 * 
+	 * @return true if the queue drained to the low water mark and is writable again
+	 */
+	boolean removeWritten()
+	{
+		PendingWrite w;
+		while (null != (w = m_queue.peek()) && !w.getBuffer().hasRemaining())
+		{
+			m_queue.poll();
+			m_pendingCount.decrementAndGet();
+			m_pendingBytes.addAndGet(-w.size());
+			w.release();
+		}
+		return m_pendingBytes.get() <= m_lowWaterMark && m_writable.compareAndSet(false, true);
+	}
+
+	/**
+	 * Discard all queued writes, handing the buffers back to their owners.
+	 */
+	void releaseAll()
+	{
+		PendingWrite w;
+		while (null != (w = m_queue.poll()))
+		{
+			try
+			{
+				w.release();
+			}
+			catch (RuntimeException e)
+			{
+				LOGGER.error("Unable to release buffer", e);
+			}
+		}
+		m_pendingCount.set(0);
+		m_pendingBytes.set(0);
+	}
+}
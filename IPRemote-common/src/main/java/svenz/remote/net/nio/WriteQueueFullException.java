@@ -0,0 +1,26 @@
+/**
+ *
+ * WriteQueueFullException.java
+ *
+ * Copyright 2013 Sven Zethelius. All rights reserved.
+ */
+package svenz.remote.net.nio;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a write is rejected because the channel already has too much queued that the remote side hasn't
+ * taken yet.
+ * 
+ * @author Sven Zethelius
+ * 
+ */
+public class WriteQueueFullException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	public WriteQueueFullException(String message)
+	{
+		super(message);
+	}
+}
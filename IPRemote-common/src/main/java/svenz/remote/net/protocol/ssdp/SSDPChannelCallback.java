@@ -5,8 +5,10 @@ package svenz.remote.net.protocol.ssdp;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import svenz.remote.net.nio.IBufferSocketChannelCallback;
+import svenz.remote.net.nio.ITCPChannel;
 import svenz.remote.net.nio.ITCPSocketChannelCallback;
-import svenz.remote.net.nio.TCPSocketChannelInstance;
 
 /**
  * 
@@ -14,7 +16,7 @@ import svenz.remote.net.nio.TCPSocketChannelInstance;
  * @author Sven Zethelius
  * 
  */
-public class SSDPChannelCallback implements ITCPSocketChannelCallback
+public class SSDPChannelCallback implements ITCPSocketChannelCallback, IBufferSocketChannelCallback
 {
 	private final SSDPManager m_manager;
 	private final String m_udn;
@@ -32,6 +34,12 @@ public class SSDPChannelCallback implements ITCPSocketChannelCallback
 		// do nothing
 	}
 
+	@Override
+	public void handleRead(ByteBuffer b, InetSocketAddress address) throws IOException
+	{
+		// do nothing
+	}
+
 	@Override
 	public void close()
 	{
@@ -39,21 +47,27 @@ public class SSDPChannelCallback implements ITCPSocketChannelCallback
 	}
 
 	@Override
-	public void connectionOpen(TCPSocketChannelInstance instance)
+	public void connectionOpen(ITCPChannel instance)
 	{
 		// do nothing
 	}
 
 	@Override
-	public void connectionClose(TCPSocketChannelInstance instance)
+	public void connectionClose(ITCPChannel instance)
 	{
 		close();
 	}
 
 	@Override
-	public void connectionFailed(TCPSocketChannelInstance instance)
+	public void connectionFailed(ITCPChannel instance)
 	{
 		close();
 	}
 
+	@Override
+	public void writabilityChanged(ITCPChannel instance, boolean writable)
+	{
+		// do nothing
+	}
+
 }
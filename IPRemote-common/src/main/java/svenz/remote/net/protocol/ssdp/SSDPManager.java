@@ -21,6 +21,7 @@ import java.net.SocketException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -42,14 +43,17 @@ import org.simpleframework.xml.core.Persister;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.common.thread.ITimeout;
 import svenz.remote.common.utilities.LoggingRunnable;
 import svenz.remote.common.utilities.Utilities;
 import svenz.remote.net.nio.AsyncSocketChannelCallback;
-import svenz.remote.net.nio.DatagramListenerChannelInstance;
+import svenz.remote.net.nio.IBufferSocketChannelCallback;
+import svenz.remote.net.nio.IDatagramChannel;
 import svenz.remote.net.nio.ISocketChannelCallback;
+import svenz.remote.net.nio.ISocketTransport;
+import svenz.remote.net.nio.ITCPChannel;
 import svenz.remote.net.nio.ITCPSocketChannelCallback;
-import svenz.remote.net.nio.SocketChannelManager;
-import svenz.remote.net.nio.TCPSocketChannelInstance;
 import svenz.remote.net.protocol.ssdp.SSDPManager.SSDPPacket.NotifyTypeState;
 import svenz.remote.net.protocol.ssdp.SSDPManager.SSDPPacket.PacketType;
 import svenz.remote.net.protocol.ssdp.jaxb.Device;
@@ -65,6 +69,7 @@ public class SSDPManager implements Closeable
 {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SSDPManager.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	/**
 	 * Default destination port for SSDP multicast messages
 	 */
@@ -86,8 +91,9 @@ public class SSDPManager implements Closeable
 	public static final String IPV6_SITE_LOCAL_ADDRESS = "FF05::C";
 	public static final String IPV6_GLOBAL_ADDRESS = "FF0E::C";
 
-	private SocketChannelManager m_channelManager;
+	private ISocketTransport m_channelManager;
 	private ScheduledExecutorService m_executor;
+	private HashedTimingWheel m_timer = HashedTimingWheel.getDefault();
 	private final Collection<Network> m_networks = new ConcurrentLinkedQueue<Network>();
 	private final Collection<IPacketListener> m_packetListeners = new ConcurrentLinkedQueue<IPacketListener>();
 	private final Collection<IDeviceListener<?>> m_deviceListeners = new ConcurrentLinkedQueue<IDeviceListener<?>>();
@@ -111,14 +117,14 @@ public class SSDPManager implements Closeable
 	 *            independently before calling {@link #open()}
 	 * @param executor
 	 */
-	public SSDPManager(SocketChannelManager manager, ScheduledExecutorService executor)
+	public SSDPManager(ISocketTransport manager, ScheduledExecutorService executor)
 	{
 		this();
 		m_channelManager = manager;
 		m_executor = executor;
 	}
 
-	public void setChannelManager(SocketChannelManager channelManager)
+	public void setChannelManager(ISocketTransport channelManager)
 	{
 		m_channelManager = channelManager;
 	}
@@ -128,6 +134,16 @@ public class SSDPManager implements Closeable
 		m_executor = executor;
 	}
 
+	/**
+	 * Set the timing wheel device expiry is tracked on. Defaults to {@link HashedTimingWheel#getDefault()}.
+	 * 
+	 * @param timer
+	 */
+	public void setTimer(HashedTimingWheel timer)
+	{
+		m_timer = timer;
+	}
+
 	public void setSearchFrequency(long frequency, TimeUnit unit)
 	{
 		m_searchFrequencyMS = TimeUnit.MILLISECONDS.convert(frequency, unit);
@@ -402,7 +418,7 @@ public class SSDPManager implements Closeable
 			tracker = m_devices.remove(udn);
 		}
 		if (tracker != null)
-			tracker.run();
+			tracker.expire();
 	}
 
 	// TODO Listen for Search Request
@@ -413,9 +429,9 @@ public class SSDPManager implements Closeable
 	{
 		private final InetSocketAddress m_address;
 		private final Collection<NetworkInterface> m_interfaces = new ArrayList<NetworkInterface>();
-		private DatagramListenerChannelInstance m_multigramInstance;
-		private final Collection<DatagramListenerChannelInstance> m_listeners = 
-				new ConcurrentLinkedQueue<DatagramListenerChannelInstance>();
+		private IDatagramChannel m_multigramInstance;
+		private final Collection<IDatagramChannel> m_listeners = 
+				new ConcurrentLinkedQueue<IDatagramChannel>();
 
 		public Network(InetSocketAddress address) throws SocketException
 		{
@@ -449,7 +465,7 @@ public class SSDPManager implements Closeable
 		 * @param callback
 		 * @throws IOException
 		 */
-		public void listen(SocketChannelManager channelManager, ISocketChannelCallback callback) throws IOException
+		public void listen(ISocketTransport channelManager, ISocketChannelCallback callback) throws IOException
 		{
 			m_multigramInstance =
 					channelManager.listenMultigram(m_address, m_interfaces, callback);
@@ -463,7 +479,7 @@ public class SSDPManager implements Closeable
 					InetAddress address = e.nextElement();
 					if (!isIPvX(address, addressClazz))
 						continue;
-					DatagramListenerChannelInstance datagram =
+					IDatagramChannel datagram =
 							channelManager.listenDatagram(new InetSocketAddress(address, UDP_PORT), callback);
 					m_listeners.add(datagram);
 					LOGGER.debug("Datagram listening on {}", datagram);
@@ -473,9 +489,9 @@ public class SSDPManager implements Closeable
 
 		public void send(byte[] b)
 		{
-			for (Iterator<DatagramListenerChannelInstance> iter = m_listeners.iterator(); iter.hasNext(); )
+			for (Iterator<IDatagramChannel> iter = m_listeners.iterator(); iter.hasNext(); )
 			{
-				DatagramListenerChannelInstance instance = iter.next();
+				IDatagramChannel instance = iter.next();
 				try
 				{
 					instance.send(ByteBuffer.wrap(b), m_address);
@@ -517,7 +533,7 @@ public class SSDPManager implements Closeable
 		public void close() throws IOException
 		{
 			Utilities.safeClose(m_multigramInstance);
-			for (Iterator<DatagramListenerChannelInstance> iter = m_listeners.iterator(); iter.hasNext();)
+			for (Iterator<IDatagramChannel> iter = m_listeners.iterator(); iter.hasNext();)
 			{
 				Utilities.safeClose(iter.next());
 				iter.remove();
@@ -679,7 +695,7 @@ public class SSDPManager implements Closeable
 	}
 
 
-	private class MulticastReadCallback implements ITCPSocketChannelCallback
+	private class MulticastReadCallback implements ITCPSocketChannelCallback, IBufferSocketChannelCallback
 	{
 
 		@Override
@@ -692,7 +708,17 @@ public class SSDPManager implements Closeable
 		@Override
 		public void handleRead(byte[] b, InetSocketAddress address) throws IOException
 		{
-			String msg = new String(b, "UTF-8");
+			handleRead(new String(b, "UTF-8"), address);
+		}
+
+		@Override
+		public void handleRead(ByteBuffer b, InetSocketAddress address) throws IOException
+		{
+			handleRead(UTF8.decode(b).toString(), address);
+		}
+
+		private void handleRead(String msg, InetSocketAddress address) throws IOException
+		{
 			LOGGER.trace("Received from {}:\r\n{}", address, msg);
 			SSDPPacket packet = SSDPPacket.parse(msg);
 
@@ -707,33 +733,58 @@ public class SSDPManager implements Closeable
 		}
 
 		@Override
-		public void connectionOpen(TCPSocketChannelInstance instance)
+		public void connectionOpen(ITCPChannel instance)
 		{
 			throw new UnsupportedOperationException("connectionOpen");
 		}
 
 		@Override
-		public void connectionClose(TCPSocketChannelInstance instance)
+		public void connectionClose(ITCPChannel instance)
 		{
 			throw new UnsupportedOperationException("connectionClose");
 		}
 
 		@Override
-		public void connectionFailed(TCPSocketChannelInstance instance)
+		public void connectionFailed(ITCPChannel instance)
 		{
 			throw new UnsupportedOperationException("connectionFailed");
 		}
+
+		@Override
+		public void writabilityChanged(ITCPChannel instance, boolean writable)
+		{
+			throw new UnsupportedOperationException("writabilityChanged");
+		}
 	}
 
-	private class DeviceTracker implements Runnable, Closeable
+	private class DeviceTracker implements Closeable
 	{
-		private Future<?> m_future;
+		private ITimeout m_timeout;
+		// which schedule a timer firing belongs to, firings already handed to the executor may be stale
+		private int m_generation;
+		private long m_scheduled;
+		private long m_expires;
 		private final Map<IDeviceListener<?>, Object> m_handles =
 				new ConcurrentHashMap<SSDPManager.IDeviceListener<?>, Object>();
 
+		/**
+		 * Timer fired. Refreshes only move the expiry later without rescheduling, so wait out whatever remains.
+		 * 
+		 * @param generation
+		 */
+		private synchronized void fired(int generation)
+		{
+			if (m_timeout == null || generation != m_generation)
+				return; // closed or rescheduled
+			long remaining = m_expires - System.nanoTime();
+			if (remaining > 0)
+				schedule(remaining);
+			else
+				expire();
+		}
+
 		@SuppressWarnings("rawtypes")
-		@Override
-		public synchronized void run()
+		public synchronized void expire()
 		{
 			close();
 			for (Map.Entry<IDeviceListener<?>, Object> entry : m_handles.entrySet())
@@ -758,16 +809,34 @@ public class SSDPManager implements Closeable
 
 		public synchronized void refresh(long ageSeconds)
 		{
-			if (m_future != null)
-				m_future.cancel(false);
-			m_future = m_executor.schedule(this, ageSeconds, TimeUnit.SECONDS);
+			long ageNanos = TimeUnit.SECONDS.toNanos(ageSeconds);
+			m_expires = System.nanoTime() + ageNanos;
+			if (m_timeout != null && m_expires - m_scheduled < 0)
+				close(); // expiry moved earlier than the timer
+			if (m_timeout == null)
+				schedule(ageNanos);
+		}
+
+		private void schedule(long delayNanos)
+		{
+			m_scheduled = System.nanoTime() + delayNanos;
+			final int generation = ++m_generation;
+			// expiring closes connections through every device listener, so runs on the executor
+			m_timeout = m_timer.schedule(new LoggingRunnable(new Runnable() {
+				@Override
+				public void run()
+				{
+					fired(generation);
+				}
+			}), delayNanos, TimeUnit.NANOSECONDS, m_executor);
 		}
 
 		@Override
 		public synchronized void close()
 		{
-			if (m_future != null)
-				m_future.cancel(false);
+			if (m_timeout != null)
+				m_timeout.cancel();
+			m_timeout = null;
 		}
 	}
 
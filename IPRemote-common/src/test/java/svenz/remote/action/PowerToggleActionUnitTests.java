@@ -0,0 +1,54 @@
+/**
+ * 
+ */
+package svenz.remote.action;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.util.Arrays;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+import svenz.remote.device.IPowered;
+import svenz.remote.device.IPowered.IAcknowledgedPowered;
+import svenz.remote.device.ipremote.CommandFuture;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class PowerToggleActionUnitTests
+{
+	private final IMocksControl m_control = EasyMock.createControl();
+	private final IAcknowledgedPowered m_acknowledged = m_control.createMock("Acknowledged", IAcknowledgedPowered.class);
+	private final IPowered m_powered = m_control.createMock("Powered", IPowered.class);
+	private final PowerToggleAction m_action = new PowerToggleAction();
+
+	@Test
+	public void testToggleOn() throws Exception
+	{
+		EasyMock.expect(m_acknowledged.isPowered()).andReturn(false);
+		EasyMock.expect(m_powered.isPowered()).andReturn(false);
+		EasyMock.expect(m_acknowledged.submitPowerOn()).andReturn(CommandFuture.completed("PWR0"));
+		m_powered.powerOn();
+		m_control.replay();
+		m_action.addPowered(Arrays.asList(m_acknowledged, m_powered));
+		assertTrue(m_action.toggle().isSucceeded());
+		m_control.verify();
+	}
+
+	@Test
+	public void testToggleOffFails() throws Exception
+	{
+		IOException failure = new IOException("Test");
+		EasyMock.expect(m_acknowledged.isPowered()).andReturn(true);
+		EasyMock.expect(m_powered.isPowered()).andReturn(true);
+		EasyMock.expect(m_acknowledged.submitPowerOff()).andReturn(CommandFuture.failed(failure));
+		m_powered.powerOff();
+		m_control.replay();
+		m_action.addPowered(Arrays.asList(m_acknowledged, m_powered));
+		assertSame(failure, m_action.toggle().getFailure());
+		m_control.verify();
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package svenz.remote.action;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+import svenz.remote.device.ISelectable;
+import svenz.remote.device.ISelectable.IAcknowledgedSelectable;
+import svenz.remote.device.ipremote.CommandFuture;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class SetSelectionActionUnitTests
+{
+	private final IMocksControl m_control = EasyMock.createControl();
+	private final SetSelectionAction m_action = new SetSelectionAction();
+
+	@Test
+	public void testSelectAcknowledged() throws Exception
+	{
+		IAcknowledgedSelectable selectable = m_control.createMock("Selectable", IAcknowledgedSelectable.class);
+		CommandFuture submitted = CommandFuture.completed("R");
+		EasyMock.expect(selectable.submitSelection("in1")).andReturn(submitted);
+
+		m_control.replay();
+		m_action.setSelectable(selectable);
+		m_action.setSelection("in1");
+		assertSame(submitted, m_action.select());
+		m_control.verify();
+	}
+
+	@Test
+	public void testSelect() throws Exception
+	{
+		ISelectable selectable = m_control.createMock("Selectable", ISelectable.class);
+		selectable.setSelection("in1");
+
+		m_control.replay();
+		m_action.setSelectable(selectable);
+		m_action.setSelection("in1");
+		assertTrue(m_action.select().isSucceeded());
+		m_control.verify();
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * 
+ */
+package svenz.remote.common.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ * 
+ */
+public class HashedTimingWheelUnitTests
+{
+	private final HashedTimingWheel m_wheel =
+			new HashedTimingWheel(new DaemonThreadFactory(new BasicThreadFactory()), 5, TimeUnit.MILLISECONDS, 4);
+
+	@After
+	public void teardown()
+	{
+		m_wheel.close();
+	}
+
+	@Test
+	public void testSchedule() throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		ITimeout timeout = m_wheel.schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				latch.countDown();
+			}
+		}, 30, TimeUnit.MILLISECONDS);
+
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+	}
+
+	@Test
+	public void testScheduleOnExecutor() throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Thread[] ran = new Thread[1];
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			Thread executorThread = executor.submit(new Callable<Thread>() {
+				@Override
+				public Thread call()
+				{
+					return Thread.currentThread();
+				}
+			}).get();
+			m_wheel.schedule(new Runnable() {
+				@Override
+				public void run()
+				{
+					ran[0] = Thread.currentThread();
+					latch.countDown();
+				}
+			}, 10, TimeUnit.MILLISECONDS, executor);
+
+			assertTrue(latch.await(1, TimeUnit.SECONDS));
+			assertSame(executorThread, ran[0]);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testOrderAcrossRounds() throws Exception
+	{
+		// 4 slots of 5ms, so these wrap the wheel several times
+		final CountDownLatch latch = new CountDownLatch(3);
+		final StringBuffer order = new StringBuffer();
+		long[] delays = { 60, 10, 35 };
+		for (int i = 0; i < delays.length; i++)
+		{
+			final int index = i;
+			m_wheel.schedule(new Runnable() {
+				@Override
+				public void run()
+				{
+					order.append(index);
+					latch.countDown();
+				}
+			}, delays[i], TimeUnit.MILLISECONDS);
+		}
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertEquals("120", order.toString());
+	}
+
+	@Test
+	public void testCancel() throws Exception
+	{
+		final AtomicInteger count = new AtomicInteger(0);
+		Runnable r = new Runnable() {
+			@Override
+			public void run()
+			{
+				count.incrementAndGet();
+			}
+		};
+		ITimeout cancelled = m_wheel.schedule(r, 10, TimeUnit.MILLISECONDS);
+		final CountDownLatch latch = new CountDownLatch(1);
+		m_wheel.schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				latch.countDown();
+			}
+		}, 40, TimeUnit.MILLISECONDS);
+
+		assertTrue(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertEquals(0, count.get());
+		assertFalse(cancelled.isExpired());
+	}
+
+	@Test
+	public void testTaskException() throws Exception
+	{
+		final CountDownLatch latch = new CountDownLatch(1);
+		m_wheel.schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				throw new IllegalStateException("Test Exception");
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+		m_wheel.schedule(new Runnable() {
+			@Override
+			public void run()
+			{
+				latch.countDown();
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testClose() throws Exception
+	{
+		m_wheel.close();
+		try
+		{
+			m_wheel.schedule(new Runnable() {
+				@Override
+				public void run()
+				{
+				}
+			}, 0, TimeUnit.MILLISECONDS);
+			fail("IllegalStateException expected");
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * 
+ */
+package svenz.remote.common.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class PrefixTrieUnitTests
+{
+	private final PrefixTrie<String> m_trie = new PrefixTrie<String>();
+
+	@Test
+	public void testGet() throws Exception
+	{
+		m_trie.put("ZV", "zone2.volume");
+		m_trie.put("Z2MUT", "zone2.mute");
+		m_trie.put("Z2F", "zone2.input");
+		m_trie.put("VOL", "zone1.volume");
+
+		assertEquals(4, m_trie.size());
+		assertEquals("zone2.volume", m_trie.get("ZV042"));
+		assertEquals("zone2.mute", m_trie.get("Z2MUT0"));
+		assertEquals("zone2.input", m_trie.get("Z2F25"));
+		assertEquals("zone1.volume", m_trie.get("VOL"));
+		assertNull(m_trie.get("Z2M"));
+		assertNull(m_trie.get("VO"));
+		assertNull(m_trie.get(""));
+		assertNull(m_trie.get("E02"));
+	}
+
+	@Test
+	public void testLongestPrefix() throws Exception
+	{
+		m_trie.put("F", "short");
+		m_trie.put("FL", "long");
+
+		assertEquals("long", m_trie.get("FL0020"));
+		assertEquals("short", m_trie.get("FN25"));
+		assertEquals("short", m_trie.put("F", "replaced"));
+		assertEquals(2, m_trie.size());
+		assertEquals("replaced", m_trie.get("F"));
+	}
+}
@@ -263,6 +263,7 @@ public class DeviceGroupRegistryUnitTests
 		Device d = m_control.createMock("Device", Device.class);
 		EasyMock.expect(d.getName()).andReturn(name).anyTimes();
 		EasyMock.expect(d.getImplInstance()).andReturn(m).anyTimes();
+		EasyMock.expect(d.getCommandsPerSecond()).andReturn(0.0).anyTimes();
 		return d;
 	}
 
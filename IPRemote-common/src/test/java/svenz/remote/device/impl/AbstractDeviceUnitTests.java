@@ -112,10 +112,13 @@ public abstract class AbstractDeviceUnitTests<T extends AbstractDevice>
 		read(Arrays.asList(s));
 	}
 
+	/**
+	 * Simulate the device sending each of reads as a terminated response line
+	 */
 	protected void read(Collection<String> reads) throws IOException
 	{
 		for (String s : reads)
-			m_callback.getValue().handleRead(s.getBytes(), m_address);
+			m_callback.getValue().handleRead((s + "\r\n").getBytes(), m_address);
 	}
 
 	@Test
@@ -7,8 +7,12 @@ import static org.junit.Assert.assertEquals;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.Test;
+import svenz.remote.common.thread.HashedTimingWheel;
 import svenz.remote.device.impl.AbstractDeviceUnitTests;
 import svenz.remote.device.ipremote.PoweredImpl;
 import svenz.remote.device.ipremote.SelectableImpl;
@@ -192,8 +196,49 @@ public class ReceiverVSX1123DeviceUnitTests extends AbstractDeviceUnitTests<Rece
 		m_control.reset();
 	}
 
+	@Test
+	public void testDisplay() throws Exception
+	{
+		testDeviceListenerMatch();
+		m_control.replay();
+		read("FL02" + "2020564F4C" + "20"); // flags, then "  VOL "
+		assertEquals("VOL", m_test.getDisplay());
+		m_control.verify();
+		m_control.reset();
+	}
+
+	@Test
+	public void testDisplayWindow() throws Exception
+	{
+		testDeviceListenerMatch();
+		HashedTimingWheel timer = m_control.createMock("Timer", HashedTimingWheel.class);
+		ScheduledExecutorService executor = m_control.createMock("Executor", ScheduledExecutorService.class);
+		m_test.setTimer(timer);
+		m_test.setExecutor(executor);
+		m_test.setDisplayUpdateWindow(1, TimeUnit.HOURS);
+		Capture<Runnable> flush = new Capture<Runnable>();
+
+		// display listeners run on the executor, not the wheel thread
+		EasyMock.expect(
+				timer.schedule(EasyMock.capture(flush), EasyMock.anyLong(), EasyMock.eq(TimeUnit.NANOSECONDS),
+						EasyMock.same(executor))).andReturn(null);
+		m_control.replay();
+		read("FL00" + "41"); // first frame is set immediately
+		assertEquals("A", m_test.getDisplay());
+		read("FL00" + "4142", "FL00" + "414243"); // within the window, coalesced
+		assertEquals("A", m_test.getDisplay());
+		m_control.verify();
+		m_control.reset();
+
+		m_control.replay();
+		flush.getValue().run();
+		assertEquals("ABC", m_test.getDisplay());
+		read("FL00" + "41" + "4243"); // unchanged, nothing scheduled
+		m_control.verify();
+		m_control.reset();
+	}
+
 	// TODO test
-	// Display
 	// Listening Mode ?S values
 	// Audio parameters
 	// Video parameters
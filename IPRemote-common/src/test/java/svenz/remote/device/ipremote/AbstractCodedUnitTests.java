@@ -4,6 +4,8 @@
 package svenz.remote.device.ipremote;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
@@ -22,6 +24,9 @@ import org.junit.After;
 import org.junit.Test;
 import svenz.remote.common.utilities.SimplePropertiesConfiguration;
 import svenz.remote.device.IChangable.IChangeListener;
+import svenz.remote.device.ipremote.QueuingWritableByteChannel.Priority;
+import svenz.remote.net.nio.IBufferReleaser;
+import svenz.remote.net.nio.ITransferWritableByteChannel;
 import svenz.remote.net.nio.TCPSocketChannelInstance;
 import svenz.test.helper.CaptureAppender;
 
@@ -299,6 +304,101 @@ public class AbstractCodedUnitTests
 		m_control.reset();
 	}
 
+	@Test
+	public void testFireFormattedCoalesced() throws Exception
+	{
+		QueuingWritableByteChannel channel = m_control.createMock("Channel", QueuingWritableByteChannel.class);
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("Set", "Set%d");
+		EasyMock.expect(channel.submit(ByteBuffer.wrap("Set5".getBytes()), Priority.Interactive, null, "Test.Set"))
+				.andReturn(CommandFuture.completed(null));
+
+		m_control.replay();
+		m_coded.setName("Test");
+		m_coded.setCodes(new MapConfiguration(map));
+		m_coded.setWriter(channel);
+		m_coded.fireFormatted("Set", 5);
+		m_control.verify();
+		m_control.reset();
+	}
+
+	@Test
+	public void testFireTransfersTemplate() throws Exception
+	{
+		QueuingWritableByteChannel channel = m_control.createMock("Channel", QueuingWritableByteChannel.class);
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("On", "SendOn");
+		Capture<ByteBuffer> captureBuffer = new Capture<>();
+		EasyMock.expect(channel.submit(EasyMock.capture(captureBuffer), EasyMock.<IBufferReleaser> isNull(),
+				EasyMock.eq(Priority.Interactive), EasyMock.<IRetryPolicy> isNull(), EasyMock.<String> isNull()))
+				.andReturn(CommandFuture.completed(null));
+
+		m_control.replay();
+		m_coded.setCodes(new MapConfiguration(map));
+		m_coded.setWriter(channel);
+		m_coded.fire("On");
+		m_control.verify();
+		m_control.reset();
+
+		// sent as a view of the template, not a copy
+		assertTrue(captureBuffer.getValue().isReadOnly());
+		assertEquals(ByteBuffer.wrap("SendOn".getBytes()), captureBuffer.getValue());
+	}
+
+	@Test
+	public void testFireTransferWriter() throws Exception
+	{
+		ITransferWritableByteChannel channel = m_control.createMock("Channel", ITransferWritableByteChannel.class);
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("On", "SendOn");
+		map.put("Set", "Set%d");
+		Capture<ByteBuffer> captureOn = new Capture<>();
+		Capture<ByteBuffer> captureSet = new Capture<>(CaptureType.ALL);
+		channel.write(EasyMock.capture(captureOn), EasyMock.<IBufferReleaser> isNull());
+		channel.write(EasyMock.capture(captureSet), EasyMock.<IBufferReleaser> isNull());
+		EasyMock.expectLastCall().times(2);
+
+		m_control.replay();
+		m_coded.setCodes(new MapConfiguration(map));
+		m_coded.setWriter(channel);
+		assertTrue(m_coded.fire("On").isSucceeded());
+		assertTrue(m_coded.fireFormatted("Set", 5).isSucceeded());
+		m_coded.fireFormatted("Set", 7); // reuses the render buffer
+		m_control.verify();
+		m_control.reset();
+
+		assertTrue(captureOn.getValue().isReadOnly());
+		assertEquals(ByteBuffer.wrap("SendOn".getBytes()), captureOn.getValue());
+		// rendered codes are copied out of the render buffer
+		assertFalse(captureSet.getValues().get(0).isReadOnly());
+		assertEquals(ByteBuffer.wrap("Set5".getBytes()), captureSet.getValues().get(0));
+	}
+
+	@Test
+	public void testQueryBackground() throws Exception
+	{
+		QueuingWritableByteChannel channel = m_control.createMock("Channel", QueuingWritableByteChannel.class);
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("Query", "SendQuery");
+		map.put("On", "SendOn");
+		EasyMock.expect(channel.submit(ByteBuffer.wrap("SendQuery".getBytes()), null, Priority.Background, null, null))
+				.andReturn(CommandFuture.completed(null)).times(2);
+		EasyMock.expect(channel.submit(ByteBuffer.wrap("SendOn".getBytes()), null, Priority.Interactive, null, null))
+				.andReturn(CommandFuture.completed(null));
+
+		m_control.replay();
+		m_coded.setCodes(new MapConfiguration(map));
+		m_coded.setWriter(channel);
+		m_coded.query();
+		m_coded.fire("On");
+		m_control.verify();
+		m_control.reset();
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void testFireFormattedNoCodes() throws Exception
 	{
@@ -346,10 +446,11 @@ public class AbstractCodedUnitTests
 		m_coded.setCodes(new MapConfiguration(map));
 		m_coded.setWriter(channel);
 
-		m_coded.fire("On");
+		CommandFuture future = m_coded.fire("On");
 		m_control.verify();
 		m_control.reset();
 		assertEquals(1, appender.getEvents().size());
+		assertTrue(future.getFailure() instanceof IOException);
 	}
 
 	@Test
@@ -363,10 +464,34 @@ public class AbstractCodedUnitTests
 
 		m_control.replay();
 		m_coded.setCodes(new MapConfiguration(map));
-		m_coded.fire("On");
+		CommandFuture future = m_coded.fire("On");
 		m_control.verify();
 		m_control.reset();
 		assertEquals(1, appender.getEvents().size());
+		assertTrue(future.getFailure() instanceof IOException);
+	}
+
+	@Test
+	public void testFireFuture() throws Exception
+	{
+		WritableByteChannel channel = m_control.createMock("Channel", WritableByteChannel.class);
+		QueuingWritableByteChannel queue = new QueuingWritableByteChannel();
+		queue.setChannel(channel);
+
+		expectWrite(channel, "A");
+		expectWrite(channel, "B");
+
+		m_control.replay();
+		m_coded.setWriter(queue);
+		CommandFuture future = m_coded.fire("On", Arrays.asList("A", "B"));
+		queue.acknowledgeResponse(queue.getOutstandingRequest(), true, "RA");
+		assertFalse(future.isDone());
+		queue.acknowledgeResponse(queue.getOutstandingRequest(), true, "RB");
+		m_control.verify();
+		m_control.reset();
+
+		assertTrue(future.isSucceeded());
+		assertEquals("RB", future.get());
 	}
 
 	@Test
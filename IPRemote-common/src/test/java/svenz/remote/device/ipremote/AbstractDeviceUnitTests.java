@@ -4,9 +4,14 @@
 package svenz.remote.device.ipremote;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -69,16 +74,22 @@ public class AbstractDeviceUnitTests
 		expectDeviceAdd();
 		
 		EasyMock.expect(m_instance.isOpen()).andReturn(true);
+		EasyMock.expect(m_instance.write(ByteBuffer.wrap("Query".getBytes()))).andReturn(5);
 		m_instance.close();
 
 		m_control.replay();
+		assertNull(m_device.getWriteChannel());
 		ChannelDeviceListener channelListener = m_captureChannelListener.getValue();
 		Object handle = channelListener.deviceAdded(m_deviceDesc, m_address);
 
-		assertEquals(m_instance, m_device.getWriteChannel());
+		WritableByteChannel writeChannel = m_device.getWriteChannel();
+		assertSame(writeChannel, m_device.getWriteChannel());
+		assertEquals(5, writeChannel.write(ByteBuffer.wrap("Query".getBytes())));
 		assertEquals(true, m_device.isConnected());
 
 		captureCallback.getValue().handleRead("ABC".getBytes(), m_address);
+		assertEquals(true, m_captureResponse.getValues().isEmpty());
+		captureCallback.getValue().handleRead("\r\n".getBytes(), m_address);
 		assertEquals(true, m_captureResponse.getValues().remove("ABC"));
 
 		captureCallback.getValue().handleRead("ABC\r\n".getBytes(), m_address);
@@ -87,20 +98,21 @@ public class AbstractDeviceUnitTests
 		captureCallback.getValue().handleRead("".getBytes(), m_address);
 		assertEquals(true, m_captureResponse.getValues().isEmpty());
 
-		captureCallback.getValue().handleRead("ABC\r\nDEF".getBytes(), m_address);
+		captureCallback.getValue().handleRead("ABC\r\nDE".getBytes(), m_address);
 		assertEquals(true, m_captureResponse.getValues().remove("ABC"));
-		assertEquals(true, m_captureResponse.getValues().remove("DEF"));
+		assertEquals(true, m_captureResponse.getValues().isEmpty());
 
-		captureCallback.getValue().handleRead("ABC\nDEF".getBytes(), m_address);
-		assertEquals(true, m_captureResponse.getValues().remove("ABC"));
+		captureCallback.getValue().handleRead("F\nGHI\rJ".getBytes(), m_address);
 		assertEquals(true, m_captureResponse.getValues().remove("DEF"));
+		assertEquals(true, m_captureResponse.getValues().remove("GHI"));
 
-		captureCallback.getValue().handleRead("ABC\rDEF".getBytes(), m_address);
-		assertEquals(true, m_captureResponse.getValues().remove("ABC"));
-		assertEquals(true, m_captureResponse.getValues().remove("DEF"));
+		captureCallback.getValue().handleRead("KL\r".getBytes(), m_address);
+		assertEquals(true, m_captureResponse.getValues().remove("JKL"));
+		assertEquals(true, m_captureResponse.getValues().isEmpty());
 
 		channelListener.deviceRemoved(handle);
 		assertEquals(false, m_device.isConnected());
+		assertNull(m_device.getWriteChannel());
 
 		m_control.verify();
 		m_control.reset();
@@ -108,15 +120,45 @@ public class AbstractDeviceUnitTests
 
 
 
+	@Test
+	public void testPipelinePerConnection() throws Exception
+	{
+		TCPSocketChannelInstance instance2 = m_control.createMock("Instance2", TCPSocketChannelInstance.class);
+		expectDeviceAdd();
+		m_instance.close();
+		EasyMock.expect(
+				m_channelManager.connect(EasyMock.eq(new InetSocketAddress(m_address.getAddress(), 8005)),
+						EasyMock.capture(captureCallback))).andReturn(instance2);
+		instance2.close();
+
+		m_control.replay();
+		ChannelDeviceListener channelListener = m_captureChannelListener.getValue();
+		Object handle = channelListener.deviceAdded(m_deviceDesc, m_address);
+		ITCPSocketChannelCallback callback1 = captureCallback.getValue();
+		callback1.handleRead("AB".getBytes(), m_address); // partial frame when the connection drops
+		channelListener.deviceRemoved(handle);
+
+		handle = channelListener.deviceAdded(m_deviceDesc, m_address);
+		ITCPSocketChannelCallback callback2 = captureCallback.getValues().get(1);
+		callback1.handleRead("X\r\n".getBytes(), m_address); // late read from the old connection
+		callback2.handleRead("C\r\n".getBytes(), m_address);
+		assertEquals(Arrays.asList("C"), m_captureResponse.getValues());
+
+		channelListener.deviceRemoved(handle);
+		m_control.verify();
+		m_control.reset();
+	}
+
 	@Test
 	public void testRegister() throws Exception
 	{
 		AbstractCoded<?> coded1 = m_control.createMock("Coded1", AbstractCoded.class),
 				coded2 = m_control.createMock("Coded2", AbstractCoded.class);
+		Capture<WritableByteChannel> captureWriter = new Capture<WritableByteChannel>(CaptureType.ALL);
 		expectDeviceAdd();
 
-		coded1.setWriter(m_instance);
-		coded2.setWriter(m_instance);
+		coded1.setWriter(EasyMock.capture(captureWriter));
+		coded2.setWriter(EasyMock.capture(captureWriter));
 
 		coded1.setWriter(null);
 		coded2.setWriter(null);
@@ -132,6 +174,8 @@ public class AbstractDeviceUnitTests
 		channelListener.deviceRemoved(handle);
 		m_control.verify();
 		m_control.reset();
+		assertNotNull(captureWriter.getValues().get(0));
+		assertSame(captureWriter.getValues().get(0), captureWriter.getValues().get(1));
 	}
 
 	@Test
@@ -143,8 +187,8 @@ public class AbstractDeviceUnitTests
 		expectDeviceAdd();
 
 		m_ssdpManager.removeDeviceListener(m_deviceListener);
-		coded1.setWriter(m_instance);
-		coded2.setWriter(m_instance);
+		coded1.setWriter(EasyMock.isA(WritableByteChannel.class));
+		coded2.setWriter(EasyMock.isA(WritableByteChannel.class));
 
 		coded1.setWriter(null);
 		coded2.setWriter(null);
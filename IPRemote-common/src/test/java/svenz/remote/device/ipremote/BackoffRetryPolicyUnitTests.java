@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package svenz.remote.device.ipremote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class BackoffRetryPolicyUnitTests
+{
+	@Test
+	public void testFixed() throws Exception
+	{
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(100);
+		assertEquals(100, policy.getRetryDelayMS(1, null));
+		assertEquals(100, policy.getRetryDelayMS(1000, "E04"));
+	}
+
+	@Test
+	public void testBackoff() throws Exception
+	{
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(100, 1000, 5);
+		assertEquals(100, policy.getRetryDelayMS(1, null));
+		assertEquals(200, policy.getRetryDelayMS(2, null));
+		assertEquals(400, policy.getRetryDelayMS(3, null));
+		assertEquals(800, policy.getRetryDelayMS(4, null));
+		assertEquals(1000, policy.getRetryDelayMS(5, null));
+		assertEquals(-1, policy.getRetryDelayMS(6, null));
+
+		policy.setMultiplier(3);
+		assertEquals(300, policy.getRetryDelayMS(2, null));
+	}
+
+	@Test
+	public void testUnlimited() throws Exception
+	{
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(100, 1000, -1);
+		assertEquals(1000, policy.getRetryDelayMS(Integer.MAX_VALUE, null));
+	}
+
+	@Test
+	public void testJitter() throws Exception
+	{
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(1000, 1000, -1);
+		policy.setJitter(0.2);
+		for (int i = 0; i < 100; i++)
+		{
+			long delay = policy.getRetryDelayMS(1, null);
+			assertTrue(String.valueOf(delay), delay >= 800 && delay <= 1200);
+		}
+	}
+
+	@Test
+	public void testJitterSmallDelay() throws Exception
+	{
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(1, 1, -1);
+		policy.setJitter(1.0);
+		for (int i = 0; i < 100; i++)
+		{
+			long delay = policy.getRetryDelayMS(1, null);
+			assertTrue(String.valueOf(delay), delay >= 1 && delay <= 2);
+		}
+		assertEquals(1, new BackoffRetryPolicy(0).getRetryDelayMS(1, null));
+	}
+
+	@Test
+	public void testRetryErrors() throws Exception
+	{
+		BackoffRetryPolicy policy = new BackoffRetryPolicy(100);
+		policy.setRetryErrors("E04");
+		assertEquals(100, policy.getRetryDelayMS(1, "E04"));
+		assertEquals(-1, policy.getRetryDelayMS(1, "E06"));
+		assertEquals(100, policy.getRetryDelayMS(1, null)); // no response at all
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testJitterRange() throws Exception
+	{
+		new BackoffRetryPolicy(100).setJitter(1.5);
+	}
+}
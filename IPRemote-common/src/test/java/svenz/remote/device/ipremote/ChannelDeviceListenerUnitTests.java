@@ -4,8 +4,13 @@
 package svenz.remote.device.ipremote;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static svenz.test.helper.TestHelper.waitCapture;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.xml.namespace.QName;
 import org.easymock.Capture;
 import org.easymock.CaptureType;
@@ -13,6 +18,8 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.junit.Before;
 import org.junit.Test;
+import svenz.remote.common.thread.BasicThreadFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
 import svenz.remote.device.IChangable.IChangeListener;
 import svenz.remote.net.nio.ITCPSocketChannelCallback;
 import svenz.remote.net.nio.SocketChannelManager;
@@ -170,4 +177,154 @@ public class ChannelDeviceListenerUnitTests
 		m_control.reset();
 
 	}
+
+	@Test
+	public void testReconnect() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			InetAddress localHost = InetAddress.getLocalHost();
+			InetSocketAddress address = new InetSocketAddress(localHost, 6789);
+			TCPSocketChannelInstance instance2 = m_control.createMock("Instance2", TCPSocketChannelInstance.class);
+			ScheduledExecutorService executor = m_control.createMock("Executor", ScheduledExecutorService.class);
+			Capture<Runnable> reconnect = new Capture<Runnable>();
+			m_listener.setTimer(timer);
+			m_listener.setExecutor(executor);
+			m_listener.setReconnectDelayMS(10);
+			m_listener.setReconnectJitter(0);
+
+			EasyMock.expect(m_device.getUDN()).andReturn("MockDevice").anyTimes();
+			EasyMock.expect(m_device.getFriendlyName()).andReturn("Mock Device").anyTimes();
+			EasyMock.expect(m_channelManager.connect(EasyMock.eq(address), EasyMock.capture(m_captureCallback)))
+					.andReturn(m_instance);
+			m_control.replay();
+			m_listener.setPort(6789);
+			Object handle = m_listener.deviceAdded(m_device, new InetSocketAddress(localHost, 445));
+			m_control.verify();
+			m_control.reset();
+
+			// connection drops, old instance stays until replaced
+			EasyMock.expect(m_device.getUDN()).andReturn("MockDevice").anyTimes();
+			EasyMock.expect(m_device.getFriendlyName()).andReturn("Mock Device").anyTimes();
+			m_callback.connectionClose(m_instance);
+			executor.execute(EasyMock.capture(reconnect));
+			m_control.replay();
+			m_captureCallback.getValue().connectionClose(m_instance);
+			assertEquals(m_instance, m_listener.getInstance());
+			waitCapture(reconnect);
+			m_control.verify();
+			m_control.reset();
+
+			// reconnect runs on the executor, not the timer thread
+			EasyMock.expect(m_device.getUDN()).andReturn("MockDevice").anyTimes();
+			EasyMock.expect(m_device.getFriendlyName()).andReturn("Mock Device").anyTimes();
+			EasyMock.expect(m_channelManager.connect(EasyMock.eq(address), EasyMock.capture(m_captureCallback)))
+					.andReturn(instance2);
+			m_control.replay();
+			reconnect.getValue().run();
+			m_control.verify();
+			m_control.reset();
+			assertEquals(instance2, m_listener.getInstance());
+
+			instance2.close();
+			m_control.replay();
+			m_listener.deviceRemoved(handle);
+			m_control.verify();
+			m_control.reset();
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testReconnectConnectFails() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			InetAddress localHost = InetAddress.getLocalHost();
+			InetSocketAddress address = new InetSocketAddress(localHost, 6789);
+			m_listener.setTimer(timer);
+			m_listener.setReconnectDelayMS(10);
+			m_listener.setReconnectJitter(0);
+			m_listener.setMaxReconnectAttempts(2);
+
+			EasyMock.expect(m_device.getUDN()).andReturn("MockDevice").anyTimes();
+			EasyMock.expect(m_device.getFriendlyName()).andReturn("Mock Device").anyTimes();
+			EasyMock.expect(m_channelManager.connect(EasyMock.eq(address), EasyMock.capture(m_captureCallback)))
+					.andReturn(m_instance);
+			m_control.replay();
+			m_listener.setPort(6789);
+			m_listener.deviceAdded(m_device, new InetSocketAddress(localHost, 445));
+			m_control.verify();
+			m_control.reset();
+
+			// every retry fails synchronously, keeps backing off then gives up
+			Capture<String> removed = new Capture<String>();
+			EasyMock.expect(m_device.getUDN()).andReturn("MockDevice").anyTimes();
+			EasyMock.expect(m_device.getFriendlyName()).andReturn("Mock Device").anyTimes();
+			m_callback.connectionClose(m_instance);
+			EasyMock.expect(m_channelManager.connect(EasyMock.eq(address), EasyMock.capture(m_captureCallback)))
+					.andThrow(new IOException("No route to host")).times(2);
+			m_ssdpManager.notifyDeviceRemoved(EasyMock.capture(removed));
+			m_control.replay();
+			m_captureCallback.getValue().connectionClose(m_instance);
+			waitCapture(removed, 1);
+			m_control.verify();
+			m_control.reset();
+			assertEquals("MockDevice", removed.getValue());
+			assertEquals(m_instance, m_listener.getInstance());
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testReconnectGiveUp() throws Exception
+	{
+		InetAddress localHost = InetAddress.getLocalHost();
+		m_listener.setMaxReconnectAttempts(0);
+
+		EasyMock.expect(m_device.getUDN()).andReturn("MockDevice");
+		EasyMock.expect(m_device.getFriendlyName()).andReturn("Mock Device").anyTimes();
+		EasyMock.expect(m_channelManager.connect(
+				EasyMock.eq(new InetSocketAddress(localHost, 6789)),
+				EasyMock.capture(m_captureCallback))).andReturn(m_instance);
+		m_control.replay();
+		m_listener.setPort(6789);
+		m_listener.deviceAdded(m_device, new InetSocketAddress(localHost, 445));
+		m_control.verify();
+		m_control.reset();
+
+		m_callback.connectionFailed(m_instance);
+		m_ssdpManager.notifyDeviceRemoved("MockDevice");
+		m_control.replay();
+		m_captureCallback.getValue().connectionFailed(m_instance);
+		m_control.verify();
+		m_control.reset();
+	}
+
+	@Test
+	public void testReconnectDelay() throws Exception
+	{
+		m_listener.setReconnectDelayMS(100);
+		m_listener.setMaxReconnectDelayMS(1000);
+		m_listener.setReconnectJitter(0);
+		assertEquals(100, m_listener.getReconnectDelay(0));
+		assertEquals(400, m_listener.getReconnectDelay(2));
+		assertEquals(1000, m_listener.getReconnectDelay(4));
+		assertEquals(1000, m_listener.getReconnectDelay(40));
+
+		m_listener.setReconnectJitter(0.5);
+		for (int i = 0; i < 100; i++)
+		{
+			long delay = m_listener.getReconnectDelay(1);
+			assertTrue("Delay out of range " + delay, delay >= 100 && delay <= 300);
+		}
+	}
 }
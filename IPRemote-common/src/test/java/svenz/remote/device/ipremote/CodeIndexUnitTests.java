@@ -0,0 +1,91 @@
+/**
+ * 
+ */
+package svenz.remote.device.ipremote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.configuration.MapConfiguration;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class CodeIndexUnitTests
+{
+	private final AbstractCoded<String> m_power = coded("Query", "?P", "On", "PN", "Empty", "");
+	private final AbstractCoded<String> m_menuMain = coded("Up", "UP", "Menu", "MAIN");
+	private final AbstractCoded<String> m_menuDisk = coded("Up", "UP", "Menu", "DISK");
+
+	@Test
+	public void testGetCommand() throws Exception
+	{
+		CodeIndex index = CodeIndex.EMPTY.with(m_power).with(m_menuMain, m_menuDisk);
+
+		assertEquals("Query", index.getCommand(m_power, "?P"));
+		assertEquals("On", index.getCommand(m_power, "PN"));
+		assertNull(index.getCommand(m_power, ""));
+		assertNull(index.getCommand(m_power, "UP"));
+		assertNull(index.getCommand(m_power, "Unknown"));
+		// shared code resolves for each coded
+		assertEquals("Up", index.getCommand(m_menuMain, "UP"));
+		assertEquals("Up", index.getCommand(m_menuDisk, "UP"));
+		assertEquals("Menu", index.getCommand(m_menuDisk, "DISK"));
+		assertNull(index.getCommand(m_menuMain, "DISK"));
+		assertEquals("Query", CodeIndex.EMPTY.getCommand(m_power, "?P"));
+	}
+
+	@Test
+	public void testResolve() throws Exception
+	{
+		CodeIndex index = CodeIndex.EMPTY.with(m_power).with(m_menuMain, m_menuDisk);
+
+		CodeIndex.Entry entry = index.resolve("PN");
+		assertSame(m_power, entry.getCoded());
+		assertEquals("On", entry.getCommand());
+		assertNull(entry.getNext());
+		assertNull(index.resolve(""));
+		assertNull(index.resolve("Unknown"));
+
+		// shared code resolves to each coded in turn
+		entry = index.resolve("UP");
+		assertSame(m_menuDisk, entry.getCoded());
+		assertEquals("Up", entry.getCommand());
+		assertSame(m_menuMain, entry.getNext().getCoded());
+		assertNull(entry.getNext().getNext());
+	}
+
+	@Test
+	public void testUnregistered() throws Exception
+	{
+		CodeIndex index = CodeIndex.EMPTY.with(m_power);
+		// not indexed, asks the coded
+		assertEquals("Menu", index.getCommand(m_menuMain, "MAIN"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testMultipleCodes() throws Exception
+	{
+		AbstractCoded<String> multiple = coded("Off", "A,B");
+		CodeIndex index = CodeIndex.EMPTY.with(m_power, multiple);
+
+		assertEquals("On", index.getCommand(m_power, "PN"));
+		index.getCommand(multiple, "A");
+	}
+
+	private static AbstractCoded<String> coded(String... commandCodes)
+	{
+		Map<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < commandCodes.length; i += 2)
+			map.put(commandCodes[i], commandCodes[i + 1]);
+		MapConfiguration config = new MapConfiguration(map);
+		config.setDelimiterParsingDisabled(true);
+		AbstractCoded<String> coded = new AbstractCoded<String>("Test", null);
+		coded.setCodes(config);
+		return coded;
+	}
+}
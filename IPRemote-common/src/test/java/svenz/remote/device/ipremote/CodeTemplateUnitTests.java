@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package svenz.remote.device.ipremote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.IllegalFormatConversionException;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class CodeTemplateUnitTests
+{
+	@Test
+	public void testLiteral() throws Exception
+	{
+		CodeTemplate template = CodeTemplate.compile("PO\r");
+		assertFalse(template.isFormatted());
+		assertEquals("PO\r", render(template));
+	}
+
+	@Test
+	public void testZeroIndex() throws Exception
+	{
+		assertEquals("005VL\r", render(CodeTemplate.compile("%0$03dVL\r"), 5));
+		assertEquals("12FN\r", render(CodeTemplate.compile("%0$sFN\r"), "12"));
+		assertEquals("0005SR\r", render(CodeTemplate.compile("%0sSR\r"), "0005"));
+	}
+
+	@Test
+	public void testMatchesFormat() throws Exception
+	{
+		assertFormat("VOLM%1$2d  \r", 5);
+		assertFormat("VOLM%1$2d  \r", 42);
+		assertFormat("SendOn%2$s%1$s", "AB", "CD");
+		assertFormat("%03d", -5);
+		assertFormat("%-4d|", 7);
+		assertFormat("%5s|%-5s|", "ab", "cd");
+		assertFormat("%d%%", Long.MIN_VALUE);
+		assertFormat("%s%d", null, null);
+		assertFormat("%x", 255); // not handled, falls back to the Formatter
+	}
+
+	@Test
+	public void testUnformatted() throws Exception
+	{
+		CodeTemplate template = CodeTemplate.compile("50%");
+		assertTrue(template.isFormatted());
+		assertEquals("50%", render(template, (Object[]) null));
+	}
+
+	@Test
+	public void testReadOnlyBuffer() throws Exception
+	{
+		CodeTemplate template = CodeTemplate.compile("PO\r");
+		ByteBuffer b = template.asReadOnlyBuffer();
+		assertTrue(b.isReadOnly());
+		assertEquals(ByteBuffer.wrap("PO\r".getBytes()), b);
+		b.get();
+		// each send gets its own position
+		assertEquals(3, template.asReadOnlyBuffer().remaining());
+	}
+
+	@Test(expected = IllegalFormatConversionException.class)
+	public void testConversionMismatch() throws Exception
+	{
+		render(CodeTemplate.compile("%d"), "A");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingArgument() throws Exception
+	{
+		render(CodeTemplate.compile("%1$s%2$s"), "A");
+	}
+
+	@Test(expected = BufferOverflowException.class)
+	public void testOverflow() throws Exception
+	{
+		CodeTemplate.compile("%05d").render(ByteBuffer.allocate(4), 1);
+	}
+
+	private static void assertFormat(String code, Object... values)
+	{
+		assertEquals(String.format(code, values), render(CodeTemplate.compile(code), values));
+	}
+
+	private static String render(CodeTemplate template, Object... values)
+	{
+		ByteBuffer b = ByteBuffer.allocate(64);
+		template.render(b, values);
+		b.flip();
+		byte[] bytes = new byte[b.remaining()];
+		b.get(bytes);
+		return new String(bytes);
+	}
+}
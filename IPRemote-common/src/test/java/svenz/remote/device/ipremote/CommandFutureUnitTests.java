@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package svenz.remote.device.ipremote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+import svenz.remote.common.utilities.CallerExecutor;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class CommandFutureUnitTests
+{
+	private final IMocksControl m_control = EasyMock.createControl();
+	private final Runnable m_listener = m_control.createMock("Listener", Runnable.class);
+
+	@Test
+	public void testComplete() throws Exception
+	{
+		CommandFuture future = new CommandFuture();
+		future.addListener(m_listener, CallerExecutor.INSTANCE);
+
+		m_listener.run();
+		m_control.replay();
+		future.sent();
+		assertTrue(future.complete("R"));
+		assertFalse(future.fail(new IOException()));
+		m_control.verify();
+		m_control.reset();
+
+		assertTrue(future.isSucceeded());
+		assertEquals("R", future.get(0, TimeUnit.MILLISECONDS));
+		assertTrue(future.getLatencyMS() >= 0);
+		assertTrue(future.getQueuedMS() >= 0);
+
+		// listeners added once done run immediately
+		m_listener.run();
+		m_control.replay();
+		future.addListener(m_listener);
+		m_control.verify();
+	}
+
+	@Test
+	public void testFail() throws Exception
+	{
+		IOException failure = new IOException("Test");
+		CommandFuture future = CommandFuture.failed(failure);
+		assertFalse(future.isSucceeded());
+		assertEquals(-1, future.getLatencyMS());
+		try
+		{
+			future.get();
+			fail("Expected failure");
+		}
+		catch (ExecutionException e)
+		{
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	@Test(expected = CancellationException.class)
+	public void testCancel() throws Exception
+	{
+		CommandFuture future = new CommandFuture();
+		assertTrue(future.cancel(false));
+		assertTrue(future.isCancelled());
+		assertFalse(future.complete("R"));
+		future.get();
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void testGetTimeout() throws Exception
+	{
+		new CommandFuture().get(1, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testAll() throws Exception
+	{
+		CommandFuture a = new CommandFuture(), b = new CommandFuture();
+		CommandFuture all = CommandFuture.all(a, b);
+
+		b.complete("B");
+		assertFalse(all.isDone());
+		a.complete("A");
+		assertEquals("B", all.get());
+		assertTrue(CommandFuture.all().isSucceeded());
+	}
+
+	@Test
+	public void testAllFail() throws Exception
+	{
+		CommandFuture a = new CommandFuture(), b = new CommandFuture();
+		CommandFuture all = CommandFuture.all(a, b);
+
+		IOException failure = new IOException("Test");
+		a.fail(failure);
+		assertSame(failure, all.getFailure());
+		b.complete("B");
+		assertSame(failure, all.getFailure());
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package svenz.remote.device.ipremote;
+
+import static org.junit.Assert.assertEquals;
+import static svenz.test.helper.TestHelper.waitCapture;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import svenz.remote.common.thread.BasicThreadFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class PacedWritableByteChannelUnitTests
+{
+	private final IMocksControl m_control = EasyMock.createControl();
+	private final WritableByteChannel m_mockChannel = m_control.createMock("Channel", WritableByteChannel.class);
+	private final ScheduledExecutorService m_executor = m_control
+			.createMock("Executor", ScheduledExecutorService.class);
+	private final HashedTimingWheel m_timer = new HashedTimingWheel(new BasicThreadFactory(), 5,
+			TimeUnit.MILLISECONDS, 8);
+	private final PacedWritableByteChannel m_channel = new PacedWritableByteChannel();
+
+	@Before
+	public void setup()
+	{
+		m_channel.setChannel(m_mockChannel);
+		m_channel.setExecutor(m_executor);
+		m_channel.setTimer(m_timer);
+	}
+
+	@After
+	public void teardown()
+	{
+		m_timer.close();
+	}
+
+	@Test
+	public void testUnlimited() throws Exception
+	{
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("A".getBytes()))).andReturn(1);
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("B".getBytes()))).andReturn(1);
+		m_control.replay();
+		assertEquals(1, m_channel.write(ByteBuffer.wrap("A".getBytes())));
+		assertEquals(1, m_channel.write(ByteBuffer.wrap("B".getBytes())));
+		m_control.verify();
+	}
+
+	@Test
+	public void testRateLimit() throws Exception
+	{
+		m_channel.setRateLimit(20, 1);
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("A".getBytes()))).andReturn(1);
+
+		// burst used up, B and C wait for tokens in order
+		Capture<Runnable> captureWakeup = new Capture<>();
+		m_executor.execute(EasyMock.capture(captureWakeup));
+		m_control.replay();
+		m_channel.write(ByteBuffer.wrap("A".getBytes()));
+		ByteBuffer b = ByteBuffer.wrap("B".getBytes());
+		assertEquals(1, m_channel.write(b));
+		assertEquals(0, b.remaining());
+		m_channel.write(ByteBuffer.wrap("C".getBytes()));
+		waitCapture(captureWakeup);
+		m_control.verify();
+		m_control.reset();
+
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("B".getBytes()))).andReturn(1);
+		Capture<Runnable> captureNext = new Capture<>();
+		m_executor.execute(EasyMock.capture(captureNext));
+		m_control.replay();
+		captureWakeup.getValue().run();
+		waitCapture(captureNext);
+		m_control.verify();
+		m_control.reset();
+
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("C".getBytes()))).andReturn(1);
+		m_control.replay();
+		captureNext.getValue().run();
+		m_control.verify();
+	}
+
+	@Test
+	public void testChannelReset() throws Exception
+	{
+		m_channel.setRateLimit(20, 1);
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("A".getBytes()))).andReturn(1);
+		m_control.replay();
+		m_channel.write(ByteBuffer.wrap("A".getBytes()));
+		m_channel.write(ByteBuffer.wrap("B".getBytes()));
+		m_channel.setChannel(null);
+		// held write dropped with the connection, wakeup cancelled
+		Thread.sleep(100);
+		m_control.verify();
+	}
+
+	@Test
+	public void testReconnect() throws Exception
+	{
+		m_channel.setRateLimit(20, 1);
+		WritableByteChannel channel2 = m_control.createMock("Channel2", WritableByteChannel.class);
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("A".getBytes()))).andReturn(1);
+		Capture<Runnable> captureWakeup = new Capture<>();
+		m_executor.execute(EasyMock.capture(captureWakeup));
+		m_control.replay();
+		m_channel.write(ByteBuffer.wrap("A".getBytes()));
+		m_channel.write(ByteBuffer.wrap("B".getBytes()));
+		m_channel.setChannel(channel2);
+		waitCapture(captureWakeup);
+		m_control.verify();
+		m_control.reset();
+
+		// held write goes to the new connection
+		EasyMock.expect(channel2.write(ByteBuffer.wrap("B".getBytes()))).andReturn(1);
+		m_control.replay();
+		captureWakeup.getValue().run();
+		m_control.verify();
+	}
+}
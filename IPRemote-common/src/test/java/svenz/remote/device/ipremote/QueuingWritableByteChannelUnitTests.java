@@ -6,18 +6,29 @@ package svenz.remote.device.ipremote;
 import static org.hamcrest.core.CombinableMatcher.both;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static svenz.test.helper.TestHelper.waitCapture;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IExpectationSetters;
 import org.easymock.IMocksControl;
 import org.junit.Before;
 import org.junit.Test;
+import svenz.remote.common.thread.BasicThreadFactory;
+import svenz.remote.common.thread.HashedTimingWheel;
+import svenz.remote.device.ipremote.CommandFuture.CommandRejectedException;
+import svenz.remote.device.ipremote.QueuingWritableByteChannel.Priority;
+import svenz.remote.net.nio.IBufferReleaser;
+import svenz.remote.net.nio.ITransferWritableByteChannel;
 
 /**
  * @author Sven Zethelius
@@ -124,7 +135,425 @@ public class QueuingWritableByteChannelUnitTests
 		m_control.reset();
 	}
 
-	// TODO tests for retry
+	@Test
+	public void testTransferReleasedAfterSendAndAcknowledge() throws Exception
+	{
+		ITransferWritableByteChannel transferChannel =
+				m_control.createMock("TransferChannel", ITransferWritableByteChannel.class);
+		IBufferReleaser releaser = m_control.createMock("Releaser", IBufferReleaser.class);
+		Capture<IBufferReleaser> captureRelease = new Capture<>();
+		m_channel.setChannel(transferChannel);
+		ByteBuffer b = ByteBuffer.wrap("A".getBytes());
+
+		transferChannel.write(EasyMock.eq(ByteBuffer.wrap("A".getBytes())), EasyMock.capture(captureRelease));
+		m_control.replay();
+		m_channel.write(b, releaser);
+		m_control.verify();
+		m_control.reset();
+		verifyOutstanding("A");
+
+		// channel flushed, but still awaiting the response
+		m_control.replay();
+		captureRelease.getValue().release(ByteBuffer.wrap("A".getBytes()));
+		m_control.verify();
+		m_control.reset();
+
+		releaser.release(b);
+		acknowledgeResponse(true);
+		verifyOutstanding(null);
+	}
+
+	@Test
+	public void testRetry() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			m_channel.setTimer(timer);
+			m_channel.setRetryDelayMS(20);
+			expectWrite("A").andReturn(1);
+			write("A");
+
+			Capture<Runnable> captureRetry = new Capture<>();
+			m_executor.execute(EasyMock.capture(captureRetry));
+			m_control.replay();
+			m_channel.acknowledgeResponse(false);
+			waitCapture(captureRetry);
+			m_control.verify();
+			m_control.reset();
+			verifyOutstanding("A");
+
+			expectWrite("A").andReturn(1);
+			m_control.replay();
+			captureRetry.getValue().run();
+			m_control.verify();
+			m_control.reset();
+			acknowledgeResponse(true);
+			verifyOutstanding(null);
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testResponseDeadline() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			m_channel.setTimer(timer);
+			m_channel.setResponseTimeoutMS(20);
+			Capture<Runnable> captureDeadline = new Capture<>();
+			expectWrite("A").andReturn(1);
+			m_executor.execute(EasyMock.capture(captureDeadline));
+			m_control.replay();
+			m_channel.write(ByteBuffer.wrap("A".getBytes()));
+			waitCapture(captureDeadline);
+			m_control.verify();
+			m_control.reset();
+
+			m_channel.setResponseTimeoutMS(-1);
+			write("B");
+			verifyOutstanding("A");
+
+			// A never answered, B goes out in its place
+			expectWrite("B").andReturn(1);
+			m_control.replay();
+			captureDeadline.getValue().run();
+			m_control.verify();
+			m_control.reset();
+			assertEquals(1, m_channel.getDeadlineMisses());
+			verifyOutstanding("B");
+			acknowledgeResponse(true);
+			verifyOutstanding(null);
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testResponseDeadlineAnswered() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			m_channel.setTimer(timer);
+			m_channel.setResponseTimeoutMS(20);
+			expectWrite("A").andReturn(1);
+			write("A");
+			acknowledgeResponse(true);
+
+			m_control.replay();
+			Thread.sleep(50); // cancelled deadline never reaches the executor
+			m_control.verify();
+			m_control.reset();
+			assertEquals(0, m_channel.getDeadlineMisses());
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testRetryPolicy() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			BackoffRetryPolicy policy = new BackoffRetryPolicy(10, 20, 1);
+			policy.setRetryErrors("BUSY");
+			m_channel.setTimer(timer);
+			expectWrite("A").andReturn(1);
+			m_control.replay();
+			m_channel.write(ByteBuffer.wrap("A".getBytes()), Priority.Interactive, policy, null);
+			m_control.verify();
+			m_control.reset();
+
+			// hard error is not retried
+			acknowledgeResponse("ERROR");
+			verifyOutstanding(null);
+
+			expectWrite("B").andReturn(1);
+			m_control.replay();
+			m_channel.write(ByteBuffer.wrap("B".getBytes()), Priority.Interactive, policy, null);
+			m_control.verify();
+			m_control.reset();
+
+			Capture<Runnable> captureRetry = new Capture<>();
+			m_executor.execute(EasyMock.capture(captureRetry));
+			m_control.replay();
+			m_channel.acknowledgeResponse(m_channel.getOutstandingRequest(), false, "BUSY");
+			waitCapture(captureRetry);
+			m_control.verify();
+			m_control.reset();
+
+			expectWrite("B").andReturn(1);
+			m_control.replay();
+			captureRetry.getValue().run();
+			m_control.verify();
+			m_control.reset();
+
+			// out of retries
+			acknowledgeResponse("BUSY");
+			verifyOutstanding(null);
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testRateLimit() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			m_channel.setTimer(timer);
+			m_channel.setWindowSize(3);
+			m_channel.setRateLimit(20, 2);
+			expectWrite("A").andReturn(1);
+			write("A");
+			expectWrite("B").andReturn(1);
+			write("B");
+
+			// burst used up, C waits for the next token
+			Capture<Runnable> captureWakeup = new Capture<>();
+			m_executor.execute(EasyMock.capture(captureWakeup));
+			m_control.replay();
+			m_channel.write(ByteBuffer.wrap("C".getBytes()));
+			waitCapture(captureWakeup);
+			m_control.verify();
+			m_control.reset();
+
+			expectWrite("C").andReturn(1);
+			m_control.replay();
+			captureWakeup.getValue().run();
+			m_control.verify();
+			m_control.reset();
+			verifyOutstanding("A");
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testPipelined() throws Exception
+	{
+		m_channel.setWindowSize(2);
+		expectWrite("A").andReturn(1);
+		write("A");
+		expectWrite("B").andReturn(1);
+		write("B");
+		write("C");
+		verifyOutstanding("A");
+
+		expectWrite("C").andReturn(1);
+		acknowledgeResponse(true);
+		verifyOutstanding("B");
+		acknowledgeResponse(true);
+		verifyOutstanding("C");
+		acknowledgeResponse(true);
+		verifyOutstanding(null);
+	}
+
+	@Test
+	public void testPipelinedCorrelated() throws Exception
+	{
+		m_channel.setWindowSize(2);
+		m_channel.setResponseCorrelator(new QueuingWritableByteChannel.IResponseCorrelator() {
+			@Override
+			public boolean isResponseTo(String response, byte[] request)
+			{
+				return response.startsWith(new String(request));
+			}
+		});
+		expectWrite("A").andReturn(1);
+		write("A");
+		expectWrite("B").andReturn(1);
+		write("B");
+		write("C");
+
+		byte[] request = m_channel.getOutstandingRequest("B1");
+		assertEquals("B", new String(request));
+		assertEquals("A", new String(m_channel.getOutstandingRequest("X1")));
+
+		expectWrite("C").andReturn(1);
+		m_control.replay();
+		m_channel.acknowledgeResponse(request, true, "B1");
+		m_control.verify();
+		m_control.reset();
+		assertEquals("C", new String(m_channel.getOutstandingRequest("C1")));
+		verifyOutstanding("A");
+	}
+
+	@Test
+	public void testPipelinedRetry() throws Exception
+	{
+		HashedTimingWheel timer = new HashedTimingWheel(new BasicThreadFactory(), 5, TimeUnit.MILLISECONDS, 8);
+		try
+		{
+			m_channel.setTimer(timer);
+			m_channel.setWindowSize(2);
+			m_channel.setRetryDelayMS(20);
+			expectWrite("A").andReturn(1);
+			write("A");
+			expectWrite("B").andReturn(1);
+			write("B");
+			write("C");
+
+			// A waits out its retry delay in its window slot
+			Capture<Runnable> captureRetry = new Capture<>();
+			m_executor.execute(EasyMock.capture(captureRetry));
+			m_control.replay();
+			m_channel.acknowledgeResponse(false);
+			waitCapture(captureRetry);
+			m_control.verify();
+			m_control.reset();
+			verifyOutstanding("B");
+
+			expectWrite("C").andReturn(1);
+			acknowledgeResponse(true);
+			verifyOutstanding("C");
+
+			// the retry is sent ahead of anything still queued
+			expectWrite("A").andReturn(1);
+			m_control.replay();
+			captureRetry.getValue().run();
+			m_control.verify();
+			m_control.reset();
+			verifyOutstanding("C");
+
+			acknowledgeResponse(true);
+			verifyOutstanding("A");
+			acknowledgeResponse(true);
+			verifyOutstanding(null);
+		}
+		finally
+		{
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testCoalesce() throws Exception
+	{
+		expectWrite("V1").andReturn(2);
+		write("V1", "volume");
+		write("M", null);
+		write("V2", "volume");
+		write("V3", "volume"); // replaces V2 in place, V1 is already sent
+
+		expectWrite("M").andReturn(1);
+		acknowledgeResponse(true);
+		expectWrite("V3").andReturn(2);
+		acknowledgeResponse(true);
+		verifyOutstanding("V3");
+		acknowledgeResponse(true);
+		verifyOutstanding(null);
+	}
+
+	@Test
+	public void testPriority() throws Exception
+	{
+		m_channel.setMaxInteractiveBurst(2);
+		expectWrite("Q1").andReturn(2);
+		write("Q1", Priority.Background, null);
+		write("Q2", Priority.Background, null);
+		write("Q3", Priority.Background, null);
+		write("A", null);
+		write("B", null);
+		write("C", null);
+
+		expectWrite("A").andReturn(1);
+		acknowledgeResponse(true);
+		expectWrite("B").andReturn(1);
+		acknowledgeResponse(true);
+		// background has waited out a burst
+		expectWrite("Q2").andReturn(2);
+		acknowledgeResponse(true);
+		expectWrite("C").andReturn(1);
+		acknowledgeResponse(true);
+		expectWrite("Q3").andReturn(2);
+		acknowledgeResponse(true);
+		acknowledgeResponse(true);
+		verifyOutstanding(null);
+	}
+
+	@Test
+	public void testSubmitFuture() throws Exception
+	{
+		expectWrite("A").andReturn(1);
+		CommandFuture a = submit("A", null);
+		CommandFuture v1 = submit("V1", "volume");
+		CommandFuture v2 = submit("V2", "volume");
+		CommandFuture c = submit("C", null);
+
+		expectWrite("V2").andReturn(2);
+		acknowledgeResponse("ERR");
+		assertEquals("ERR", ((CommandRejectedException) a.getFailure()).getResponse());
+		assertFalse(v1.isDone());
+
+		expectWrite("C").andReturn(1);
+		m_control.replay();
+		m_channel.acknowledgeResponse(m_channel.getOutstandingRequest(), true, "OK");
+		m_control.verify();
+		m_control.reset();
+		assertEquals("OK", v2.get());
+		assertEquals("OK", v1.get()); // replaced, completes with V2
+		assertTrue(v2.getLatencyMS() >= 0);
+
+		CommandFuture d = submit("D", null);
+		m_channel.clearPending();
+		assertTrue(d.isCancelled());
+
+		m_channel.setChannel(null);
+		assertTrue(c.getFailure() instanceof IOException);
+	}
+
+	@Test
+	public void testReconnect() throws Exception
+	{
+		expectWrite("A").andReturn(1);
+		CommandFuture a = submit("A", null);
+		// connection drops while A is in flight, B is fired during the outage
+		CommandFuture b = submit("B", null);
+
+		WritableByteChannel channel2 = m_control.createMock("Channel2", WritableByteChannel.class);
+		channel2.write(ByteBuffer.wrap("B".getBytes()));
+		EasyMock.expectLastCall().andReturn(1);
+		m_control.replay();
+		m_channel.setChannel(channel2);
+		m_control.verify();
+		m_control.reset();
+		assertTrue(a.getFailure() instanceof IOException);
+		assertFalse(b.isDone());
+		verifyOutstanding("B");
+
+		acknowledgeResponse(true);
+		assertTrue(b.isSucceeded());
+	}
+
+	private CommandFuture submit(String s, String coalesceKey) throws IOException
+	{
+		m_control.replay();
+		try
+		{
+			return m_channel.submit(ByteBuffer.wrap(s.getBytes()), Priority.Interactive, null, coalesceKey);
+		}
+		finally
+		{
+			m_control.verify();
+			m_control.reset();
+		}
+	}
 
 	private IExpectationSetters<Integer> expectWrite(String s) throws IOException
 	{
@@ -146,6 +575,25 @@ public class QueuingWritableByteChannelUnitTests
 		}
 	}
 
+	private void write(String s, String coalesceKey) throws IOException
+	{
+		write(s, Priority.Interactive, coalesceKey);
+	}
+
+	private void write(String s, Priority priority, String coalesceKey) throws IOException
+	{
+		m_control.replay();
+		try
+		{
+			m_channel.write(ByteBuffer.wrap(s.getBytes()), priority, null, coalesceKey);
+		}
+		finally
+		{
+			m_control.verify();
+			m_control.reset();
+		}
+	}
+
 	private void sendNext() throws IOException
 	{
 		m_control.replay();
@@ -166,6 +614,20 @@ public class QueuingWritableByteChannelUnitTests
 		assertEquals(expected, b != null ? new String(b) : null);
 	}
 
+	private void acknowledgeResponse(String error) throws IOException
+	{
+		m_control.replay();
+		try
+		{
+			m_channel.acknowledgeResponse(m_channel.getOutstandingRequest(), false, error);
+		}
+		finally
+		{
+			m_control.verify();
+			m_control.reset();
+		}
+	}
+
 	private void acknowledgeResponse(boolean success) throws IOException
 	{
 		m_control.replay();
@@ -4,6 +4,8 @@
 package svenz.remote.device.ipremote;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
@@ -15,6 +17,7 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.junit.Before;
 import org.junit.Test;
+import svenz.remote.device.ipremote.QueuingWritableByteChannel.Priority;
 
 /**
  * @author Sven Zethelius
@@ -70,6 +73,28 @@ public class SelectableImplUnitTests
 		m_control.reset();
 	}
 
+	@Test
+	public void testSubmitSelection() throws Exception
+	{
+		QueuingWritableByteChannel channel = m_control.createMock("Channel", QueuingWritableByteChannel.class);
+		MapConfiguration config = new MapConfiguration(new HashMap<String, Object>());
+		config.getMap().put("in1", "out1");
+		CommandFuture submitted = new CommandFuture();
+
+		EasyMock.expect(channel.submit(ByteBuffer.wrap("out1".getBytes()), null, Priority.Interactive, null, null))
+				.andReturn(submitted);
+		m_control.replay();
+		m_selectable.setCodes(config);
+		m_selectable.setWriter(channel);
+		CommandFuture future = m_selectable.submitSelection("in1");
+		m_control.verify();
+		m_control.reset();
+
+		assertFalse(future.isDone());
+		submitted.complete("R");
+		assertTrue(future.isSucceeded());
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void testSetSelectionInvalid() throws Exception
 	{
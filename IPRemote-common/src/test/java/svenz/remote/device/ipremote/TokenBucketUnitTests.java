@@ -0,0 +1,48 @@
+/**
+ * 
+ */
+package svenz.remote.device.ipremote;
+
+import static org.junit.Assert.assertEquals;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class TokenBucketUnitTests
+{
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testBurst() throws Exception
+	{
+		TokenBucket bucket = new TokenBucket(10, 3, 0);
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(100 * MS, bucket.tryAcquire(0));
+		assertEquals(50 * MS, bucket.tryAcquire(50 * MS));
+		assertEquals(0, bucket.tryAcquire(100 * MS));
+	}
+
+	@Test
+	public void testRefillCapped() throws Exception
+	{
+		TokenBucket bucket = new TokenBucket(10, 2, 0);
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(0, bucket.tryAcquire(0));
+		// a long quiet period only refills to the burst size
+		long now = TimeUnit.SECONDS.toNanos(10);
+		assertEquals(0, bucket.tryAcquire(now));
+		assertEquals(0, bucket.tryAcquire(now));
+		assertEquals(100 * MS, bucket.tryAcquire(now));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRate() throws Exception
+	{
+		new TokenBucket(0, 1, 0);
+	}
+}
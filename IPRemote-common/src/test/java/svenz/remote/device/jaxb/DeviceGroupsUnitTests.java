@@ -64,6 +64,11 @@ public class DeviceGroupsUnitTests
 		assertEquals("TV", device.getName());
 		Object o = device.getImplInstance();
 		assertTrue(o instanceof TVAquas60LE650Device);
+		assertEquals(0, device.getCommandsPerSecond(), 0);
+
+		device = deviceGroups.getDevices().get(2);
+		assertEquals(5, device.getCommandsPerSecond(), 0);
+		assertEquals(2, device.getBurst());
 
 		Group group = deviceGroups.getGroups().get(0);
 		assertEquals("zone.1", group.getLocation());
@@ -0,0 +1,290 @@
+package svenz.remote.net.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static svenz.test.helper.TestHelper.waitCapture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.easymock.IMocksControl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import svenz.remote.common.utilities.Utilities;
+import svenz.test.helper.TestHelper;
+
+/**
+ * Tests run against each {@link ISocketTransport} implementation
+ */
+public abstract class AbstractSocketTransportUnitTests
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSocketTransportUnitTests.class);
+	private final IMocksControl m_control = EasyMock.createControl();
+	private final InetAddress m_address = InetAddress.getLoopbackAddress();
+	private final ISocketTransport m_manager = createTransport();
+	private final ScheduledThreadPoolExecutor m_executor = new ScheduledThreadPoolExecutor(2);
+
+	@Rule
+	public TestName m_name = new TestName();
+
+	@Before
+	public void setup() throws IOException
+	{
+		LOGGER.info("Starting {}", m_name.getMethodName());
+		TestHelper.setLogger(getClass().getPackage().getName(), Level.TRACE);
+		Utilities.configure(m_executor, 1, TimeUnit.SECONDS);
+		m_manager.setExecutor(m_executor);
+		m_manager.open();
+	}
+
+	@After
+	public void teardown()
+	{
+		m_manager.close();
+		m_executor.shutdown();
+		TestHelper.resetLoggers();
+		LOGGER.info("Ending {}", m_name.getMethodName());
+	}
+
+	protected abstract ISocketTransport createTransport();
+
+	@Test(timeout = 1000)
+	public void testTCPConnectionCloseFromReject() throws Exception
+	{
+		InetSocketAddress address = new InetSocketAddress(m_address, getFreePort());
+		ITCPSocketChannelCallback callback = m_control.createMock("Callback", ITCPSocketChannelCallback.class);
+		Capture<ITCPChannel> capture = new Capture<>(CaptureType.ALL);
+
+		callback.connectionFailed(EasyMock.capture(capture));
+		callback.close();
+
+		WritableByteChannel connect = null;
+		m_control.replay();
+		try (WritableByteChannel c = m_manager.connect(address, 100, callback))
+		{
+			connect = c;
+			waitCapture(capture);
+		}
+		m_control.verify();
+		assertEquals(Arrays.asList(connect), capture.getValues());
+	}
+
+	@Test
+	public void testWriteTCP() throws Exception
+	{
+		int port = getFreePort();
+		InetSocketAddress address = new InetSocketAddress(m_address, port);
+
+		ITCPSocketChannelCallback callback = m_control.createMock("Callback", ITCPSocketChannelCallback.class);
+		final Capture<ITCPChannel> captureInstance = new Capture<>(CaptureType.ALL);
+		final Capture<String> captureBytes = new Capture<>(CaptureType.ALL);
+		callback.connectionOpen(EasyMock.capture(captureInstance));
+		callback.connectionClose(EasyMock.capture(captureInstance));
+		CountDownLatch closed = expectClose(callback);
+
+		WritableByteChannel channel = null;
+		m_control.replay();
+		try (final ServerSocket s = new ServerSocket(port))
+		{
+			Thread t = new Thread() {
+				@Override
+				public void run()
+				{
+					try (Socket sA = s.accept())
+					{
+						byte[] b = new byte[100];
+						InputStream inputStream = sA.getInputStream();
+						int total = 0;
+						while (total < 10)
+							total += inputStream.read(b, total, b.length - total);
+						captureBytes.setValue(new String(b, 0, total));
+					}
+					catch (Exception e)
+					{
+						LOGGER.error("Exception", e);
+					}
+				};
+			};
+			t.start();
+			try (WritableByteChannel instance = m_manager.connect(address, callback))
+			{
+				channel = instance;
+				// written before the connect completes, so queued
+				instance.write(ByteBuffer.wrap("Test1".getBytes()));
+				waitCapture(captureInstance);
+				instance.write(ByteBuffer.wrap("Test2".getBytes()));
+				waitCapture(captureBytes);
+			}
+			t.join(1000);
+		}
+		closed.await(1, TimeUnit.SECONDS); // remote close may race ours, finishing on the read thread
+		m_control.verify();
+		assertEquals(Arrays.asList(channel, channel), captureInstance.getValues());
+		assertEquals("Test1Test2", captureBytes.getValue());
+	}
+
+	@Test
+	public void testTCPRead() throws Exception
+	{
+		int port = getFreePort();
+		InetSocketAddress address = new InetSocketAddress(m_address, port);
+		ITCPSocketChannelCallback callback = m_control.createMock("Callback", ITCPSocketChannelCallback.class);
+		final Capture<ITCPChannel> captureInstance = new Capture<>(CaptureType.ALL);
+		final Capture<byte[]> captureBytes = new Capture<>(CaptureType.ALL);
+
+		callback.connectionOpen(EasyMock.capture(captureInstance));
+		callback.handleRead(EasyMock.capture(captureBytes), EasyMock.eq(address));
+		callback.connectionClose(EasyMock.capture(captureInstance));
+		CountDownLatch closed = expectClose(callback);
+
+		WritableByteChannel channel = null;
+		m_control.replay();
+		try (final ServerSocket s = new ServerSocket(port))
+		{
+			Thread t = new Thread() {
+				@Override
+				public void run()
+				{
+					try (Socket sA = s.accept())
+					{
+						OutputStream outputStream = sA.getOutputStream();
+						outputStream.write("Test".getBytes());
+						outputStream.flush();
+					}
+					catch (Exception e)
+					{
+						LOGGER.error("Exception", e);
+					}
+				};
+			};
+			t.start();
+			try (WritableByteChannel instance = m_manager.connect(address, callback))
+			{
+				channel = instance;
+				waitCapture(captureInstance, 2); // remote closes after writing
+			}
+			t.join(1000);
+		}
+		closed.await(1, TimeUnit.SECONDS); // remote close may race ours, finishing on the read thread
+		m_control.verify();
+		assertEquals(Arrays.asList(channel, channel), captureInstance.getValues());
+		assertTrue(Arrays.equals("Test".getBytes(), captureBytes.getValue()));
+	}
+
+	@Test
+	public void testListenDatagramBeforeOpen() throws Exception
+	{
+		ISocketTransport manager = createTransport();
+		ISocketChannelCallback callback = m_control.createMock("Callback", ISocketChannelCallback.class);
+		InetSocketAddress address = new InetSocketAddress(m_address, getFreePort());
+		m_control.replay();
+		try
+		{
+			manager.listenDatagram(address, callback);
+			fail("Expected ClosedChannelException");
+		}
+		catch (ClosedChannelException e)
+		{
+			// expected, an IOException like any other failure to listen
+		}
+		finally
+		{
+			manager.close();
+		}
+		m_control.verify();
+	}
+
+	@Test
+	public void testListenDatagram() throws Exception
+	{
+		ISocketChannelCallback callback = m_control.createMock("Callback", ISocketChannelCallback.class);
+		InetSocketAddress address = new InetSocketAddress(m_address, getFreePort());
+
+		Capture<byte[]> captureBytes = new Capture<>(CaptureType.ALL);
+		callback.handleRead(EasyMock.capture(captureBytes), EasyMock.isA(InetSocketAddress.class));
+		callback.close();
+		m_control.replay();
+		try (IDatagramChannel instance = m_manager.listenDatagram(address, callback))
+		{
+			try (DatagramSocket ds = new DatagramSocket())
+			{
+				byte[] bytes = "Test".getBytes();
+				DatagramPacket p = new DatagramPacket(bytes, bytes.length);
+				p.setSocketAddress(address);
+				ds.send(p);
+				waitCapture(captureBytes);
+			}
+		}
+		Thread.sleep(30); // let the receive thread see the close
+		m_control.verify();
+		assertTrue(Arrays.equals("Test".getBytes(), captureBytes.getValue()));
+	}
+
+	@Test
+	public void testSendDatagram() throws Exception
+	{
+		ISocketChannelCallback callback = m_control.createMock("Callback", ISocketChannelCallback.class);
+		InetSocketAddress address = new InetSocketAddress(m_address, getFreePort());
+		Capture<byte[]> captureBytes = new Capture<>(CaptureType.ALL);
+		callback.handleRead(EasyMock.capture(captureBytes), EasyMock.isA(InetSocketAddress.class));
+		callback.close();
+
+		m_control.replay();
+		try (IDatagramChannel instance = m_manager.listenDatagram(address, callback))
+		{
+			m_manager.sendDatagram(address, "Test".getBytes());
+			waitCapture(captureBytes);
+		}
+		Thread.sleep(30); // let the receive thread see the close
+		m_control.verify();
+		assertTrue(Arrays.equals("Test".getBytes(), captureBytes.getValue()));
+	}
+
+	private CountDownLatch expectClose(ITCPSocketChannelCallback callback) throws IOException
+	{
+		final CountDownLatch closed = new CountDownLatch(1);
+		callback.close();
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() throws Throwable
+			{
+				closed.countDown();
+				return null;
+			}
+		});
+		return closed;
+	}
+
+	private int getFreePort() throws IOException
+	{
+		try (ServerSocket s = new ServerSocket(0))
+		{
+			return s.getLocalPort();
+		}
+	}
+}
@@ -5,6 +5,7 @@ package svenz.remote.net.nio;
 
 import static org.junit.Assert.assertEquals;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.concurrent.Executor;
 import org.easymock.Capture;
 import org.easymock.CaptureType;
@@ -111,6 +112,38 @@ public class AsyncSocketChannelCallbackUnitTests
 		doAsync();
 	}
 
+	@Test
+	public void testReadBatch() throws Exception
+	{
+		DatagramBatch batch = new DatagramBatch(1, 8);
+		batch.add(ByteBuffer.wrap("Test1".getBytes()), m_address);
+		batch.add(ByteBuffer.wrap("Test2".getBytes()), m_address);
+		expectRun();
+
+		m_control.replay();
+		m_callback.handleReadBatch(batch);
+		m_control.verify();
+		m_control.reset();
+		batch.clear();
+
+		m_mockCallback.handleRead(EasyMock.aryEq("Test1".getBytes()), EasyMock.same(m_address));
+		m_mockCallback.handleRead(EasyMock.aryEq("Test2".getBytes()), EasyMock.same(m_address));
+		doAsync();
+	}
+
+	@Test
+	public void testWritabilityChanged() throws Exception
+	{
+		expectRun();
+		m_control.replay();
+		m_callback.writabilityChanged(m_instance, true);
+		m_control.verify();
+		m_control.reset();
+
+		m_mockCallback.writabilityChanged(m_instance, true);
+		doAsync();
+	}
+
 	@Test
 	public void testClose() throws Exception
 	{
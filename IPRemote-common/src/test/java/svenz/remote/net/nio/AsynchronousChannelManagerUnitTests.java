@@ -0,0 +1,22 @@
+package svenz.remote.net.nio;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AsynchronousChannelManagerUnitTests extends AbstractSocketTransportUnitTests
+{
+	@Override
+	protected ISocketTransport createTransport()
+	{
+		return new AsynchronousChannelManager();
+	}
+
+	@Test
+	public void testFactory()
+	{
+		assertTrue(SocketTransportFactory.create("nio2") instanceof AsynchronousChannelManager);
+		assertTrue(SocketTransportFactory.create("selector") instanceof SocketChannelManager);
+		assertTrue(SocketTransportFactory.create("bogus") instanceof SocketChannelManager);
+	}
+}
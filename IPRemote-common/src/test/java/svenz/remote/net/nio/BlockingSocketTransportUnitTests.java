@@ -0,0 +1,20 @@
+package svenz.remote.net.nio;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BlockingSocketTransportUnitTests extends AbstractSocketTransportUnitTests
+{
+	@Override
+	protected ISocketTransport createTransport()
+	{
+		return new BlockingSocketTransport();
+	}
+
+	@Test
+	public void testFactory()
+	{
+		assertTrue(SocketTransportFactory.create("blocking") instanceof BlockingSocketTransport);
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * 
+ */
+package svenz.remote.net.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Sven Zethelius
+ * 
+ */
+public class ChannelPipelineUnitTests
+{
+	private final IMocksControl m_control = EasyMock.createControl();
+	private final ITransferWritableByteChannel m_mockChannel =
+			m_control.createMock("Channel", ITransferWritableByteChannel.class);
+	private final IBufferReleaser m_mockReleaser = m_control.createMock("Releaser", IBufferReleaser.class);
+	private final ChannelPipeline m_pipeline = new ChannelPipeline();
+	private final List<Object> m_events = new ArrayList<>();
+
+	@Test
+	public void testInbound() throws Exception
+	{
+		m_pipeline.addLast("frame", new LineFrameHandler());
+		m_pipeline.addLast("ascii", new AsciiCodecHandler());
+		m_pipeline.addLast("capture", new CaptureHandler());
+
+		m_pipeline.connectionOpen(null);
+		m_pipeline.handleRead(ByteBuffer.wrap("PWR0\r\nVO".getBytes()).asReadOnlyBuffer(), null);
+		m_pipeline.handleRead("L045\r\n".getBytes(), null);
+		m_pipeline.writabilityChanged(null, false);
+		m_pipeline.close();
+		assertEquals(Arrays.<Object> asList("open", "PWR0", "VOL045", false, "closed"), m_events);
+	}
+
+	@Test
+	public void testOrder() throws Exception
+	{
+		m_pipeline.addLast("c", new NamingHandler("c"));
+		m_pipeline.addFirst("a", new NamingHandler("a"));
+		m_pipeline.addBefore("c", "b", new NamingHandler("b"));
+		m_pipeline.addLast("capture", new CaptureHandler());
+		assertEquals("ChannelPipeline[a, b, c, capture]", m_pipeline.toString());
+
+		m_pipeline.fireChannelRead("");
+		assertEquals(Arrays.<Object> asList("abc"), m_events);
+
+		assertTrue(m_pipeline.remove("b") instanceof NamingHandler);
+		assertNull(m_pipeline.remove("b"));
+		assertNull(m_pipeline.get("b"));
+		m_pipeline.fireChannelRead("");
+		assertEquals(Arrays.<Object> asList("abc", "ac"), m_events);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateName() throws Exception
+	{
+		m_pipeline.addLast("a", new ChannelHandlerAdapter());
+		m_pipeline.addLast("a", new ChannelHandlerAdapter());
+	}
+
+	@Test
+	public void testOutbound() throws Exception
+	{
+		m_pipeline.addLast("ascii", new AsciiCodecHandler());
+		m_pipeline.addLast("a", new NamingHandler("a"));
+		m_pipeline.addLast("b", new NamingHandler("b"));
+
+		EasyMock.expect(m_mockChannel.write(ByteBuffer.wrap("PWR0?ba".getBytes()))).andReturn(7);
+		m_control.replay();
+		WritableByteChannel writer = m_pipeline.getWriter(m_mockChannel);
+		assertSame(writer, m_pipeline.getWriter(m_mockChannel));
+		m_pipeline.write("PWR0?", null);
+		m_control.verify();
+	}
+
+	@Test
+	public void testTransfer() throws Exception
+	{
+		ByteBuffer b = ByteBuffer.wrap("PWR0?".getBytes());
+		m_pipeline.addLast("trace", new TraceHandler(LoggerFactory.getLogger(getClass())));
+		m_mockChannel.write(b, m_mockReleaser);
+		m_control.replay();
+		((ITransferWritableByteChannel) m_pipeline.getWriter(m_mockChannel)).write(b, m_mockReleaser);
+		m_control.verify();
+	}
+
+	@Test
+	public void testWriteNoChannel() throws Exception
+	{
+		ByteBuffer b = ByteBuffer.wrap("PWR0?".getBytes());
+		m_mockReleaser.release(b);
+		m_control.replay();
+		assertNull(m_pipeline.getWriter(null));
+		try
+		{
+			m_pipeline.write(b, m_mockReleaser);
+			fail("ClosedChannelException expected");
+		}
+		catch (ClosedChannelException e)
+		{
+			// expected
+		}
+		m_control.verify();
+	}
+
+	/**
+	 * Appends its name to string messages in either direction
+	 */
+	private static class NamingHandler extends ChannelHandlerAdapter
+	{
+		private final String m_name;
+
+		NamingHandler(String name)
+		{
+			m_name = name;
+		}
+
+		@Override
+		public void channelRead(IChannelHandlerContext ctx, Object msg) throws IOException
+		{
+			ctx.fireChannelRead(msg + m_name);
+		}
+
+		@Override
+		public void write(IChannelHandlerContext ctx, Object msg, IBufferReleaser releaser) throws IOException
+		{
+			ctx.write(msg + m_name, releaser);
+		}
+	}
+
+	private class CaptureHandler extends ChannelHandlerAdapter
+	{
+		@Override
+		public void channelOpen(IChannelHandlerContext ctx)
+		{
+			m_events.add("open");
+		}
+
+		@Override
+		public void channelClosed(IChannelHandlerContext ctx)
+		{
+			m_events.add("closed");
+		}
+
+		@Override
+		public void channelRead(IChannelHandlerContext ctx, Object msg)
+		{
+			m_events.add(msg);
+		}
+
+		@Override
+		public void writabilityChanged(IChannelHandlerContext ctx, boolean writable)
+		{
+			m_events.add(writable);
+		}
+	}
+}
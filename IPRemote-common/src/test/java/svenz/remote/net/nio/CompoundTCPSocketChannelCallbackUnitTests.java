@@ -89,4 +89,16 @@ public class CompoundTCPSocketChannelCallbackUnitTests
 		m_control.verify();
 		m_control.reset();
 	}
+
+	@Test
+	public void testWritabilityChanged() throws Exception
+	{
+		m_mockCallback1.writabilityChanged(instance, false);
+		m_mockCallback2.writabilityChanged(instance, false);
+		m_control.replay();
+		new CompoundTCPSocketChannelCallback(Arrays.asList(m_mockCallback1, m_mockCallback2))
+				.writabilityChanged(instance, false);
+		m_control.verify();
+		m_control.reset();
+	}
 }
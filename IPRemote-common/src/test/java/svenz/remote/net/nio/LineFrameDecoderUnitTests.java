@@ -0,0 +1,104 @@
+/**
+ * 
+ */
+package svenz.remote.net.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import svenz.remote.net.nio.LineFrameDecoder.IFrameHandler;
+
+/**
+ * @author Sven Zethelius
+ * 
+ */
+public class LineFrameDecoderUnitTests
+{
+	private final List<String> m_frames = new ArrayList<>();
+	private final IFrameHandler m_handler = new IFrameHandler() {
+		@Override
+		public void handleFrame(ByteBuffer b, int offset, int length)
+		{
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++)
+				bytes[i] = b.get(offset + i);
+			m_frames.add(new String(bytes));
+		}
+	};
+
+	@Test
+	public void testSingleRead() throws Exception
+	{
+		LineFrameDecoder decoder = new LineFrameDecoder();
+		ByteBuffer b = ByteBuffer.wrap("A\r\nBC\rDEF\n\r\n".getBytes());
+		decoder.decode(b, m_handler);
+		assertEquals(Arrays.asList("A", "BC", "DEF"), m_frames);
+		assertFalse(b.hasRemaining());
+		assertFalse(decoder.hasPartial());
+	}
+
+	@Test
+	public void testFragmented() throws Exception
+	{
+		LineFrameDecoder decoder = new LineFrameDecoder();
+		decode(decoder, "VOL0");
+		assertTrue(m_frames.isEmpty());
+		assertTrue(decoder.hasPartial());
+		decode(decoder, "45\r");
+		decode(decoder, "\nPWR");
+		decode(decoder, "0");
+		decode(decoder, "\r\nMUT1\r\nFL02");
+		assertEquals(Arrays.asList("VOL045", "PWR0", "MUT1"), m_frames);
+		assertTrue(decoder.hasPartial());
+
+		decoder.reset();
+		assertFalse(decoder.hasPartial());
+		decode(decoder, "\r\n");
+		assertEquals(3, m_frames.size());
+	}
+
+	@Test
+	public void testFragmentLongerThanInitialBuffer() throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			sb.append((char) ('A' + i % 26));
+		LineFrameDecoder decoder = new LineFrameDecoder();
+		for (int i = 0; i < sb.length(); i += 7)
+			decode(decoder, sb.substring(i, Math.min(i + 7, sb.length())));
+		decode(decoder, "\r");
+		assertEquals(Arrays.asList(sb.toString()), m_frames);
+	}
+
+	@Test
+	public void testDiscardOverlong() throws Exception
+	{
+		LineFrameDecoder decoder = new LineFrameDecoder(4);
+		decode(decoder, "ABCDE\rAB");
+		decode(decoder, "CDE");
+		decode(decoder, "FG\rABCD\r");
+		assertEquals(Arrays.asList("ABCD"), m_frames);
+		assertFalse(decoder.hasPartial());
+	}
+
+	@Test
+	public void testRespectsPosition() throws Exception
+	{
+		LineFrameDecoder decoder = new LineFrameDecoder();
+		ByteBuffer b = ByteBuffer.wrap("XXA\rBXX".getBytes());
+		b.position(2).limit(5);
+		decoder.decode(b, m_handler);
+		decode(decoder, "C\r");
+		assertEquals(Arrays.asList("A", "BC"), m_frames);
+	}
+
+	private void decode(LineFrameDecoder decoder, String s) throws Exception
+	{
+		decoder.decode(ByteBuffer.wrap(s.getBytes()).asReadOnlyBuffer(), m_handler);
+	}
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static svenz.test.helper.TestHelper.waitCapture;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -27,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -119,6 +121,7 @@ public class SocketChannelManagerUnitTests
 				}
 			}
 		}
+		waitCapture(capture, 2); // remote close may race ours, finishing on the selector thread
 		m_control.verify();
 		assertEquals(Arrays.asList(connect, connect), capture.getValues());
 	}
@@ -237,6 +240,90 @@ public class SocketChannelManagerUnitTests
 		assertTrue(Arrays.equals("Test".getBytes(), captureBytes.getValue()));
 	}
 
+	@Test
+	public void testListenDatagramBeforeOpen() throws Exception
+	{
+		SocketChannelManager manager = new SocketChannelManager();
+		manager.setExecutor(m_executor);
+		ISocketChannelCallback callback = m_control.createMock("Callback", ISocketChannelCallback.class);
+		InetSocketAddress address = new InetSocketAddress(m_address, getFreePort());
+
+		Capture<byte[]> captureBytes = new Capture<>(CaptureType.ALL);
+		callback.handleRead(EasyMock.capture(captureBytes), EasyMock.isA(InetSocketAddress.class));
+		callback.close();
+		m_control.replay();
+		try (DatagramListenerChannelInstance instance = manager.listenDatagram(address, callback))
+		{
+			// registration is held until the manager is opened
+			manager.open();
+			try (DatagramSocket ds = new DatagramSocket())
+			{
+				byte[] bytes = "Test".getBytes();
+				DatagramPacket p = new DatagramPacket(bytes, bytes.length);
+				p.setSocketAddress(address);
+				ds.send(p);
+				waitCapture(captureBytes);
+			}
+		}
+		finally
+		{
+			manager.close();
+		}
+		m_control.verify();
+		assertTrue(Arrays.equals("Test".getBytes(), captureBytes.getValue()));
+	}
+
+	@Test
+	public void testListenDatagramBatch() throws Exception
+	{
+		int port = getFreePort();
+		InetSocketAddress address = new InetSocketAddress(m_address, port);
+		final Capture<String> captureReads = new Capture<>(CaptureType.ALL);
+		final Capture<Integer> captureBatchSize = new Capture<>(CaptureType.ALL);
+		IDatagramBatchCallback callback = new IDatagramBatchCallback() {
+			@Override
+			public void handleRead(byte[] b, InetSocketAddress address)
+			{
+				fail("Batch expected");
+			}
+
+			@Override
+			public void handleReadBatch(DatagramBatch batch)
+			{
+				for (int i = 0; i < batch.size(); i++)
+					captureReads.setValue(new String(ByteBuffers.toArray(batch.get(i))));
+				captureBatchSize.setValue(batch.size());
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+
+		m_manager.setDatagramBatchSize(4);
+		List<String> expected = new ArrayList<>();
+		try (DatagramListenerChannelInstance instance = m_manager.listenDatagram(address, callback))
+		{
+			Thread.sleep(30); // wait for the socket to finish registering
+			try (DatagramSocket ds = new DatagramSocket())
+			{
+				for (int i = 0; i < 10; i++)
+				{
+					byte[] bytes = ("Test" + i).getBytes();
+					expected.add("Test" + i);
+					DatagramPacket p = new DatagramPacket(bytes, bytes.length);
+					p.setSocketAddress(address);
+					ds.send(p);
+				}
+				waitCapture(captureReads, 10);
+			}
+		}
+		assertEquals(expected, captureReads.getValues());
+		for (int size : captureBatchSize.getValues())
+			assertTrue(size <= 4);
+	}
+
 	@Test
 	public void testListenMultigram() throws Exception
 	{
@@ -392,6 +479,64 @@ public class SocketChannelManagerUnitTests
 		assertEquals(Arrays.asList(channel, channel), captureInstance.getValues());
 	}
 
+	@Test
+	public void testWriteTCPBatched() throws Exception
+	{
+		int port = getFreePort();
+		InetSocketAddress address = new InetSocketAddress(m_address, port);
+		m_manager.setWriteBatchSize(3);
+
+		ITCPSocketChannelCallback callback = m_control.createMock("Callback", ITCPSocketChannelCallback.class);
+		final Capture<TCPSocketChannelInstance> captureInstance = new Capture<>(CaptureType.ALL);
+		final Capture<byte[]> captureBytes = new Capture<>(CaptureType.ALL);
+		callback.connectionOpen(EasyMock.capture(captureInstance));
+		callback.connectionClose(EasyMock.capture(captureInstance));
+		callback.close();
+
+		final StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 10; i++)
+			expected.append("Query").append(i).append('\r');
+
+		m_control.replay();
+		try (final ServerSocket s = new ServerSocket(port))
+		{
+			Thread t = new Thread() {
+				@Override
+				public void run()
+				{
+					try
+					{
+						try (Socket sA = s.accept())
+						{
+							byte[] b = new byte[expected.length()];
+							new DataInputStream(sA.getInputStream()).readFully(b);
+							captureBytes.setValue(b);
+						}
+					}
+					catch (Exception e)
+					{
+						LOGGER.error("Exception", e);
+					}
+				};
+			};
+			t.start();
+			try (TCPSocketChannelInstance instance = (TCPSocketChannelInstance) m_manager.connect(address, callback))
+			{
+				waitCapture(captureInstance);
+				for (int i = 0; i < 10; i++)
+				{
+					byte[] b = ("Query" + i + "\r").getBytes();
+					instance.write(b, 0, b.length);
+				}
+				waitCapture(captureBytes);
+				waitCapture(captureInstance, 2);
+			}
+			t.join(1000);
+		}
+		m_control.verify();
+		assertEquals(expected.toString(), new String(captureBytes.getValue()));
+	}
+
 	@Test
 	public void testTCPRead() throws Exception
 	{
@@ -0,0 +1,142 @@
+/**
+ * 
+ */
+package svenz.remote.net.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ * 
+ */
+public class TCPSocketChannelInstanceUnitTests
+{
+	private final IMocksControl m_control = EasyMock.createControl();
+	private final ITCPSocketChannelCallback m_mockCallback =
+			m_control.createMock("Callback", ITCPSocketChannelCallback.class);
+	private final IBufferReleaser m_mockReleaser = m_control.createMock("Releaser", IBufferReleaser.class);
+	private ServerSocket m_server;
+	private TCPSocketChannelInstance m_instance;
+
+	@Before
+	public void setup() throws Exception
+	{
+		m_server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		InetSocketAddress address = (InetSocketAddress) m_server.getLocalSocketAddress();
+		m_instance = new TCPSocketChannelInstance(address, m_mockCallback);
+		m_instance.setWriteLimits(3, 1024, 4, 8);
+		m_instance.setChannel(SocketChannel.open());
+	}
+
+	@After
+	public void teardown() throws Exception
+	{
+		m_server.close();
+	}
+
+	@Test
+	public void testWriteLimits() throws Exception
+	{
+		m_control.replay();
+		write("Test");
+		write("Test");
+		m_control.verify();
+		m_control.reset();
+		assertTrue(m_instance.isWritable());
+
+		m_mockCallback.writabilityChanged(m_instance, false);
+		m_control.replay();
+		write("Test");
+		m_control.verify();
+		m_control.reset();
+		assertFalse(m_instance.isWritable());
+
+		ByteBuffer b = ByteBuffer.wrap("Test".getBytes());
+		m_mockReleaser.release(b);
+		m_control.replay();
+		try
+		{
+			m_instance.write(b, m_mockReleaser);
+			fail("WriteQueueFullException expected");
+		}
+		catch (WriteQueueFullException e)
+		{
+			// expected
+		}
+		m_control.verify();
+		m_control.reset();
+	}
+
+	@Test
+	public void testDrainRestoresWritable() throws Exception
+	{
+		SocketChannel channel = SocketChannel.open(m_server.getLocalSocketAddress());
+		m_instance.setChannel(channel);
+		ByteBuffer b = ByteBuffer.wrap("Test".getBytes());
+
+		m_mockCallback.writabilityChanged(m_instance, false);
+		m_control.replay();
+		write("Test");
+		write("Test");
+		m_instance.write(b, m_mockReleaser);
+		m_control.verify();
+		m_control.reset();
+
+		m_mockReleaser.release(b);
+		m_mockCallback.writabilityChanged(m_instance, true);
+		m_control.replay();
+		m_instance.processWrite();
+		m_control.verify();
+		m_control.reset();
+		assertTrue(m_instance.isWritable());
+
+		try (Socket s = m_server.accept())
+		{
+			byte[] read = new byte[12];
+			InputStream in = s.getInputStream();
+			for (int off = 0; off < read.length;)
+				off += in.read(read, off, read.length - off);
+			assertEquals("TestTestTest", new String(read));
+		}
+		channel.close();
+	}
+
+	@Test
+	public void testCloseReleases() throws Exception
+	{
+		ByteBuffer b = ByteBuffer.wrap("Test".getBytes());
+		m_control.replay();
+		m_instance.write(b, m_mockReleaser);
+		m_control.verify();
+		m_control.reset();
+
+		m_mockReleaser.release(b);
+		m_mockCallback.connectionFailed(m_instance);
+		m_mockCallback.close();
+		m_control.replay();
+		m_instance.close();
+		m_control.verify();
+		m_control.reset();
+	}
+
+	private void write(String s) throws Exception
+	{
+		byte[] b = s.getBytes();
+		m_instance.write(b, 0, b.length);
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package svenz.remote.net.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+/**
+ * @author Sven Zethelius
+ *
+ */
+public class WriteQueueUnitTests
+{
+	private static final int WRITE_SIZE = 10;
+
+	@Test
+	public void testWaterMarks() throws Exception
+	{
+		WriteQueue queue = new WriteQueue();
+		queue.setLimits(10, 100, WRITE_SIZE, 2 * WRITE_SIZE);
+
+		assertFalse(queue.add(newWrite(), "Test"));
+		assertFalse(queue.add(newWrite(), "Test"));
+		assertTrue(queue.add(newWrite(), "Test"));
+		assertFalse(queue.isWritable());
+		assertFalse(queue.add(newWrite(), "Test")); // already unwritable
+
+		assertFalse(drain(queue, 2));
+		assertTrue(drain(queue, 1));
+		assertTrue(queue.isWritable());
+		assertFalse(drain(queue, 1));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testDrainDuringAdd() throws Exception
+	{
+		final WriteQueue[] queue = new WriteQueue[1];
+		final boolean[] writable = new boolean[1];
+		queue[0] = new WriteQueue(new ConcurrentLinkedQueue<PendingWrite>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean add(PendingWrite w)
+			{
+				super.add(w);
+				if (size() > 1) // I/O thread drains everything as soon as the write is visible
+					writable[0] = drain(queue[0], Integer.MAX_VALUE);
+				return true;
+			}
+		});
+		queue[0].setLimits(10, 100, WRITE_SIZE, WRITE_SIZE);
+
+		assertFalse(queue[0].add(newWrite(), "Test"));
+		assertTrue(queue[0].add(newWrite(), "Test"));
+		assertTrue(writable[0]);
+		assertTrue(queue[0].isEmpty());
+		assertTrue(queue[0].isWritable());
+	}
+
+	@Test
+	public void testConcurrentAddDrain() throws Exception
+	{
+		for (int round = 0; round < 50; round++)
+		{
+			final WriteQueue queue = new WriteQueue();
+			queue.setLimits(Integer.MAX_VALUE, Long.MAX_VALUE, WRITE_SIZE, WRITE_SIZE);
+			final AtomicBoolean done = new AtomicBoolean();
+			final CountDownLatch start = new CountDownLatch(1);
+			final int[] transitions = new int[1];
+			Thread drain = new Thread("Drain") {
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+					while (!done.get() || !queue.isEmpty())
+					{
+						if (drain(queue, Integer.MAX_VALUE))
+						{
+							synchronized (transitions)
+							{
+								transitions[0]--;
+							}
+						}
+					}
+				}
+			};
+			Thread[] producers = new Thread[4];
+			for (int p = 0; p < producers.length; p++)
+			{
+				producers[p] = new Thread("Producer" + p) {
+					@Override
+					public void run()
+					{
+						try
+						{
+							start.await();
+							for (int i = 0; i < 1000; i++)
+							{
+								if (queue.add(newWrite(), "Test"))
+								{
+									synchronized (transitions)
+									{
+										transitions[0]++;
+									}
+								}
+							}
+						}
+						catch (Exception e)
+						{
+							throw new IllegalStateException(e);
+						}
+					}
+				};
+				producers[p].start();
+			}
+			drain.start();
+			start.countDown();
+			for (Thread producer : producers)
+				producer.join(10000);
+			done.set(true);
+			drain.join(10000);
+
+			assertTrue(queue.isEmpty());
+			assertTrue("Round " + round, queue.isWritable());
+			synchronized (transitions)
+			{
+				assertEquals("Round " + round, 0, transitions[0]);
+			}
+		}
+	}
+
+	private static PendingWrite newWrite()
+	{
+		return new PendingWrite(ByteBuffer.allocate(WRITE_SIZE), null);
+	}
+
+	/**
+	 * Write up to count buffers from the head of queue, as the I/O thread would.
+	 */
+	private static boolean drain(WriteQueue queue, int count)
+	{
+		ByteBuffer[] batch = new ByteBuffer[Math.min(count, 16)];
+		int n = queue.peek(batch);
+		for (int i = 0; i < n; i++)
+			batch[i].position(batch[i].limit());
+		return queue.removeWritten();
+	}
+}
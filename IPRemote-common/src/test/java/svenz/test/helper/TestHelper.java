@@ -40,7 +40,7 @@ public class TestHelper
 	public static void waitCapture(Capture<?> capture, int count) throws InterruptedException
 	{
 		// TODO latched capture instead of polling?
-		for (int i = 0; i < 100 && !capture.hasCaptured() && capture.getValues().size() < count; i++)
+		for (int i = 0; i < 100 && (!capture.hasCaptured() || capture.getValues().size() < count); i++)
 			Thread.sleep(10);
 	}
 
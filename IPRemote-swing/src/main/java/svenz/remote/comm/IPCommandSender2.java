@@ -18,9 +18,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import svenz.remote.common.utilities.LoggingExceptionHandler;
 import svenz.remote.common.utilities.Utilities;
+import svenz.remote.net.nio.ISocketTransport;
+import svenz.remote.net.nio.ITCPChannel;
 import svenz.remote.net.nio.ITCPSocketChannelCallback;
-import svenz.remote.net.nio.SocketChannelManager;
-import svenz.remote.net.nio.TCPSocketChannelInstance;
+import svenz.remote.net.nio.SocketTransportFactory;
 import svenz.remote.net.protocol.ssdp.LoggingDeviceListener;
 import svenz.remote.net.protocol.ssdp.SSDPManager;
 
@@ -35,7 +36,7 @@ public class IPCommandSender2 implements Callable<Void>, ITCPSocketChannelCallba
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(IPCommandSender2.class);
 	private final ScheduledThreadPoolExecutor m_executor = new ScheduledThreadPoolExecutor(4);
-	private final SocketChannelManager m_channelManager = new SocketChannelManager();
+	private final ISocketTransport m_channelManager = SocketTransportFactory.create();
 	private final SSDPManager m_ssdpManager;
 	private final Pattern m_pattern = Pattern.compile("(.*?):(\\d+)");
 	private final WritableByteChannel m_instance;
@@ -109,21 +110,27 @@ public class IPCommandSender2 implements Callable<Void>, ITCPSocketChannelCallba
 	}
 
 	@Override
-	public void connectionOpen(TCPSocketChannelInstance instance)
+	public void connectionOpen(ITCPChannel instance)
 	{
 		LOGGER.info("Connected to {}", instance);
 	}
 
 	@Override
-	public void connectionClose(TCPSocketChannelInstance instance)
+	public void connectionClose(ITCPChannel instance)
 	{
 		LOGGER.info("connectionClose {}", m_instance);
 	}
 
 	@Override
-	public void connectionFailed(TCPSocketChannelInstance instance)
+	public void connectionFailed(ITCPChannel instance)
 	{
 		LOGGER.info("connectionFailed {}", m_instance);
 	}
 
+	@Override
+	public void writabilityChanged(ITCPChannel instance, boolean writable)
+	{
+		LOGGER.info("writabilityChanged {} {}", m_instance, writable);
+	}
+
 }
@@ -68,7 +68,8 @@ import svenz.remote.device.IPlayable;
 import svenz.remote.device.impl.MenuSelectable;
 import svenz.remote.device.impl.OrderedSelectable;
 import svenz.remote.device.jaxb.DeviceGroups;
-import svenz.remote.net.nio.SocketChannelManager;
+import svenz.remote.net.nio.ISocketTransport;
+import svenz.remote.net.nio.SocketTransportFactory;
 import svenz.remote.net.protocol.ssdp.LoggingDeviceListener;
 import svenz.remote.net.protocol.ssdp.SSDPManager;
 
@@ -101,7 +102,7 @@ public class Main implements Closeable
 		main.setResources(ResourceBundle.getBundle(Main.class.getPackage().getName() + ".Resources",
 				Locale.getDefault()));
 
-		SocketChannelManager channelManager = new SocketChannelManager();
+		ISocketTransport channelManager = SocketTransportFactory.create();
 		channelManager.setExecutor(executor);
 
 		SSDPManager ssdpManager = new SSDPManager(channelManager, executor);